@@ -55,6 +55,5 @@ dependencies {
     implementation(libs.security.crypto)
     implementation(libs.retrofit.core)
     implementation(libs.retrofit.converter.gson)
-    implementation(libs.okhttp.logging)
     implementation(libs.activity)
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package com.nivbuskila.facerecognitionproject.utils;
+
+import android.app.Activity;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.lifecycle.ActivityLifecycleCallback;
+import androidx.test.runner.lifecycle.ActivityLifecycleMonitorRegistry;
+import androidx.test.runner.lifecycle.Stage;
+
+import com.nivbuskila.facerecognitionproject.activities.MainActivity;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the main-thread time of {@code MainActivity.onCreate}, from just before it runs to
+ * just after, over several launches. The first launch of the process is the one that starts
+ * creating the encrypted preferences in the background. For comparison it also times opening
+ * the preferences synchronously on the main thread, as onCreate used to; the master key
+ * exists by then, so a first start on a new install costs more than reported. Run it on a
+ * device with the debug build and read the result from logcat under the StartupBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+    private static final String TAG = "StartupBenchmark";
+    private static final int RUNS = 5;
+
+    @Test
+    public void mainActivityOnCreate() {
+        List<Long> onCreateNanos = Collections.synchronizedList(new ArrayList<>());
+        long[] started = new long[1];
+        // Called on the main thread around each lifecycle method
+        ActivityLifecycleCallback callback = (Activity activity, Stage stage) -> {
+            if (!(activity instanceof MainActivity)) {
+                return;
+            }
+            if (stage == Stage.PRE_ON_CREATE) {
+                started[0] = System.nanoTime();
+            } else if (stage == Stage.CREATED) {
+                onCreateNanos.add(System.nanoTime() - started[0]);
+            }
+        };
+        ActivityLifecycleMonitorRegistry.getInstance().addLifecycleCallback(callback);
+        try {
+            for (int run = 0; run < RUNS; run++) {
+                ActivityScenario.launch(MainActivity.class).close();
+            }
+        } finally {
+            ActivityLifecycleMonitorRegistry.getInstance().removeLifecycleCallback(callback);
+        }
+        assertEquals(RUNS, onCreateNanos.size());
+
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        long[] syncNanos = new long[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            long start = System.nanoTime();
+            PreferencesManager.createEncryptedPreferences(context.getApplicationContext());
+            syncNanos[0] = System.nanoTime() - start;
+        });
+
+        long laterNanos = 0;
+        for (int run = 1; run < RUNS; run++) {
+            laterNanos += onCreateNanos.get(run);
+        }
+        Log.i(TAG, String.format(Locale.US,
+                "MainActivity.onCreate: %.2f ms on the first launch, %.2f ms on later ones;"
+                        + " opening the preferences on the main thread takes %.2f ms",
+                onCreateNanos.get(0) / 1e6, laterNanos / 1e6 / (RUNS - 1), syncNanos[0] / 1e6));
+    }
+}
@@ -10,7 +10,8 @@ import androidx.navigation.ui.NavigationUI;
 
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.nivbuskila.facerecognition.FaceRecognition;
-import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
+import com.nivbuskila.facerecognition.api.FaceRecognitionTask;
+import com.nivbuskila.facerecognition.network.SessionManager;
 import com.nivbuskila.facerecognitionproject.R;
 import com.nivbuskila.facerecognitionproject.databinding.ActivityMainBinding;
 import com.nivbuskila.facerecognitionproject.utils.PreferencesManager;
@@ -20,18 +21,27 @@ public class MainActivity extends AppCompatActivity {
     private NavController navController;
     private PreferencesManager preferencesManager;
     private FaceRecognition faceRecognition;
+    private FaceRecognitionTask authTask;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Keystore work runs in the background while the layout is inflated
+        PreferencesManager.preload(this);
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
 
-        preferencesManager = new PreferencesManager(this);
         faceRecognition = new FaceRecognition(this);
-
         setupNavigation();
-        authenticateUser();
+
+        PreferencesManager.whenReady(this, preferences -> {
+            if (isDestroyed()) {
+                return;
+            }
+            preferencesManager = preferences;
+            persistSessions();
+            authenticateUser();
+        });
     }
 
     private void setupNavigation() {
@@ -47,6 +57,20 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Save every session the SDK starts or renews, so the next launch can reuse it
+     */
+    private void persistSessions() {
+        PreferencesManager sessionStore = preferencesManager;
+        SessionManager.getInstance().setListener(session -> {
+            if (session != null) {
+                sessionStore.saveSession(session.getToken(), session.getExpiresAt());
+            } else {
+                sessionStore.clearSession();
+            }
+        });
+    }
+
     private void authenticateUser() {
         String username = preferencesManager.getUsername();
         String password = preferencesManager.getPassword();
@@ -57,26 +81,32 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
+        // A saved token that is still valid needs no login; the SDK renews it in the
+        // background before it expires, or when the server rejects it
+        if (faceRecognition.restoreSession(username, password,
+                preferencesManager.getSessionToken(), preferencesManager.getSessionExpiresAt())) {
+            navController.navigate(R.id.navigation_home);
+            return;
+        }
+
         binding.progressBar.setVisibility(View.VISIBLE);
-        new Thread(() -> {
-            try {
-                FaceRecognitionResult result = faceRecognition.authenticate(username, password);
-                runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    if (!result.isSuccess()) {
-                        // Navigate to settings if authentication fails
-                        navController.navigate(R.id.navigation_settings);
-                    } else {
-                        // Navigate to home if authentication succeeds
-                        navController.navigate(R.id.navigation_home);
-                    }
-                });
-            } catch (Exception e) {
-                runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    navController.navigate(R.id.navigation_settings);
-                });
+        authTask = faceRecognition.authenticateAsync(username, password, result -> {
+            binding.progressBar.setVisibility(View.GONE);
+            if (!result.isSuccess()) {
+                // Navigate to settings if authentication fails
+                navController.navigate(R.id.navigation_settings);
+            } else {
+                // Navigate to home if authentication succeeds
+                navController.navigate(R.id.navigation_home);
             }
-        }).start();
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (authTask != null) {
+            authTask.cancel();
+        }
     }
 }
\ No newline at end of file
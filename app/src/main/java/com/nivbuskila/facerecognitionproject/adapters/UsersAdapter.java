@@ -4,6 +4,7 @@ import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.nivbuskila.facerecognitionproject.databinding.ItemUserBinding;
@@ -52,10 +53,48 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.UserViewHold
         return users.size();
     }
 
+    /**
+     * Replace the list with item-level notifications for what changed
+     * @param newUsers Users in display order
+     */
     public void updateUsers(List<User> newUsers) {
+        List<User> oldUsers = new ArrayList<>(users);
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldUsers.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newUsers.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldUsers.get(oldPosition).getUserId()
+                        .equals(newUsers.get(newPosition).getUserId());
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                String oldDate = oldUsers.get(oldPosition).getCreatedAt();
+                String newDate = newUsers.get(newPosition).getCreatedAt();
+                return oldDate == null ? newDate == null : oldDate.equals(newDate);
+            }
+        });
         users.clear();
         users.addAll(newUsers);
-        notifyDataSetChanged();
+        diff.dispatchUpdatesTo(this);
+    }
+
+    /**
+     * Add the next page of users at the end of the list
+     */
+    public void appendUsers(List<User> page) {
+        int start = users.size();
+        users.addAll(page);
+        notifyItemRangeInserted(start, page.size());
     }
 
     class UserViewHolder extends RecyclerView.ViewHolder {
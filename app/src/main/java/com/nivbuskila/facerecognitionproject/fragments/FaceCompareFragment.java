@@ -23,12 +23,12 @@ import androidx.fragment.app.Fragment;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.nivbuskila.facerecognition.FaceRecognition;
+import com.nivbuskila.facerecognition.api.FaceRecognitionTask;
+import com.nivbuskila.facerecognition.image.EncodedFace;
 import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
 import com.nivbuskila.facerecognitionproject.R;
 import com.nivbuskila.facerecognitionproject.databinding.FragmentFaceCompareBinding;
 
-import java.io.IOException;
-
 public class FaceCompareFragment extends Fragment {
     private static final int CAMERA_PERMISSION_CODE = 100;
     private static final int GALLERY_PERMISSION_CODE = 101;
@@ -37,9 +37,12 @@ public class FaceCompareFragment extends Fragment {
     private FaceRecognition faceRecognition;
     private ActivityResultLauncher<Intent> cameraLauncher;
     private ActivityResultLauncher<Intent> galleryLauncher;
-    private Bitmap face1Image;
-    private Bitmap face2Image;
+    private EncodedFace face1;
+    private EncodedFace face2;
     private boolean isCapturingFirstImage = true;
+    private FaceRecognitionTask pendingTask;
+    private FaceRecognitionTask face1Task;
+    private FaceRecognitionTask face2Task;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -75,14 +78,7 @@ public class FaceCompareFragment extends Fragment {
                 new ActivityResultContracts.StartActivityForResult(),
                 result -> {
                     if (result.getResultCode() == Activity.RESULT_OK && result.getData() != null) {
-                        try {
-                            Uri imageUri = result.getData().getData();
-                            Bitmap bitmap = MediaStore.Images.Media.getBitmap(
-                                    requireContext().getContentResolver(), imageUri);
-                            handleImageResult(bitmap);
-                        } catch (IOException e) {
-                            showError("Failed to load image", e.getMessage());
-                        }
+                        handleImageUri(result.getData().getData());
                     }
                 });
     }
@@ -164,39 +160,67 @@ public class FaceCompareFragment extends Fragment {
     private void handleImageResult(Object data) {
         if (data instanceof Bitmap) {
             Bitmap bitmap = (Bitmap) data;
-            if (isCapturingFirstImage) {
-                face1Image = bitmap;
-                binding.faceImage1.setImageBitmap(bitmap);
-            } else {
-                face2Image = bitmap;
-                binding.faceImage2.setImageBitmap(bitmap);
-            }
+            boolean first = isCapturingFirstImage;
+            (first ? binding.faceImage1 : binding.faceImage2).setImageBitmap(bitmap);
+            setEncodeTask(first, faceRecognition.encodeFaceAsync(bitmap,
+                    result -> onFaceEncoded(first, result)));
             clearResults();
         }
     }
 
+    /**
+     * Gallery picks are uploaded from their original file, so an already compressed
+     * photo is not decoded and re-encoded
+     */
+    private void handleImageUri(Uri imageUri) {
+        if (imageUri == null) {
+            return;
+        }
+        boolean first = isCapturingFirstImage;
+        (first ? binding.faceImage1 : binding.faceImage2).setImageURI(imageUri);
+        setEncodeTask(first, faceRecognition.encodeFaceAsync(imageUri,
+                result -> onFaceEncoded(first, result)));
+        clearResults();
+    }
+
+    private void setEncodeTask(boolean first, FaceRecognitionTask task) {
+        FaceRecognitionTask previous = first ? face1Task : face2Task;
+        if (previous != null) {
+            previous.cancel();
+        }
+        if (first) {
+            face1 = null;
+            face1Task = task;
+        } else {
+            face2 = null;
+            face2Task = task;
+        }
+    }
+
+    private void onFaceEncoded(boolean first, FaceRecognitionResult result) {
+        if (!result.isSuccess()) {
+            showError("Failed to load image", result.getError());
+            return;
+        }
+        if (first) {
+            face1 = result.getEncodedFace();
+        } else {
+            face2 = result.getEncodedFace();
+        }
+    }
+
     private void compareFaces() {
         if (!validateInput()) return;
 
         showProgress(true);
-        new Thread(() -> {
-            try {
-                FaceRecognitionResult result = faceRecognition.compareFaces(face1Image, face2Image);
-                requireActivity().runOnUiThread(() -> {
-                    showProgress(false);
-                    handleComparisonResult(result);
-                });
-            } catch (Exception e) {
-                requireActivity().runOnUiThread(() -> {
-                    showProgress(false);
-                    showError("Comparison Error", e.getMessage());
-                });
-            }
-        }).start();
+        pendingTask = faceRecognition.compareFacesAsync(face1, face2, result -> {
+            showProgress(false);
+            handleComparisonResult(result);
+        });
     }
 
     private boolean validateInput() {
-        if (face1Image == null || face2Image == null) {
+        if (face1 == null || face2 == null) {
             showError("Input Error", "Please capture both faces for comparison");
             return false;
         }
@@ -252,6 +276,12 @@ public class FaceCompareFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        if (pendingTask != null) {
+            pendingTask.cancel();
+            pendingTask = null;
+        }
+        setEncodeTask(true, null);
+        setEncodeTask(false, null);
         binding = null;
     }
 }
\ No newline at end of file
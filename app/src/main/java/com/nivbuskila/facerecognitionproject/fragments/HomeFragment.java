@@ -5,11 +5,9 @@ import android.app.Activity;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
-import android.util.Base64;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -26,12 +24,13 @@ import androidx.fragment.app.Fragment;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.nivbuskila.facerecognition.FaceRecognition;
+import com.nivbuskila.facerecognition.api.FaceRecognitionCallback;
+import com.nivbuskila.facerecognition.api.FaceRecognitionTask;
+import com.nivbuskila.facerecognition.image.EncodedFace;
 import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
 import com.nivbuskila.facerecognitionproject.R;
 import com.nivbuskila.facerecognitionproject.databinding.FragmentHomeBinding;
 
-import java.io.IOException;
-
 public class HomeFragment extends Fragment {
     private static final String TAG = "HomeFragment";
     private static final int CAMERA_PERMISSION_CODE = 100;
@@ -42,6 +41,10 @@ public class HomeFragment extends Fragment {
     private ActivityResultLauncher<Intent> cameraLauncher;
     private ActivityResultLauncher<Intent> galleryLauncher;
     private Bitmap capturedImage;
+    private Uri capturedUri;
+    private EncodedFace capturedFace;
+    private FaceRecognitionTask pendingTask;
+    private FaceRecognitionTask encodeTask;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -78,14 +81,7 @@ public class HomeFragment extends Fragment {
                 new ActivityResultContracts.StartActivityForResult(),
                 result -> {
                     if (result.getResultCode() == Activity.RESULT_OK && result.getData() != null) {
-                        try {
-                            Uri imageUri = result.getData().getData();
-                            Bitmap bitmap = MediaStore.Images.Media.getBitmap(
-                                    requireContext().getContentResolver(), imageUri);
-                            handleImageResult(bitmap);
-                        } catch (IOException e) {
-                            showError("Failed to load image", e.getMessage());
-                        }
+                        handleImageUri(result.getData().getData());
                     }
                 });
     }
@@ -127,6 +123,8 @@ public class HomeFragment extends Fragment {
     private void clearImage() {
         binding.previewImage.setImageResource(android.R.color.transparent);  // או R.color.grey_background
         capturedImage = null;
+        capturedUri = null;
+        resetEncodedFace();
         clearResults();
     }
 
@@ -168,31 +166,69 @@ public class HomeFragment extends Fragment {
     private void handleImageResult(Object data) {
         if (data instanceof Bitmap) {
             capturedImage = (Bitmap) data;
+            capturedUri = null;
             binding.previewImage.setImageBitmap(capturedImage);
+            encodeCapturedImage();
             clearResults();
         }
     }
 
+    /**
+     * Gallery picks are uploaded from their original file, so an already compressed
+     * photo is not decoded and re-encoded
+     */
+    private void handleImageUri(Uri imageUri) {
+        if (imageUri == null) {
+            return;
+        }
+        capturedImage = null;
+        capturedUri = imageUri;
+        binding.previewImage.setImageURI(imageUri);
+        encodeCapturedImage();
+        clearResults();
+    }
+
+    /**
+     * Encode the capture once in the background; register, verify and update then
+     * reuse the encoded bytes instead of compressing the bitmap on every call
+     */
+    private void encodeCapturedImage() {
+        resetEncodedFace();
+        FaceRecognitionCallback callback = result -> {
+            if (result.isSuccess()) {
+                capturedFace = result.getEncodedFace();
+            }
+        };
+        encodeTask = capturedUri != null
+                ? faceRecognition.encodeFaceAsync(capturedUri, callback)
+                : faceRecognition.encodeFaceAsync(capturedImage, callback);
+    }
+
+    private void resetEncodedFace() {
+        if (encodeTask != null) {
+            encodeTask.cancel();
+            encodeTask = null;
+        }
+        capturedFace = null;
+    }
+
     private void registerUser() {
         if (!validateInput()) return;
 
         showProgress(true);
         String userId = binding.userIdInput.getText().toString().trim();
 
-        new Thread(() -> {
-            try {
-                FaceRecognitionResult result = faceRecognition.registerUser(capturedImage, userId);
-                requireActivity().runOnUiThread(() -> {
-                    showProgress(false);
-                    handleRegistrationResult(result);
-                });
-            } catch (Exception e) {
-                requireActivity().runOnUiThread(() -> {
-                    showProgress(false);
-                    showError("Registration Error", e.getMessage());
-                });
-            }
-        }).start();
+        FaceRecognitionCallback callback = result -> {
+            showProgress(false);
+            handleRegistrationResult(result);
+        };
+        if (capturedFace != null) {
+            pendingTask = faceRecognition.registerUserAsync(capturedFace, userId, callback);
+        } else if (capturedUri != null) {
+            pendingTask = faceRecognition.registerUserAsync(capturedUri, userId, callback);
+        } else {
+            pendingTask = faceRecognition.registerUserAsync(capturedImage, userId, callback);
+        }
     }
 
     private void getUserImage() {
@@ -204,29 +240,16 @@ public class HomeFragment extends Fragment {
         showProgress(true);
         String userId = binding.userIdInput.getText().toString().trim();
 
-        new Thread(() -> {
-            try {
-                FaceRecognitionResult result = faceRecognition.getUserImage(userId);
-                requireActivity().runOnUiThread(() -> {
-                    showProgress(false);
-                    if (result.isSuccess() && result.getFaceData() != null) {
-                        String base64Data = result.getFaceData().contains(",")
-                                ? result.getFaceData().split(",")[1]
-                                : result.getFaceData();
-                        byte[] decodedString = Base64.decode(base64Data, Base64.DEFAULT);
-                        Bitmap bitmap = BitmapFactory.decodeByteArray(decodedString, 0, decodedString.length);
-                        binding.previewImage.setImageBitmap(bitmap);
-                    } else {
-                        showError("Error", result.getError());
-                    }
-                });
-            } catch (Exception e) {
-                requireActivity().runOnUiThread(() -> {
-                    showProgress(false);
-                    showError("Error", e.getMessage());
-                });
+        int width = binding.previewImage.getWidth();
+        int height = binding.previewImage.getHeight();
+        pendingTask = faceRecognition.getUserImageBitmapAsync(userId, width, height, result -> {
+            showProgress(false);
+            if (result.isSuccess() && result.getImage() != null) {
+                binding.previewImage.setImageBitmap(result.getImage());
+            } else {
+                showError("Error", result.getError());
             }
-        }).start();
+        });
     }
 
     private void updateExistingUser() {
@@ -235,20 +258,17 @@ public class HomeFragment extends Fragment {
         showProgress(true);
         String userId = binding.userIdInput.getText().toString().trim();
 
-        new Thread(() -> {
-            try {
-                FaceRecognitionResult result = faceRecognition.updateUser(capturedImage, userId);
-                requireActivity().runOnUiThread(() -> {
-                    showProgress(false);
-                    handleUpdateResult(result);
-                });
-            } catch (Exception e) {
-                requireActivity().runOnUiThread(() -> {
-                    showProgress(false);
-                    showError("Update Error", e.getMessage());
-                });
-            }
-        }).start();
+        FaceRecognitionCallback callback = result -> {
+            showProgress(false);
+            handleUpdateResult(result);
+        };
+        if (capturedFace != null) {
+            pendingTask = faceRecognition.updateUserAsync(capturedFace, userId, callback);
+        } else if (capturedUri != null) {
+            pendingTask = faceRecognition.updateUserAsync(capturedUri, userId, callback);
+        } else {
+            pendingTask = faceRecognition.updateUserAsync(capturedImage, userId, callback);
+        }
     }
 
     private void verifyUser() {
@@ -257,24 +277,21 @@ public class HomeFragment extends Fragment {
         showProgress(true);
         String userId = binding.userIdInput.getText().toString().trim();
 
-        new Thread(() -> {
-            try {
-                FaceRecognitionResult result = faceRecognition.verifyUser(capturedImage, userId);
-                requireActivity().runOnUiThread(() -> {
-                    showProgress(false);
-                    handleVerificationResult(result);
-                });
-            } catch (Exception e) {
-                requireActivity().runOnUiThread(() -> {
-                    showProgress(false);
-                    showError("Verification Error", e.getMessage());
-                });
-            }
-        }).start();
+        FaceRecognitionCallback callback = result -> {
+            showProgress(false);
+            handleVerificationResult(result);
+        };
+        if (capturedFace != null) {
+            pendingTask = faceRecognition.verifyUserAsync(capturedFace, userId, callback);
+        } else if (capturedUri != null) {
+            pendingTask = faceRecognition.verifyUserAsync(capturedUri, userId, callback);
+        } else {
+            pendingTask = faceRecognition.verifyUserAsync(capturedImage, userId, callback);
+        }
     }
 
     private boolean validateInput() {
-        if (capturedImage == null) {
+        if (capturedImage == null && capturedUri == null) {
             showError("Input Error", "Please capture an image first");
             return false;
         }
@@ -363,6 +380,11 @@ public class HomeFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        if (pendingTask != null) {
+            pendingTask.cancel();
+            pendingTask = null;
+        }
+        resetEncodedFace();
         binding = null;
     }
 }
\ No newline at end of file
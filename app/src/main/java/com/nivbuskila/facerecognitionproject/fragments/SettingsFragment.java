@@ -1,5 +1,6 @@
 package com.nivbuskila.facerecognitionproject.fragments;
 
+import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
@@ -17,20 +18,19 @@ import androidx.navigation.Navigation;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.nivbuskila.facerecognition.FaceRecognition;
-import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
+import com.nivbuskila.facerecognition.api.FaceRecognitionTask;
 import com.nivbuskila.facerecognitionproject.R;
 import com.nivbuskila.facerecognitionproject.databinding.FragmentSettingsBinding;
 import com.nivbuskila.facerecognitionproject.utils.PreferencesManager;
 
 public class SettingsFragment extends Fragment {
     private FragmentSettingsBinding binding;
-    private PreferencesManager preferencesManager;
     private FaceRecognition faceRecognition;
+    private FaceRecognitionTask authTask;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        preferencesManager = new PreferencesManager(requireContext());
         faceRecognition = new FaceRecognition(requireContext());
     }
 
@@ -64,8 +64,13 @@ public class SettingsFragment extends Fragment {
     }
 
     private void loadSavedCredentials() {
-        binding.usernameInput.setText(preferencesManager.getUsername());
-        binding.passwordInput.setText(preferencesManager.getPassword());
+        PreferencesManager.whenReady(requireContext(), preferences -> {
+            if (binding == null) {
+                return;
+            }
+            binding.usernameInput.setText(preferences.getUsername());
+            binding.passwordInput.setText(preferences.getPassword());
+        });
     }
 
     private void setupSaveButton() {
@@ -82,35 +87,28 @@ public class SettingsFragment extends Fragment {
         }
 
         // Verify credentials before saving
-        new Thread(() -> {
-            try {
-                FaceRecognitionResult result = faceRecognition.authenticate(username, password);
-                requireActivity().runOnUiThread(() -> {
-                    if (result.isSuccess()) {
-                        preferencesManager.saveCredentials(username, password);
-                        showMessage("Credentials saved successfully");
-
-                        // Navigate back to home screen after successful save
-                        NavController navController = Navigation.findNavController(requireView());
-                        navController.navigate(R.id.navigation_home);
-
-                        // Make bottom navigation visible again if it was hidden
-                        if (getActivity() != null) {
-                            BottomNavigationView bottomNav = getActivity().findViewById(R.id.navView);
-                            if (bottomNav != null) {
-                                bottomNav.setVisibility(View.VISIBLE);
-                            }
-                        }
-                    } else {
-                        showError("Authentication Failed", "Invalid username or password");
+        Context appContext = requireContext().getApplicationContext();
+        authTask = faceRecognition.authenticateAsync(username, password, result -> {
+            if (result.isSuccess()) {
+                PreferencesManager.whenReady(appContext,
+                        preferences -> preferences.saveCredentials(username, password));
+                showMessage("Credentials saved successfully");
+
+                // Navigate back to home screen after successful save
+                NavController navController = Navigation.findNavController(requireView());
+                navController.navigate(R.id.navigation_home);
+
+                // Make bottom navigation visible again if it was hidden
+                if (getActivity() != null) {
+                    BottomNavigationView bottomNav = getActivity().findViewById(R.id.navView);
+                    if (bottomNav != null) {
+                        bottomNav.setVisibility(View.VISIBLE);
                     }
-                });
-            } catch (Exception e) {
-                requireActivity().runOnUiThread(() ->
-                        showError("Error", "Failed to verify credentials: " + e.getMessage())
-                );
+                }
+            } else {
+                showError("Authentication Failed", "Invalid username or password");
             }
-        }).start();
+        });
     }
 
     private void showError(String title, String message) {
@@ -128,6 +126,10 @@ public class SettingsFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        if (authTask != null) {
+            authTask.cancel();
+            authTask = null;
+        }
         binding = null;
     }
 }
\ No newline at end of file
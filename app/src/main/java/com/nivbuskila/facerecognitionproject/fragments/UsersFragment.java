@@ -1,9 +1,9 @@
 package com.nivbuskila.facerecognitionproject.fragments;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
-import android.util.Base64;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -14,13 +14,16 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
-import com.nivbuskila.facerecognition.network.ApiResponse;
+import androidx.recyclerview.widget.RecyclerView;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.nivbuskila.facerecognition.FaceRecognition;
-import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
+import com.nivbuskila.facerecognition.api.FaceRecognitionTask;
+import com.nivbuskila.facerecognition.directory.UserDirectory;
+import com.nivbuskila.facerecognition.models.UserChangeSet;
+import com.nivbuskila.facerecognition.models.UserRecord;
 import com.nivbuskila.facerecognitionproject.R;
 import com.nivbuskila.facerecognitionproject.adapters.UsersAdapter;
 import com.nivbuskila.facerecognitionproject.databinding.FragmentUsersBinding;
@@ -29,9 +32,17 @@ import com.nivbuskila.facerecognitionproject.models.User;
 
 
 public class UsersFragment extends Fragment implements UsersAdapter.OnUserActionListener {
+    private static final int PAGE_SIZE = 100;
+
     private FragmentUsersBinding binding;
     private UsersAdapter adapter;
     private FaceRecognition faceRecognition;
+    private FaceRecognitionTask loadTask;
+    private FaceRecognitionTask deleteTask;
+    private FaceRecognitionTask imageTask;
+    private FaceRecognitionTask searchTask;
+    private String query = "";
+    private boolean endReached;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -51,6 +62,7 @@ public class UsersFragment extends Fragment implements UsersAdapter.OnUserAction
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         setupRecyclerView();
+        setupSearch();
         setupSwipeRefresh();
         loadUsers();
     }
@@ -59,42 +71,103 @@ public class UsersFragment extends Fragment implements UsersAdapter.OnUserAction
         adapter = new UsersAdapter(this);
         binding.usersRecyclerView.setLayoutManager(new LinearLayoutManager(requireContext()));
         binding.usersRecyclerView.setAdapter(adapter);
+        binding.usersRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager =
+                        (LinearLayoutManager) recyclerView.getLayoutManager();
+                boolean nearEnd = layoutManager != null
+                        && layoutManager.findLastVisibleItemPosition()
+                        >= adapter.getItemCount() - PAGE_SIZE / 2;
+                if (nearEnd && !endReached && (searchTask == null || searchTask.isDone())) {
+                    queryUsers(adapter.getItemCount(), PAGE_SIZE, false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Filter by userId prefix on every keystroke; the local directory is indexed for it
+     */
+    private void setupSearch() {
+        binding.searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                query = s.toString().trim();
+                queryUsers(0, PAGE_SIZE, true);
+            }
+        });
     }
 
     private void setupSwipeRefresh() {
         binding.swipeRefresh.setOnRefreshListener(this::loadUsers);
     }
 
+    /**
+     * Show the local directory right away, then sync it and requery if anything changed
+     */
     private void loadUsers() {
+        if (loadTask != null && !loadTask.isDone()) {
+            // The running sync will refresh the list
+            binding.swipeRefresh.setRefreshing(false);
+            return;
+        }
         showLoading(true);
-        new Thread(() -> {
-            try {
-                FaceRecognitionResult result = faceRecognition.getUsers();
-                requireActivity().runOnUiThread(() -> {
-                    showLoading(false);
-                    if (result.isSuccess() && result.getUsers() != null) {
-                        List<User> users = new ArrayList<>();
-                        for (ApiResponse response : result.getUsers()) {
-                            User user = new User();
-                            user.setUserId(response.getUserId());
-                            user.setCreatedAt(response.getCreatedAt());
-                            users.add(user);
-                        }
-                        adapter.updateUsers(users);
-                        showEmptyState(users.isEmpty());
+        queryUsers(0, Math.max(PAGE_SIZE, adapter.getItemCount()), true);
+        loadTask = faceRecognition.syncUsersAsync(result -> {
+            showLoading(false);
+            UserChangeSet changes = result.getChanges();
+            if (result.isSuccess() && changes != null && !changes.isEmpty()) {
+                queryUsers(0, Math.max(PAGE_SIZE, adapter.getItemCount()), true);
+                return;
+            }
+            if (!result.isSuccess()) {
+                showError("Failed to load users", result.getError());
+            }
+            showEmptyState(adapter.getItemCount() == 0);
+        });
+    }
+
+    /**
+     * Read a page of the local directory matching the current search
+     * @param replace Whether the page replaces the list or is appended to it
+     */
+    private void queryUsers(int offset, int limit, boolean replace) {
+        cancelTask(searchTask);
+        searchTask = faceRecognition.searchUsersAsync(query, UserDirectory.Match.PREFIX,
+                UserDirectory.Order.USER_ID, offset, limit, result -> {
+                    if (!result.isSuccess() || result.getRecords() == null) {
+                        return;
+                    }
+                    List<User> page = toUsers(result.getRecords());
+                    endReached = page.size() < limit;
+                    if (replace) {
+                        adapter.updateUsers(page);
                     } else {
-                        showError("Failed to load users", result.getError());
-                        showEmptyState(true);
+                        adapter.appendUsers(page);
                     }
+                    boolean syncing = loadTask != null && !loadTask.isDone();
+                    showEmptyState(adapter.getItemCount() == 0 && !syncing);
                 });
-            } catch (Exception e) {
-                requireActivity().runOnUiThread(() -> {
-                    showLoading(false);
-                    showError("Error", e.getMessage());
-                    showEmptyState(true);
-                });
-            }
-        }).start();
+    }
+
+    private static List<User> toUsers(List<UserRecord> records) {
+        List<User> users = new ArrayList<>(records.size());
+        for (UserRecord record : records) {
+            User user = new User();
+            user.setUserId(record.getUserId());
+            user.setCreatedAt(record.getCreatedAt());
+            users.add(user);
+        }
+        return users;
     }
 
     @Override
@@ -109,25 +182,15 @@ public class UsersFragment extends Fragment implements UsersAdapter.OnUserAction
 
     private void deleteUser(User user) {
         showLoading(true);
-        new Thread(() -> {
-            try {
-                FaceRecognitionResult result = faceRecognition.deleteUser(user.getUserId());
-                requireActivity().runOnUiThread(() -> {
-                    showLoading(false);
-                    if (result.isSuccess()) {
-                        showMessage("User deleted successfully");
-                        loadUsers(); // Reload the list
-                    } else {
-                        showError("Failed to delete user", result.getError());
-                    }
-                });
-            } catch (Exception e) {
-                requireActivity().runOnUiThread(() -> {
-                    showLoading(false);
-                    showError("Error", e.getMessage());
-                });
+        deleteTask = faceRecognition.deleteUserAsync(user.getUserId(), result -> {
+            showLoading(false);
+            if (result.isSuccess()) {
+                showMessage("User deleted successfully");
+                loadUsers(); // Reload the list
+            } else {
+                showError("Failed to delete user", result.getError());
             }
-        }).start();
+        });
     }
     private void showError(String title, String message) {
         new MaterialAlertDialogBuilder(requireContext())
@@ -148,35 +211,21 @@ public class UsersFragment extends Fragment implements UsersAdapter.OnUserAction
     @Override
     public void onViewImageClick(User user) {
         showLoading(true);
-        new Thread(() -> {
-            try {
-                FaceRecognitionResult result = faceRecognition.getUserImage(user.getUserId());
-                requireActivity().runOnUiThread(() -> {
-                    showLoading(false);
-                    if (result.isSuccess() && result.getFaceData() != null) {
-                        showUserImage(result.getFaceData());
-                    } else {
-                        showError("Error", result.getError());
-                    }
-                });
-            } catch (Exception e) {
-                requireActivity().runOnUiThread(() -> {
-                    showLoading(false);
-                    showError("Error", e.getMessage());
-                });
+        int size = getResources().getDisplayMetrics().widthPixels;
+        imageTask = faceRecognition.getUserImageBitmapAsync(user.getUserId(), size, size, result -> {
+            showLoading(false);
+            if (result.isSuccess() && result.getImage() != null) {
+                showUserImage(result.getImage());
+            } else {
+                showError("Error", result.getError());
             }
-        }).start();
+        });
     }
 
-    private void showUserImage(String base64Image) {
+    private void showUserImage(Bitmap bitmap) {
         MaterialAlertDialogBuilder builder = new MaterialAlertDialogBuilder(requireContext());
         View view = getLayoutInflater().inflate(R.layout.dialog_user_image, null);
         ImageView imageView = view.findViewById(R.id.userImageView);
-
-        // Convert base64 to Bitmap
-        String base64Data = base64Image.split(",")[1];
-        byte[] decodedString = Base64.decode(base64Data, Base64.DEFAULT);
-        Bitmap bitmap = BitmapFactory.decodeByteArray(decodedString, 0, decodedString.length);
         imageView.setImageBitmap(bitmap);
 
         builder.setView(view)
@@ -190,9 +239,19 @@ public class UsersFragment extends Fragment implements UsersAdapter.OnUserAction
         binding.usersRecyclerView.setVisibility(show ? View.GONE : View.VISIBLE);
     }
 
+    private void cancelTask(FaceRecognitionTask task) {
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        cancelTask(loadTask);
+        cancelTask(deleteTask);
+        cancelTask(imageTask);
+        cancelTask(searchTask);
         binding = null;
     }
 
@@ -2,25 +2,171 @@ package com.nivbuskila.facerecognitionproject.utils;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
-import android.util.Base64;
+import android.util.Log;
 
 import androidx.security.crypto.EncryptedSharedPreferences;
 import androidx.security.crypto.MasterKey;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+/**
+ * Encrypted app preferences. Creating the store means keystore work, so it is done once per
+ * process on a background thread: call {@link #preload(Context)} early, then receive the shared
+ * instance through {@link #whenReady(Context, ReadyCallback)}, or wait for it with
+ * {@link #get(Context)} off the main thread.
+ *
+ * <p>If the keystore is unusable the values are kept in plain preferences instead, except for
+ * the session token, which is then not saved at all.
+ */
 public class PreferencesManager {
+    private static final String TAG = "PreferencesManager";
     private static final String PREFERENCES_FILE = "secure_prefs";
     private static final String KEY_USERNAME = "admin_username";
     private static final String KEY_PASSWORD = "admin_password";
+    private static final String KEY_SESSION_TOKEN = "session_token";
+    private static final String KEY_SESSION_EXPIRES_AT = "session_expires_at";
+
+    private static final Object LOCK = new Object();
+    private static final List<ReadyCallback> waiting = new ArrayList<>();
+    private static FutureTask<PreferencesManager> loader;
+    private static volatile PreferencesManager instance;
 
     private final SharedPreferences preferences;
+    private final boolean encrypted;
+
+    public interface ReadyCallback {
+        void onReady(PreferencesManager preferences);
+    }
 
+    /**
+     * Create the store on the calling thread. Prefer the shared instance, which is created
+     * in the background.
+     */
     public PreferencesManager(Context context) {
-        SharedPreferences prefs;
+        SharedPreferences encryptedPreferences = createEncryptedPreferences(context);
+        encrypted = encryptedPreferences != null;
+        preferences = encrypted ? encryptedPreferences
+                // Fallback to regular shared preferences if encryption fails
+                : context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Start creating the shared instance on a background thread, if not started yet.
+     * Returns at once. If creating it fails, the next call starts over.
+     */
+    public static void preload(Context context) {
+        Context appContext = context.getApplicationContext();
+        synchronized (LOCK) {
+            if (loader != null) {
+                return;
+            }
+            loader = new FutureTask<>(() -> {
+                PreferencesManager manager;
+                try {
+                    manager = new PreferencesManager(appContext);
+                } catch (RuntimeException | Error e) {
+                    boolean hadCallbacks;
+                    synchronized (LOCK) {
+                        // Let the next call try again, and release the callbacks (and the
+                        // activities they hold) rather than leave them queued for good
+                        loader = null;
+                        hadCallbacks = !waiting.isEmpty();
+                        waiting.clear();
+                    }
+                    if (hadCallbacks) {
+                        new Handler(Looper.getMainLooper()).post(() -> {
+                            throw new IllegalStateException("Could not create preferences", e);
+                        });
+                    }
+                    throw e;
+                }
+                List<ReadyCallback> callbacks;
+                synchronized (LOCK) {
+                    instance = manager;
+                    callbacks = new ArrayList<>(waiting);
+                    waiting.clear();
+                }
+                Handler mainHandler = new Handler(Looper.getMainLooper());
+                for (ReadyCallback callback : callbacks) {
+                    mainHandler.post(() -> callback.onReady(manager));
+                }
+                return manager;
+            });
+            new Thread(loader, "PreferencesManager-init").start();
+        }
+    }
+
+    /**
+     * Receive the shared instance once it is created: on the main thread, or at once on the
+     * calling thread if it is ready already. Starts creating it if needed. If it cannot be
+     * created, the callback is dropped and the failure is thrown on the main thread.
+     */
+    public static void whenReady(Context context, ReadyCallback callback) {
+        PreferencesManager ready = instance;
+        if (ready == null) {
+            synchronized (LOCK) {
+                ready = instance;
+                if (ready == null) {
+                    waiting.add(callback);
+                    preload(context);
+                    return;
+                }
+            }
+        }
+        callback.onReady(ready);
+    }
+
+    /**
+     * The shared instance, waiting for it to be created if needed. Blocks, so call it from
+     * the main thread only once {@link #isReady()}.
+     */
+    public static PreferencesManager get(Context context) {
+        PreferencesManager ready = instance;
+        if (ready != null) {
+            return ready;
+        }
+        FutureTask<PreferencesManager> task;
+        synchronized (LOCK) {
+            // Under the lock, so a failed load cannot reset the loader in between
+            preload(context);
+            task = loader;
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not create preferences", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static boolean isReady() {
+        return instance != null;
+    }
+
+    /**
+     * Open the encrypted preferences, creating the master key on first use
+     * @return The preferences, or null if the keystore is unusable
+     */
+    static SharedPreferences createEncryptedPreferences(Context context) {
         try {
             // Create master key for encryption
             KeyGenParameterSpec spec = new KeyGenParameterSpec.Builder(
@@ -36,18 +182,18 @@ public class PreferencesManager {
                     .build();
 
             // Create encrypted shared preferences
-            prefs = EncryptedSharedPreferences.create(
+            return EncryptedSharedPreferences.create(
                     context,
                     PREFERENCES_FILE,
                     masterKey,
                     EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
                     EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
             );
-        } catch (GeneralSecurityException | IOException e) {
-            // Fallback to regular shared preferences if encryption fails
-            prefs = context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            // Keystore errors also surface as runtime exceptions
+            Log.w(TAG, "Encrypted preferences unavailable", e);
+            return null;
         }
-        preferences = prefs;
     }
 
     public void saveCredentials(String username, String password) {
@@ -64,4 +210,34 @@ public class PreferencesManager {
     public String getPassword() {
         return preferences.getString(KEY_PASSWORD, "");
     }
-}
\ No newline at end of file
+
+    /**
+     * Save the session token so the next start can skip the login. Does nothing if the
+     * preferences are not encrypted: a bearer token is not written in the clear.
+     * @param expiresAt Expiry in milliseconds since the epoch, or 0 if unknown
+     */
+    public void saveSession(String token, long expiresAt) {
+        if (!encrypted) {
+            return;
+        }
+        preferences.edit()
+                .putString(KEY_SESSION_TOKEN, token)
+                .putLong(KEY_SESSION_EXPIRES_AT, expiresAt)
+                .apply();
+    }
+
+    public void clearSession() {
+        preferences.edit()
+                .remove(KEY_SESSION_TOKEN)
+                .remove(KEY_SESSION_EXPIRES_AT)
+                .apply();
+    }
+
+    public String getSessionToken() {
+        return encrypted ? preferences.getString(KEY_SESSION_TOKEN, "") : "";
+    }
+
+    public long getSessionExpiresAt() {
+        return encrypted ? preferences.getLong(KEY_SESSION_EXPIRES_AT, 0) : 0;
+    }
+}
@@ -28,6 +28,12 @@ android {
         targetCompatibility = JavaVersion.VERSION_17
     }
 
+    // Local tests run the transport against MockWebServer; android.util.Log and friends
+    // return defaults instead of throwing
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
+
     publishing {
         singleVariant("release") {
             withSourcesJar()
@@ -43,7 +49,10 @@ dependencies {
     // Retrofit for network calls
     implementation(libs.retrofit.core)
     implementation(libs.retrofit.converter.gson)
-    implementation(libs.okhttp.logging)
+    // Retrofit alone would bring OkHttp 3
+    implementation(libs.okhttp)
+    // Streams images into JSON request bodies, see StreamingJsonConverterFactory
+    implementation(libs.moshi)
 
     // ML Kit Face Detection
     implementation(libs.mlkit.face.detection)
@@ -55,12 +64,12 @@ dependencies {
     implementation(libs.camerax.view)
 
     testImplementation(libs.junit)
+    testImplementation(libs.okhttp.mockwebserver)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 
     implementation(libs.retrofit.core)
     implementation(libs.retrofit.converter.gson)
-    implementation(libs.okhttp.logging)
 
 }
 
@@ -0,0 +1,113 @@
+package com.nivbuskila.facerecognition.directory;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nivbuskila.facerecognition.directory.UserDirectory.Match;
+import com.nivbuskila.facerecognition.directory.UserDirectory.Order;
+import com.nivbuskila.facerecognition.models.UserRecord;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs the searches against SQLite on a device, using a database held in memory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SqliteUserDirectoryTest {
+    private static final String EMOJI = new String(Character.toChars(0x1F600));
+
+    private SqliteUserDirectory directory;
+
+    @Before
+    public void setUp() {
+        directory = new SqliteUserDirectory(
+                InstrumentationRegistry.getInstrumentation().getTargetContext(), null);
+        directory.replaceAll(Arrays.asList(
+                new UserRecord("alice", "1", "2024-01-03"),
+                new UserRecord("Albert", "2", "2024-01-01"),
+                new UserRecord("bob", "3", "2024-01-02"),
+                new UserRecord("malik", "4", null),
+                new UserRecord("al_x", "5", "2024-01-04")), "c1");
+    }
+
+    @Test
+    public void prefixSearchIgnoresCase() {
+        assertEquals(Arrays.asList("Albert", "al_x", "alice"),
+                ids(directory.search("AL", Match.PREFIX, Order.USER_ID, 0, 10)));
+        assertEquals(Collections.singletonList("al_x"),
+                ids(directory.search("al_", Match.PREFIX, Order.USER_ID, 0, 10)));
+    }
+
+    @Test
+    public void prefixSearchFindsCharactersOutsideTheBmp() {
+        directory.applyChanges(Arrays.asList(
+                new UserRecord("x" + EMOJI, "6", null),
+                new UserRecord("x\uffff", "7", null),
+                new UserRecord("y", "8", null)), Collections.<String>emptyList(), "c2");
+
+        assertEquals(Arrays.asList("x\uffff", "x" + EMOJI),
+                ids(directory.search("x", Match.PREFIX, Order.USER_ID, 0, 10)));
+    }
+
+    @Test
+    public void prefixEndingBeforeUpperCaseLettersStaysExact() {
+        directory.applyChanges(Arrays.asList(
+                new UserRecord("x@1", "6", null),
+                new UserRecord("x[1", "7", null)), Collections.<String>emptyList(), "c2");
+
+        assertEquals(Collections.singletonList("x@1"),
+                ids(directory.search("x@", Match.PREFIX, Order.USER_ID, 0, 10)));
+    }
+
+    @Test
+    public void prefixUpperBoundIncrementsLastCodePoint() {
+        assertEquals("ac", SqliteUserDirectory.prefixUpperBound("AB"));
+        assertEquals("a[", SqliteUserDirectory.prefixUpperBound("a@"));
+        assertEquals("a" + new String(Character.toChars(0x1F601)),
+                SqliteUserDirectory.prefixUpperBound("a" + EMOJI));
+        // Skips the surrogate range
+        assertEquals("a\ue000", SqliteUserDirectory.prefixUpperBound("a\ud7ff"));
+        assertEquals("b", SqliteUserDirectory.prefixUpperBound(
+                "a" + new String(Character.toChars(Character.MAX_CODE_POINT))));
+        assertNull(SqliteUserDirectory.prefixUpperBound(
+                new String(Character.toChars(Character.MAX_CODE_POINT))));
+    }
+
+    @Test
+    public void substringSearchMatchesAnywhere() {
+        assertEquals(Arrays.asList("Albert", "al_x", "alice", "malik"),
+                ids(directory.search("al", Match.SUBSTRING, Order.USER_ID, 0, 10)));
+        // _ is not a LIKE wildcard here
+        assertEquals(Collections.singletonList("al_x"),
+                ids(directory.search("l_", Match.SUBSTRING, Order.USER_ID, 0, 10)));
+    }
+
+    @Test
+    public void pagesThroughResultsInOrder() {
+        assertEquals(Arrays.asList("al_x", "alice"),
+                ids(directory.search("", Match.PREFIX, Order.NEWEST_FIRST, 0, 2)));
+        assertEquals(Arrays.asList("bob", "Albert"),
+                ids(directory.search("", Match.PREFIX, Order.NEWEST_FIRST, 2, 2)));
+        assertEquals(Collections.singletonList("malik"),
+                ids(directory.search("", Match.PREFIX, Order.NEWEST_FIRST, 4, 2)));
+        assertEquals(0, directory.search("", Match.PREFIX, Order.NEWEST_FIRST, 6, 2).size());
+    }
+
+    private static List<String> ids(List<UserRecord> users) {
+        List<String> ids = new ArrayList<>(users.size());
+        for (UserRecord user : users) {
+            ids.add(user.getUserId());
+        }
+        return ids;
+    }
+}
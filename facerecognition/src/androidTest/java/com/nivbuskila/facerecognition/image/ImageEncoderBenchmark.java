@@ -0,0 +1,153 @@
+package com.nivbuskila.facerecognition.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RadialGradient;
+import android.graphics.Shader;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures encode time and output size against quality, to pick a byte budget for
+ * {@link BudgetImageEncoder} on a given deployment. Results depend heavily on the device's
+ * encoder, so run it on the target devices:
+ * <pre>
+ * ./gradlew :facerecognition:connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=com.nivbuskila.facerecognition.image.ImageEncoderBenchmark
+ * </pre>
+ * Each quality is reported in logcat under the ImageEncoderBenchmark tag and in the
+ * instrumentation status. The sample faces are synthetic; replace them with real captures
+ * for figures that hold for a deployment.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageEncoderBenchmark {
+    private static final String TAG = "ImageEncoderBenchmark";
+    private static final int WARMUP_RUNS = 2;
+    private static final int RUNS = 5;
+    private static final int[] QUALITIES = {50, 70, 80, 90, 100};
+
+    @Test
+    public void jpeg() throws IOException {
+        report(run(sampleFaces(), ImageFormat.JPEG, QUALITIES, RUNS));
+    }
+
+    @Test
+    public void webp() throws IOException {
+        report(run(sampleFaces(), ImageFormat.WEBP, QUALITIES, RUNS));
+    }
+
+    private static List<Sample> run(List<Bitmap> faces, ImageFormat format, int[] qualities,
+                                    int runs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            out.reset();
+            new QualityImageEncoder(format, qualities[0]).encode(faces.get(0), out);
+        }
+
+        List<Sample> samples = new ArrayList<>();
+        for (int quality : qualities) {
+            QualityImageEncoder encoder = new QualityImageEncoder(format, quality);
+            long totalNanos = 0;
+            long totalBytes = 0;
+            int count = 0;
+            for (Bitmap face : faces) {
+                for (int run = 0; run < runs; run++) {
+                    out.reset();
+                    long start = SystemClock.elapsedRealtimeNanos();
+                    encoder.encode(face, out);
+                    totalNanos += SystemClock.elapsedRealtimeNanos() - start;
+                    totalBytes += out.size();
+                    count++;
+                }
+            }
+            samples.add(new Sample(format, quality, totalNanos / 1e6 / count, totalBytes / count));
+        }
+        return samples;
+    }
+
+    private static void report(List<Sample> samples) {
+        Bundle status = new Bundle();
+        for (int i = 0; i < samples.size(); i++) {
+            Sample sample = samples.get(i);
+            Log.i(TAG, sample.toString());
+            status.putString(sample.format + "_q" + sample.quality, sample.toString());
+            if (i > 0) {
+                // Sanity check of the measurement, not of the encoder's speed
+                assertTrue("Output shrank at higher quality: " + sample,
+                        sample.averageBytes >= samples.get(i - 1).averageBytes);
+            }
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    /**
+     * Face-sized images with smooth shading and sensor-like noise, the content that decides
+     * how well a lossy encoder compresses
+     */
+    private static List<Bitmap> sampleFaces() {
+        Random random = new Random(42);
+        List<Bitmap> faces = new ArrayList<>();
+        for (int size : new int[]{320, 640}) {
+            Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            canvas.drawColor(Color.rgb(70, 80, 95));
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paint.setShader(new RadialGradient(size / 2f, size * 0.45f, size * 0.4f,
+                    Color.rgb(225, 185, 160), Color.rgb(120, 85, 70), Shader.TileMode.CLAMP));
+            canvas.drawOval(size * 0.2f, size * 0.1f, size * 0.8f, size * 0.85f, paint);
+            int[] pixels = new int[size * size];
+            bitmap.getPixels(pixels, 0, size, 0, 0, size, size);
+            for (int i = 0; i < pixels.length; i++) {
+                int noise = random.nextInt(13) - 6;
+                int pixel = pixels[i];
+                pixels[i] = Color.rgb(clamp(Color.red(pixel) + noise),
+                        clamp(Color.green(pixel) + noise), clamp(Color.blue(pixel) + noise));
+            }
+            bitmap.setPixels(pixels, 0, size, 0, 0, size, size);
+            faces.add(bitmap);
+        }
+        return faces;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static final class Sample {
+        final ImageFormat format;
+        final int quality;
+        final double averageMillis;
+        final long averageBytes;
+
+        Sample(ImageFormat format, int quality, double averageMillis, long averageBytes) {
+            this.format = format;
+            this.quality = quality;
+            this.averageMillis = averageMillis;
+            this.averageBytes = averageBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s q=%d: %.2f ms, %d bytes",
+                    format, quality, averageMillis, averageBytes);
+        }
+    }
+}
@@ -3,191 +3,526 @@ package com.nivbuskila.facerecognition;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.util.Base64;
+import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.nivbuskila.facerecognition.activities.FaceDetectionActivity;
+import com.nivbuskila.facerecognition.api.FaceRecognitionCallback;
 import com.nivbuskila.facerecognition.api.FaceRecognitionService;
+import com.nivbuskila.facerecognition.api.FaceRecognitionTask;
+import com.nivbuskila.facerecognition.api.UserConsumer;
+import com.nivbuskila.facerecognition.image.BudgetImageEncoder;
+import com.nivbuskila.facerecognition.image.EncodedFace;
+import com.nivbuskila.facerecognition.image.FacePreprocessor;
+import com.nivbuskila.facerecognition.image.ImageEncoder;
+import com.nivbuskila.facerecognition.image.ImageFormat;
+import com.nivbuskila.facerecognition.image.QualityImageEncoder;
+import com.nivbuskila.facerecognition.image.SourceImage;
+import com.nivbuskila.facerecognition.models.ErrorCode;
 import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
 import com.nivbuskila.facerecognition.network.ApiResponse;
 import com.nivbuskila.facerecognition.network.ApiService;
-import com.nivbuskila.facerecognition.network.CompareRequest;
-import com.nivbuskila.facerecognition.network.RegisterRequest;
+import com.nivbuskila.facerecognition.network.BitmapImageSource;
+import com.nivbuskila.facerecognition.network.CircuitOpenException;
+import com.nivbuskila.facerecognition.network.Endpoint;
+import com.nivbuskila.facerecognition.network.FaceImageCache;
+import com.nivbuskila.facerecognition.network.FaceImageDecoder;
+import com.nivbuskila.facerecognition.network.FaceRecognitionClient;
+import com.nivbuskila.facerecognition.network.ImageRequestBody;
+import com.nivbuskila.facerecognition.network.ImageSource;
+import com.nivbuskila.facerecognition.network.ImageCompareRequest;
+import com.nivbuskila.facerecognition.network.ImagePayload;
+import com.nivbuskila.facerecognition.network.ImageRegisterRequest;
+import com.nivbuskila.facerecognition.network.ImageUpdateRequest;
+import com.nivbuskila.facerecognition.network.ImageVerifyRequest;
 import com.nivbuskila.facerecognition.network.SessionManager;
-import com.nivbuskila.facerecognition.network.VerifyRequest;
+import com.nivbuskila.facerecognition.network.SingleFlight;
+import com.nivbuskila.facerecognition.network.TransportMode;
+import com.nivbuskila.facerecognition.network.UserListing;
+import com.nivbuskila.facerecognition.outbox.Mutation;
+import com.nivbuskila.facerecognition.outbox.MutationOutbox;
 import com.nivbuskila.facerecognition.auth.AuthRequest;
 import com.nivbuskila.facerecognition.auth.AuthResponse;
+import com.nivbuskila.facerecognition.directory.UserDirectory;
+import com.nivbuskila.facerecognition.models.UserChangeSet;
+import com.nivbuskila.facerecognition.models.UserRecord;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
-import okhttp3.OkHttpClient;
-import okhttp3.logging.HttpLoggingInterceptor;
+import okhttp3.MultipartBody;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.HttpException;
 import retrofit2.Response;
-import retrofit2.Retrofit;
-import retrofit2.converter.gson.GsonConverterFactory;
 
 public class FaceRecognition implements FaceRecognitionService {
     private static final String TAG = "FaceRecognition";
-    private static final String BASE_URL = "https://face-recognition-api-orcin.vercel.app/";
+    private static final String DEADLINE_EXCEEDED = "Deadline exceeded";
 
     private final Context context;
-    private final ApiService apiService;
+    private final FaceRecognitionClient client;
     private final SessionManager sessionManager;
+    private volatile Executor callbackExecutor;
+    private volatile FacePreprocessor facePreprocessor;
+    private volatile ImageEncoder imageEncoder = new QualityImageEncoder(ImageFormat.JPEG, 100);
+    // -1 to use the deadlines of the client configuration
+    private final long deadlineMillis;
 
     public FaceRecognition(Context context) {
+        this(context, FaceRecognitionClient.getInstance(context));
+    }
+
+    public FaceRecognition(Context context, FaceRecognitionClient client) {
         this.context = context;
+        this.client = client;
         this.sessionManager = SessionManager.getInstance();
+        this.callbackExecutor = client.getMainThreadExecutor();
+        this.deadlineMillis = -1;
+        MutationOutbox outbox = client.getOutbox();
+        if (outbox != null) {
+            outbox.start(client.getContext(), outboxSender(client));
+        }
+    }
 
-        // Setup logging
-        HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor(message ->
-                Log.d(TAG, "API Call: " + message));
-        loggingInterceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
-
-        // Setup HTTP client
-        OkHttpClient client = new OkHttpClient.Builder()
-                .addInterceptor(loggingInterceptor)
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .build();
+    private FaceRecognition(FaceRecognition base, long deadlineMillis) {
+        this.context = base.context;
+        this.client = base.client;
+        this.sessionManager = base.sessionManager;
+        this.callbackExecutor = base.callbackExecutor;
+        this.facePreprocessor = base.facePreprocessor;
+        this.imageEncoder = base.imageEncoder;
+        this.deadlineMillis = deadlineMillis;
+    }
 
-        // Setup Retrofit
-        Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl(BASE_URL)
-                .client(client)
-                .addConverterFactory(GsonConverterFactory.create())
-                .build();
+    /**
+     * A copy of this instance whose calls must complete within a deadline, counted from each
+     * method call and shared by its retries, in place of the deadlines configured per
+     * endpoint. A call that runs out of time fails with {@link ErrorCode#DEADLINE_EXCEEDED}.
+     * Settings are copied; later changes to this instance do not affect the copy.
+     * @param deadline Time each call has, 0 for no deadline
+     */
+    public FaceRecognition withDeadline(long deadline, TimeUnit unit) {
+        return new FaceRecognition(this, Math.max(0, unit.toMillis(deadline)));
+    }
 
-        this.apiService = retrofit.create(ApiService.class);
+    /**
+     * Set the executor on which asynchronous results are delivered (main thread by default)
+     * @param executor Executor for {@link FaceRecognitionCallback} invocations
+     */
+    public void setCallbackExecutor(Executor executor) {
+        this.callbackExecutor = executor;
+    }
+
+    /**
+     * Opt into face-aware preprocessing of every uploaded image: the face is detected,
+     * cropped, aligned and downscaled before encoding. Pass null to upload images as given.
+     * @param preprocessor Preprocessor to apply, or null
+     */
+    public void setFacePreprocessor(FacePreprocessor preprocessor) {
+        this.facePreprocessor = preprocessor;
+    }
+
+    /**
+     * Set how uploaded images are encoded, e.g. a {@link BudgetImageEncoder} to keep each
+     * upload under a byte budget. Defaults to JPEG at quality 100.
+     * @param encoder Encoder for all uploaded images
+     */
+    public void setImageEncoder(ImageEncoder encoder) {
+        this.imageEncoder = encoder;
     }
 
     @Override
     public FaceRecognitionResult authenticate(String username, String password) {
-        try {
-            Log.d(TAG, "Starting authentication for user: " + username);
-
-            AuthRequest request = new AuthRequest(username, password);
-            Response<AuthResponse> response = apiService.login(request).execute();
-
-            if (response.isSuccessful() && response.body() != null) {
-                String token = response.body().getToken();
-                if (token != null) {
-                    sessionManager.setToken(token);
-                    return new FaceRecognitionResult.Builder()
-                            .setSuccess(true)
-                            .build();
+        return execute(authenticateOperation(username, password));
+    }
+
+    @Override
+    public FaceRecognitionTask authenticateAsync(String username, String password,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(authenticateOperation(username, password), callback);
+    }
+
+    private Operation<AuthResponse> authenticateOperation(String username, String password) {
+        return new Operation<AuthResponse>(Endpoint.LOGIN, null, "Authentication error", false) {
+            @Override
+            Call<AuthResponse> newCall(String authHeader) {
+                Log.d(TAG, "Starting authentication for user: " + username);
+                return apiService().login(new AuthRequest(username, password));
+            }
+
+            @Override
+            FaceRecognitionResult onSuccess(AuthResponse body) {
+                String token = body.getToken();
+                if (token == null) {
+                    return null;
                 }
+                startSession(username, password, token, expiresAt(body));
+                return new FaceRecognitionResult.Builder()
+                        .setSuccess(true)
+                        .build();
             }
-            return handleApiError(response, null);
-        } catch (Exception e) {
-            Log.e(TAG, "Authentication error", e);
-            return new FaceRecognitionResult.Builder()
-                    .setSuccess(false)
-                    .setError("Authentication error: " + e.getMessage())
-                    .build();
+        };
+    }
+
+    /**
+     * Resume a session saved from an earlier login, without a network call. The token is
+     * renewed with the credentials in the background when it is about to expire, or when
+     * the server rejects it. Save sessions with {@link SessionManager#setListener}.
+     * @param token     Token of the saved session
+     * @param expiresAt Its expiry in milliseconds since the epoch, or 0 if unknown
+     * @return false if the token has already expired and {@link #authenticate} should be
+     *         used instead
+     */
+    public boolean restoreSession(String username, String password, String token,
+                                  long expiresAt) {
+        if (token == null || token.isEmpty()
+                || (expiresAt > 0 && expiresAt <= System.currentTimeMillis())) {
+            return false;
         }
+        Log.d(TAG, "Restoring saved session for user: " + username);
+        startSession(username, password, token, expiresAt);
+        return true;
+    }
+
+    private void startSession(String username, String password, String token, long expiresAt) {
+        sessionManager.setToken(token, expiresAt);
+        // Static and bound to the shared client, so the session does not keep this
+        // instance or its context alive
+        FaceRecognitionClient shared = client;
+        sessionManager.setRenewal(() -> renewToken(shared, username, password));
+        MutationOutbox outbox = client.getOutbox();
+        if (outbox != null) {
+            outbox.replay();
+        }
+    }
+
+    /**
+     * Log in again with the same credentials, for {@link SessionManager} to renew the token
+     * when it is about to expire or was rejected
+     */
+    private static String renewToken(FaceRecognitionClient client, String username,
+                                      String password) throws IOException {
+        Response<AuthResponse> response = client.getApiService()
+                .login(new AuthRequest(username, password))
+                .execute();
+        AuthResponse body = response.body();
+        if (!response.isSuccessful() || body == null || body.getToken() == null) {
+            Log.w(TAG, "Token renewal failed: HTTP " + response.code());
+            return null;
+        }
+        SessionManager.getInstance().setToken(body.getToken(), expiresAt(body));
+        return body.getToken();
+    }
+
+    /**
+     * @return Expiry of a login's token, from its lifetime if the server sent one, or else
+     *         from the token itself
+     */
+    private static long expiresAt(AuthResponse body) {
+        Long expiresIn = body.getExpiresIn();
+        if (expiresIn != null && expiresIn > 0) {
+            return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresIn);
+        }
+        return SessionManager.expiryOf(body.getToken());
     }
 
     @Override
     public FaceRecognitionResult registerUser(Bitmap faceImage, String userId) {
-        try {
-            if (!sessionManager.hasToken()) {
-                return new FaceRecognitionResult.Builder()
-                        .setSuccess(false)
-                        .setError("Not authenticated")
-                        .build();
-            }
+        return execute(registerOperation(() -> imageSource(faceImage), userId));
+    }
 
-            String imageBase64 = bitmapToBase64(faceImage);
-            RegisterRequest request = new RegisterRequest(userId, imageBase64);
+    @Override
+    public FaceRecognitionResult registerUser(EncodedFace face, String userId) {
+        return execute(registerOperation(() -> face, userId));
+    }
+
+    @Override
+    public FaceRecognitionTask registerUserAsync(Bitmap faceImage, String userId,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(registerOperation(() -> imageSource(faceImage), userId), callback);
+    }
+
+    @Override
+    public FaceRecognitionTask registerUserAsync(EncodedFace face, String userId,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(registerOperation(() -> face, userId), callback);
+    }
 
-            String authHeader = "Bearer " + sessionManager.getToken();
-            Response<ApiResponse> response = apiService.registerUser(authHeader, request).execute();
+    @Override
+    public FaceRecognitionResult registerUser(Uri image, String userId) {
+        return execute(registerOperation(uriImage(image), userId));
+    }
 
-            if (response.isSuccessful() && response.body() != null) {
+    @Override
+    public FaceRecognitionTask registerUserAsync(Uri image, String userId,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(registerOperation(uriImage(image), userId), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult registerUser(byte[] image, String userId) {
+        return execute(registerOperation(bytesImage(image), userId));
+    }
+
+    @Override
+    public FaceRecognitionTask registerUserAsync(byte[] image, String userId,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(registerOperation(bytesImage(image), userId), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult registerUser(ByteBuffer image, String userId) {
+        return execute(registerOperation(bufferImage(image), userId));
+    }
+
+    @Override
+    public FaceRecognitionTask registerUserAsync(ByteBuffer image, String userId,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(registerOperation(bufferImage(image), userId), callback);
+    }
+
+    private Operation<ApiResponse> registerOperation(ImageInput faceImage, String userId) {
+        return registerOperation(faceImage, userId, newIdempotencyKey());
+    }
+
+    /**
+     * @param idempotencyKey Sent with every attempt of the write, including the JSON resend
+     *                       of a rejected multipart upload
+     */
+    private Operation<ApiResponse> registerOperation(ImageInput faceImage, String userId,
+                                                     String idempotencyKey) {
+        return new Operation<ApiResponse>(Endpoint.REGISTER, userId, "Registration error", true) {
+            @Override
+            Call<ApiResponse> newCall(String authHeader) {
+                if (isMultipart(endpoint)) {
+                    return apiService().registerUserMultipart(authHeader, idempotencyKey,
+                            MultipartBody.Part.createFormData("userId", userId),
+                            imagePart("faceData", faceImage));
+                }
+                ImageRegisterRequest request = new ImageRegisterRequest(userId, imagePayload(faceImage));
+                return apiService().registerUser(authHeader, idempotencyKey, request);
+            }
+
+            @Override
+            boolean queue(MutationOutbox outbox) throws IOException {
+                outbox.add(Mutation.Type.REGISTER, userId, faceImage.get());
+                return true;
+            }
+
+            @Override
+            FaceRecognitionResult onSuccess(ApiResponse body) {
+                client.getImageCache().invalidate(userId);
                 return new FaceRecognitionResult.Builder()
                         .setSuccess(true)
                         .setUserId(userId)
                         .build();
             }
-            return handleApiError(response, userId);
-        } catch (Exception e) {
-            Log.e(TAG, "Registration error", e);
-            return new FaceRecognitionResult.Builder()
-                    .setSuccess(false)
-                    .setUserId(userId)
-                    .setError("Registration error: " + e.getMessage())
-                    .build();
-        }
+        };
     }
 
     @Override
     public FaceRecognitionResult getUserImage(String userId) {
-        try {
-            if (!sessionManager.hasToken()) {
-                return new FaceRecognitionResult.Builder()
-                        .setSuccess(false)
-                        .setError("Not authenticated")
-                        .build();
+        return execute(getUserImageOperation(userId));
+    }
+
+    @Override
+    public FaceRecognitionTask getUserImageAsync(String userId, FaceRecognitionCallback callback) {
+        return enqueue(getUserImageOperation(userId), callback);
+    }
+
+    private Operation<ApiResponse> getUserImageOperation(String userId) {
+        return new Operation<ApiResponse>(Endpoint.GET_USER_IMAGE, userId, "Error getting user image", true) {
+            @Override
+            String flightKey() {
+                return "image\n" + userId;
             }
 
-            String authHeader = "Bearer " + sessionManager.getToken();
-            Response<ApiResponse> response = apiService.getUserImage(authHeader, userId).execute();
+            @Override
+            Call<ApiResponse> newCall(String authHeader) {
+                return apiService().getUserImage(authHeader, userId);
+            }
 
-            if (response.isSuccessful() && response.body() != null) {
-                ApiResponse apiResponse = response.body();
+            @Override
+            FaceRecognitionResult onSuccess(ApiResponse body) {
                 return new FaceRecognitionResult.Builder()
                         .setSuccess(true)
                         .setUserId(userId)
-                        .setFaceData(apiResponse.getFaceData())
+                        .setFaceData(body.getFaceData())
                         .build();
             }
-            return handleApiError(response, userId);
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting user image", e);
-            return new FaceRecognitionResult.Builder()
-                    .setSuccess(false)
-                    .setUserId(userId)
-                    .setError("Error getting user image: " + e.getMessage())
-                    .build();
-        }
+        };
     }
 
     @Override
-    public FaceRecognitionResult verifyUser(Bitmap faceImage, String userId) {
-        try {
-            if (!sessionManager.hasToken()) {
+    public FaceRecognitionResult getUserImageBitmap(String userId, int reqWidth, int reqHeight) {
+        return execute(getUserImageBitmapOperation(userId, reqWidth, reqHeight));
+    }
+
+    @Override
+    public FaceRecognitionTask getUserImageBitmapAsync(String userId, int reqWidth, int reqHeight,
+                                                       FaceRecognitionCallback callback) {
+        return enqueue(getUserImageBitmapOperation(userId, reqWidth, reqHeight), callback);
+    }
+
+    private Operation<ResponseBody> getUserImageBitmapOperation(String userId, int reqWidth,
+                                                                int reqHeight) {
+        return new Operation<ResponseBody>(Endpoint.GET_USER_IMAGE, userId,
+                "Error getting user image", true) {
+            @Override
+            FaceRecognitionResult fromCache() {
+                FaceImageCache cache = client.getImageCache();
+                Bitmap bitmap = cache.getBitmap(userId, reqWidth, reqHeight);
+                if (bitmap == null) {
+                    bitmap = cache.loadBitmap(userId, reqWidth, reqHeight);
+                }
+                return bitmap != null ? imageResult(userId, bitmap) : null;
+            }
+
+            @Override
+            String flightKey() {
+                return "bitmap\n" + userId + '\n' + reqWidth + 'x' + reqHeight;
+            }
+
+            @Override
+            Call<ResponseBody> newCall(String authHeader) {
+                return apiService().getUserImageStream(authHeader, userId);
+            }
+
+            @Override
+            FaceRecognitionResult onSuccess(ResponseBody body) throws IOException {
+                return imageResult(userId,
+                        client.getImageCache().put(userId, body, reqWidth, reqHeight));
+            }
+        };
+    }
+
+    private FaceRecognitionResult imageResult(String userId, Bitmap bitmap) {
+        return new FaceRecognitionResult.Builder()
+                .setSuccess(true)
+                .setUserId(userId)
+                .setImage(bitmap)
+                .build();
+    }
+
+    @Override
+    public FaceRecognitionResult downloadUserImage(String userId, File destination) {
+        return execute(downloadUserImageOperation(userId, destination));
+    }
+
+    @Override
+    public FaceRecognitionTask downloadUserImageAsync(String userId, File destination,
+                                                      FaceRecognitionCallback callback) {
+        return enqueue(downloadUserImageOperation(userId, destination), callback);
+    }
+
+    private Operation<ResponseBody> downloadUserImageOperation(String userId, File destination) {
+        return new Operation<ResponseBody>(Endpoint.GET_USER_IMAGE, userId,
+                "Error getting user image", true) {
+            @Override
+            Call<ResponseBody> newCall(String authHeader) {
+                return apiService().getUserImageStream(authHeader, userId);
+            }
+
+            @Override
+            FaceRecognitionResult onSuccess(ResponseBody body) throws IOException {
+                FaceImageDecoder.writeToFile(body, destination);
                 return new FaceRecognitionResult.Builder()
-                        .setSuccess(false)
-                        .setError("Not authenticated")
+                        .setSuccess(true)
+                        .setUserId(userId)
+                        .setImageFile(destination)
                         .build();
             }
+        };
+    }
+
+    @Override
+    public FaceRecognitionResult verifyUser(Bitmap faceImage, String userId) {
+        return execute(verifyOperation(() -> imageSource(faceImage), userId));
+    }
+
+    @Override
+    public FaceRecognitionResult verifyUser(EncodedFace face, String userId) {
+        return execute(verifyOperation(() -> face, userId));
+    }
+
+    @Override
+    public FaceRecognitionTask verifyUserAsync(Bitmap faceImage, String userId,
+                                               FaceRecognitionCallback callback) {
+        return enqueue(verifyOperation(() -> imageSource(faceImage), userId), callback);
+    }
+
+    @Override
+    public FaceRecognitionTask verifyUserAsync(EncodedFace face, String userId,
+                                               FaceRecognitionCallback callback) {
+        return enqueue(verifyOperation(() -> face, userId), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult verifyUser(Uri image, String userId) {
+        return execute(verifyOperation(uriImage(image), userId));
+    }
 
-            String imageBase64 = bitmapToBase64(faceImage);
-            VerifyRequest request = new VerifyRequest(imageBase64);
+    @Override
+    public FaceRecognitionTask verifyUserAsync(Uri image, String userId,
+                                               FaceRecognitionCallback callback) {
+        return enqueue(verifyOperation(uriImage(image), userId), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult verifyUser(byte[] image, String userId) {
+        return execute(verifyOperation(bytesImage(image), userId));
+    }
 
-            String authHeader = "Bearer " + sessionManager.getToken();
-            Response<ApiResponse> response = apiService.verifyUser(authHeader, userId, request).execute();
+    @Override
+    public FaceRecognitionTask verifyUserAsync(byte[] image, String userId,
+                                               FaceRecognitionCallback callback) {
+        return enqueue(verifyOperation(bytesImage(image), userId), callback);
+    }
 
-            if (response.isSuccessful() && response.body() != null) {
-                ApiResponse apiResponse = response.body();
+    @Override
+    public FaceRecognitionResult verifyUser(ByteBuffer image, String userId) {
+        return execute(verifyOperation(bufferImage(image), userId));
+    }
+
+    @Override
+    public FaceRecognitionTask verifyUserAsync(ByteBuffer image, String userId,
+                                               FaceRecognitionCallback callback) {
+        return enqueue(verifyOperation(bufferImage(image), userId), callback);
+    }
+
+    private Operation<ApiResponse> verifyOperation(ImageInput faceImage, String userId) {
+        return new Operation<ApiResponse>(Endpoint.VERIFY, userId, "Verification error", true) {
+            @Override
+            Call<ApiResponse> newCall(String authHeader) {
+                if (isMultipart(endpoint)) {
+                    return apiService().verifyUserMultipart(authHeader, userId,
+                            imagePart("faceData", faceImage));
+                }
+                ImageVerifyRequest request = new ImageVerifyRequest(imagePayload(faceImage));
+                return apiService().verifyUser(authHeader, userId, request);
+            }
+
+            @Override
+            FaceRecognitionResult onSuccess(ApiResponse body) {
                 return new FaceRecognitionResult.Builder()
-                        .setSuccess(apiResponse.isVerified())
+                        .setSuccess(body.isVerified())
+                        .setErrorCode(body.isVerified() ? null : ErrorCode.NOT_MATCHED)
                         .setUserId(userId)
-                        .setConfidence(apiResponse.getConfidence())
-                        .setError(apiResponse.getError())
+                        .setConfidence(body.getConfidence())
+                        .setError(body.getError())
                         .build();
             }
-            return handleApiError(response, userId);
-        } catch (Exception e) {
-            Log.e(TAG, "Verification error", e);
-            return new FaceRecognitionResult.Builder()
-                    .setSuccess(false)
-                    .setError("Verification error: " + e.getMessage())
-                    .build();
-        }
+        };
     }
 
     @Override
@@ -195,144 +530,863 @@ public class FaceRecognition implements FaceRecognitionService {
         Intent intent = FaceDetectionActivity.createIntent(context, userId);
         context.startActivity(intent);
     }
+
     @Override
     public FaceRecognitionResult getUsers() {
-        try {
-            if (!sessionManager.hasToken()) {
-                return new FaceRecognitionResult.Builder()
-                        .setSuccess(false)
-                        .setError("Not authenticated")
-                        .build();
+        return execute(getUsersOperation());
+    }
+
+    @Override
+    public FaceRecognitionTask getUsersAsync(FaceRecognitionCallback callback) {
+        return enqueue(getUsersOperation(), callback);
+    }
+
+    private Operation<List<ApiResponse>> getUsersOperation() {
+        return new Operation<List<ApiResponse>>(Endpoint.GET_USERS, null, "Error getting users", true) {
+            @Override
+            String flightKey() {
+                return "users";
             }
 
-            String authHeader = "Bearer " + sessionManager.getToken();
-            Response<List<ApiResponse>> response = apiService.getUsers(authHeader).execute();
+            @Override
+            Call<List<ApiResponse>> newCall(String authHeader) {
+                return apiService().getUsers(authHeader);
+            }
 
-            if (response.isSuccessful() && response.body() != null) {
-                List<ApiResponse> users = response.body();
+            @Override
+            FaceRecognitionResult onSuccess(List<ApiResponse> body) {
                 return new FaceRecognitionResult.Builder()
                         .setSuccess(true)
-                        .setUsers(users)
+                        .setUsers(body)
                         .build();
             }
-            return handleApiError(response, null);
+        };
+    }
+
+    @Override
+    public FaceRecognitionResult syncUsers() {
+        if (!sessionManager.hasToken()) {
+            return notAuthenticated();
+        }
+        // A refresh while a sync is running shares its result instead of syncing again
+        return coalesce("sync\n" + authHeader(), this::runSync);
+    }
+
+    private FaceRecognitionResult runSync() {
+        try {
+            UserChangeSet changes = client.getDirectorySync().sync(authHeader());
+            FaceImageCache cache = client.getImageCache();
+            for (UserRecord user : changes.getUpdated()) {
+                cache.invalidate(user.getUserId());
+            }
+            for (String userId : changes.getRemoved()) {
+                cache.invalidate(userId);
+            }
+            return new FaceRecognitionResult.Builder()
+                    .setSuccess(true)
+                    .setChanges(changes)
+                    .build();
+        } catch (HttpException e) {
+            return handleApiError(e.response(), null);
         } catch (Exception e) {
-            Log.e(TAG, "Error getting users", e);
+            Log.e(TAG, "Error syncing users", e);
             return new FaceRecognitionResult.Builder()
                     .setSuccess(false)
-                    .setError("Error getting users: " + e.getMessage())
+                    .setError("Error syncing users: " + e.getMessage())
+                    .setErrorCode(errorCode(e))
                     .build();
         }
     }
 
     @Override
-    public FaceRecognitionResult compareFaces(Bitmap face1, Bitmap face2) {
-        try {
-            if (!sessionManager.hasToken()) {
-                return new FaceRecognitionResult.Builder()
-                        .setSuccess(false)
-                        .setError("Not authenticated")
-                        .build();
-            }
-
-            String face1Base64 = bitmapToBase64(face1);
-            String face2Base64 = bitmapToBase64(face2);
-            CompareRequest request = new CompareRequest(face1Base64, face2Base64);
+    public FaceRecognitionTask syncUsersAsync(FaceRecognitionCallback callback) {
+        return submit(this::syncUsers, callback);
+    }
 
-            String authHeader = "Bearer " + sessionManager.getToken();
-            Response<ApiResponse> response = apiService.compareFaces(authHeader, request).execute();
+    @Override
+    public UserDirectory getUserDirectory() {
+        return client.getDirectorySync().getDirectory();
+    }
 
-            if (response.isSuccessful() && response.body() != null) {
-                ApiResponse apiResponse = response.body();
-                return new FaceRecognitionResult.Builder()
-                        .setSuccess(apiResponse.isVerified())
-                        .setConfidence(apiResponse.getConfidence())
-                        .setError(apiResponse.getError())
-                        .build();
-            }
-            return handleApiError(response, null);
+    @Override
+    public FaceRecognitionResult searchUsers(String text, UserDirectory.Match match,
+                                             UserDirectory.Order order, int offset, int limit) {
+        try {
+            return new FaceRecognitionResult.Builder()
+                    .setSuccess(true)
+                    .setRecords(getUserDirectory().search(text, match, order, offset, limit))
+                    .build();
         } catch (Exception e) {
-            Log.e(TAG, "Comparison error", e);
+            Log.e(TAG, "Error searching users", e);
             return new FaceRecognitionResult.Builder()
                     .setSuccess(false)
-                    .setError("Comparison error: " + e.getMessage())
+                    .setError("Error searching users: " + e.getMessage())
+                    .setErrorCode(errorCode(e))
                     .build();
         }
     }
 
-    public class UpdateRequest {
-        private final String faceData;
+    @Override
+    public FaceRecognitionTask searchUsersAsync(String text, UserDirectory.Match match,
+                                                UserDirectory.Order order, int offset, int limit,
+                                                FaceRecognitionCallback callback) {
+        return submit(() -> searchUsers(text, match, order, offset, limit), callback);
+    }
 
-        public UpdateRequest(String imageBase64) {
-            this.faceData = imageBase64;
+    @Override
+    public FaceRecognitionResult forEachUser(int pageSize, boolean includeFaceData,
+                                             UserConsumer consumer) {
+        if (!sessionManager.hasToken()) {
+            return notAuthenticated();
         }
-
-        public String getFaceData() {
-            return faceData;
+        try {
+            new UserListing(client.getApiService(), pageSize, includeFaceData)
+                    .forEach(authHeader(), consumer);
+            return new FaceRecognitionResult.Builder()
+                    .setSuccess(true)
+                    .build();
+        } catch (HttpException e) {
+            return handleApiError(e.response(), null);
+        } catch (Exception e) {
+            Log.e(TAG, "Error listing users", e);
+            return new FaceRecognitionResult.Builder()
+                    .setSuccess(false)
+                    .setError("Error listing users: " + e.getMessage())
+                    .setErrorCode(errorCode(e))
+                    .build();
         }
     }
 
+    @Override
+    public FaceRecognitionTask forEachUserAsync(int pageSize, boolean includeFaceData,
+                                                UserConsumer consumer,
+                                                FaceRecognitionCallback callback) {
+        return submit(() -> forEachUser(pageSize, includeFaceData, consumer), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult compareFaces(Bitmap face1, Bitmap face2) {
+        return execute(compareOperation(() -> imageSource(face1), () -> imageSource(face2)));
+    }
+
+    @Override
+    public FaceRecognitionResult compareFaces(EncodedFace face1, EncodedFace face2) {
+        return execute(compareOperation(() -> face1, () -> face2));
+    }
+
+    @Override
+    public FaceRecognitionTask compareFacesAsync(Bitmap face1, Bitmap face2,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(compareOperation(() -> imageSource(face1), () -> imageSource(face2)),
+                callback);
+    }
+
+    @Override
+    public FaceRecognitionTask compareFacesAsync(EncodedFace face1, EncodedFace face2,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(compareOperation(() -> face1, () -> face2), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult compareFaces(Uri image1, Uri image2) {
+        return execute(compareOperation(uriImage(image1), uriImage(image2)));
+    }
+
+    @Override
+    public FaceRecognitionTask compareFacesAsync(Uri image1, Uri image2,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(compareOperation(uriImage(image1), uriImage(image2)), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult compareFaces(byte[] image1, byte[] image2) {
+        return execute(compareOperation(bytesImage(image1), bytesImage(image2)));
+    }
+
+    @Override
+    public FaceRecognitionTask compareFacesAsync(byte[] image1, byte[] image2,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(compareOperation(bytesImage(image1), bytesImage(image2)), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult compareFaces(ByteBuffer image1, ByteBuffer image2) {
+        return execute(compareOperation(bufferImage(image1), bufferImage(image2)));
+    }
+
+    @Override
+    public FaceRecognitionTask compareFacesAsync(ByteBuffer image1, ByteBuffer image2,
+                                                 FaceRecognitionCallback callback) {
+        return enqueue(compareOperation(bufferImage(image1), bufferImage(image2)), callback);
+    }
+
+    private Operation<ApiResponse> compareOperation(ImageInput face1, ImageInput face2) {
+        return new Operation<ApiResponse>(Endpoint.COMPARE, null, "Comparison error", true) {
+            @Override
+            Call<ApiResponse> newCall(String authHeader) {
+                if (isMultipart(endpoint)) {
+                    return apiService().compareFacesMultipart(authHeader,
+                            imagePart("faceData1", face1),
+                            imagePart("faceData2", face2));
+                }
+                ImageCompareRequest request = new ImageCompareRequest(
+                        imagePayload(face1), imagePayload(face2));
+                return apiService().compareFaces(authHeader, request);
+            }
+
+            @Override
+            FaceRecognitionResult onSuccess(ApiResponse body) {
+                return new FaceRecognitionResult.Builder()
+                        .setSuccess(body.isVerified())
+                        .setErrorCode(body.isVerified() ? null : ErrorCode.NOT_MATCHED)
+                        .setConfidence(body.getConfidence())
+                        .setError(body.getError())
+                        .build();
+            }
+        };
+    }
+
     @Override
     public FaceRecognitionResult updateUser(Bitmap faceImage, String userId) {
-        try {
-            if (!sessionManager.hasToken()) {
+        return execute(updateOperation(() -> imageSource(faceImage), userId));
+    }
+
+    @Override
+    public FaceRecognitionResult updateUser(EncodedFace face, String userId) {
+        return execute(updateOperation(() -> face, userId));
+    }
+
+    @Override
+    public FaceRecognitionTask updateUserAsync(Bitmap faceImage, String userId,
+                                               FaceRecognitionCallback callback) {
+        return enqueue(updateOperation(() -> imageSource(faceImage), userId), callback);
+    }
+
+    @Override
+    public FaceRecognitionTask updateUserAsync(EncodedFace face, String userId,
+                                               FaceRecognitionCallback callback) {
+        return enqueue(updateOperation(() -> face, userId), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult updateUser(Uri image, String userId) {
+        return execute(updateOperation(uriImage(image), userId));
+    }
+
+    @Override
+    public FaceRecognitionTask updateUserAsync(Uri image, String userId,
+                                               FaceRecognitionCallback callback) {
+        return enqueue(updateOperation(uriImage(image), userId), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult updateUser(byte[] image, String userId) {
+        return execute(updateOperation(bytesImage(image), userId));
+    }
+
+    @Override
+    public FaceRecognitionTask updateUserAsync(byte[] image, String userId,
+                                               FaceRecognitionCallback callback) {
+        return enqueue(updateOperation(bytesImage(image), userId), callback);
+    }
+
+    @Override
+    public FaceRecognitionResult updateUser(ByteBuffer image, String userId) {
+        return execute(updateOperation(bufferImage(image), userId));
+    }
+
+    @Override
+    public FaceRecognitionTask updateUserAsync(ByteBuffer image, String userId,
+                                               FaceRecognitionCallback callback) {
+        return enqueue(updateOperation(bufferImage(image), userId), callback);
+    }
+
+    private Operation<ApiResponse> updateOperation(ImageInput faceImage, String userId) {
+        return updateOperation(faceImage, userId, newIdempotencyKey());
+    }
+
+    private Operation<ApiResponse> updateOperation(ImageInput faceImage, String userId,
+                                                   String idempotencyKey) {
+        return new Operation<ApiResponse>(Endpoint.UPDATE, userId, "Update error", true) {
+            @Override
+            Call<ApiResponse> newCall(String authHeader) {
+                if (isMultipart(endpoint)) {
+                    return apiService().updateUserMultipart(authHeader, idempotencyKey, userId,
+                            imagePart("faceData", faceImage));
+                }
+                ImageUpdateRequest request = new ImageUpdateRequest(imagePayload(faceImage));
+                return apiService().updateUser(authHeader, idempotencyKey, userId, request);
+            }
+
+            @Override
+            boolean queue(MutationOutbox outbox) throws IOException {
+                outbox.add(Mutation.Type.UPDATE, userId, faceImage.get());
+                return true;
+            }
+
+            @Override
+            FaceRecognitionResult onSuccess(ApiResponse body) {
+                client.getImageCache().invalidate(userId);
                 return new FaceRecognitionResult.Builder()
-                        .setSuccess(false)
-                        .setError("Not authenticated")
+                        .setSuccess(true)
+                        .setUserId(userId)
                         .build();
             }
+        };
+    }
 
-            String imageBase64 = bitmapToBase64(faceImage);
-            UpdateRequest request = new UpdateRequest(imageBase64);
+    @Override
+    public FaceRecognitionResult deleteUser(String userId) {
+        return execute(deleteOperation(userId));
+    }
 
-            String authHeader = "Bearer " + sessionManager.getToken();
-            Response<ApiResponse> response = apiService.updateUser(authHeader, userId, request).execute();
+    @Override
+    public FaceRecognitionTask deleteUserAsync(String userId, FaceRecognitionCallback callback) {
+        return enqueue(deleteOperation(userId), callback);
+    }
+
+    private Operation<ApiResponse> deleteOperation(String userId) {
+        return deleteOperation(userId, newIdempotencyKey());
+    }
 
-            if (response.isSuccessful() && response.body() != null) {
+    private Operation<ApiResponse> deleteOperation(String userId, String idempotencyKey) {
+        return new Operation<ApiResponse>(Endpoint.DELETE, userId, "Error deleting user", true) {
+            @Override
+            Call<ApiResponse> newCall(String authHeader) {
+                return apiService().deleteUser(authHeader, idempotencyKey, userId);
+            }
+
+            @Override
+            boolean queue(MutationOutbox outbox) throws IOException {
+                outbox.add(Mutation.Type.DELETE, userId, null);
+                return true;
+            }
+
+            @Override
+            FaceRecognitionResult onSuccess(ApiResponse body) {
+                client.getImageCache().invalidate(userId);
                 return new FaceRecognitionResult.Builder()
                         .setSuccess(true)
                         .setUserId(userId)
                         .build();
             }
-            return handleApiError(response, userId);
+        };
+    }
+
+    /**
+     * A new key for a write, so a server that honours it applies the write once however
+     * often it is sent
+     */
+    private static String newIdempotencyKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Encode a face once, running the configured preprocessor and encoder, so it can be
+     * passed to any number of operations without being encoded again
+     * @param faceImage The face image
+     * @return Result whose {@link FaceRecognitionResult#getEncodedFace()} holds the encoded face
+     */
+    public FaceRecognitionResult encodeFace(Bitmap faceImage) {
+        try {
+            return new FaceRecognitionResult.Builder()
+                    .setSuccess(true)
+                    .setEncodedFace(EncodedFace.fromBitmap(preprocess(faceImage), imageEncoder))
+                    .build();
         } catch (Exception e) {
-            Log.e(TAG, "Update error", e);
+            Log.e(TAG, "Encoding error", e);
             return new FaceRecognitionResult.Builder()
                     .setSuccess(false)
-                    .setUserId(userId)
-                    .setError("Update error: " + e.getMessage())
+                    .setError("Encoding error: " + e.getMessage())
                     .build();
         }
     }
 
-    @Override
-    public FaceRecognitionResult deleteUser(String userId) {
+    /**
+     * Prepare an already compressed image for upload once. JPEG and WebP data is kept
+     * as-is when possible, see {@link SourceImage}.
+     * @param image Content or file URI of a JPEG, WebP or other decodable image
+     * @return Result whose {@link FaceRecognitionResult#getEncodedFace()} holds the encoded face
+     */
+    public FaceRecognitionResult encodeFace(Uri image) {
         try {
-            if (!sessionManager.hasToken()) {
+            return new FaceRecognitionResult.Builder()
+                    .setSuccess(true)
+                    .setEncodedFace(prepareSource(EncodedFace.fromUri(context, image)))
+                    .build();
+        } catch (Exception e) {
+            Log.e(TAG, "Encoding error", e);
+            return new FaceRecognitionResult.Builder()
+                    .setSuccess(false)
+                    .setError("Encoding error: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #encodeFace(Bitmap)}, run on the SDK executor
+     */
+    public FaceRecognitionTask encodeFaceAsync(Bitmap faceImage, FaceRecognitionCallback callback) {
+        return submit(() -> encodeFace(faceImage), callback);
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #encodeFace(Uri)}, run on the SDK executor
+     */
+    public FaceRecognitionTask encodeFaceAsync(Uri image, FaceRecognitionCallback callback) {
+        return submit(() -> encodeFace(image), callback);
+    }
+
+    private FaceRecognitionTask submit(LocalWork work, FaceRecognitionCallback callback) {
+        RequestTask task = new RequestTask();
+        task.setFuture(client.getExecutor().submit(() -> {
+            if (!task.isCancelled()) {
+                deliver(task, callback, work.run());
+            }
+        }));
+        return task;
+    }
+
+    /**
+     * Work that runs on the SDK executor without a network call
+     */
+    private interface LocalWork {
+        FaceRecognitionResult run();
+    }
+
+    /**
+     * Member of a flight waiting for its result on the calling thread
+     */
+    private static final class BlockingListener
+            implements SingleFlight.Listener<FaceRecognitionResult> {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile FaceRecognitionResult result;
+
+        @Override
+        public void onComplete(FaceRecognitionResult value) {
+            result = value;
+            latch.countDown();
+        }
+
+        FaceRecognitionResult await() {
+            try {
+                latch.await();
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
                 return new FaceRecognitionResult.Builder()
                         .setSuccess(false)
-                        .setError("Not authenticated")
+                        .setError("Interrupted while waiting for the request")
                         .build();
             }
+        }
+    }
 
-            String authHeader = "Bearer " + sessionManager.getToken();
-            Response<ApiResponse> response = apiService.deleteUser(authHeader, userId).execute();
+    /**
+     * Image of an upload, resolved when the request is built so that preprocessing
+     * runs on the calling or SDK thread rather than the main thread
+     */
+    private interface ImageInput {
+        ImageSource get() throws IOException;
+    }
 
-            if (response.isSuccessful() && response.body() != null) {
-                return new FaceRecognitionResult.Builder()
-                        .setSuccess(true)
-                        .setUserId(userId)
-                        .build();
+    /**
+     * A single API call: how to create it and how to map a successful response body.
+     * {@link #onSuccess} may return null to treat the body as an API error.
+     */
+    private abstract static class Operation<T> {
+        final Endpoint endpoint;
+        final String userId;
+        final String errorPrefix;
+        final boolean requiresAuth;
+        // Elapsed realtime by which the call must complete, 0 for none
+        long deadlineAt;
+
+        Operation(Endpoint endpoint, String userId, String errorPrefix, boolean requiresAuth) {
+            this.endpoint = endpoint;
+            this.userId = userId;
+            this.errorPrefix = errorPrefix;
+            this.requiresAuth = requiresAuth;
+        }
+
+        /**
+         * @return A result served locally without a network call, or null
+         */
+        FaceRecognitionResult fromCache() throws Exception {
+            return null;
+        }
+
+        /**
+         * @return Key under which identical concurrent calls share one request, or null for
+         *         operations that must not be coalesced, such as writes
+         */
+        String flightKey() {
+            return null;
+        }
+
+        /**
+         * Store the call in the outbox instead of sending it
+         * @return false for operations that are always sent at once
+         */
+        boolean queue(MutationOutbox outbox) throws IOException {
+            return false;
+        }
+
+        abstract Call<T> newCall(String authHeader) throws Exception;
+
+        abstract FaceRecognitionResult onSuccess(T body) throws Exception;
+    }
+
+    private <T> FaceRecognitionResult execute(Operation<T> operation) {
+        startDeadline(operation);
+        try {
+            if (operation.requiresAuth && !sessionManager.hasToken()) {
+                return notAuthenticated();
+            }
+            FaceRecognitionResult queued = queue(operation);
+            if (queued != null) {
+                return queued;
+            }
+            FaceRecognitionResult cached = operation.fromCache();
+            if (cached != null) {
+                return cached;
+            }
+            String key = flightKey(operation);
+            if (key != null) {
+                return coalesce(key, () -> call(operation));
             }
-            return handleApiError(response, userId);
+            return call(operation);
         } catch (Exception e) {
-            Log.e(TAG, "Error deleting user", e);
+            Log.e(TAG, operation.errorPrefix, e);
+            return failure(operation, e);
+        }
+    }
+
+    private <T> FaceRecognitionResult call(Operation<T> operation) {
+        Call<T> call = null;
+        try {
+            call = operation.newCall(authHeader());
+            applyDeadline(call, operation);
+            Response<T> response = call.execute();
+            if (isMultipartRejected(call, response)) {
+                client.onMultipartRejected(operation.endpoint);
+                call = operation.newCall(authHeader());
+                applyDeadline(call, operation);
+                response = call.execute();
+            }
+            return withAttempts(handleResponse(operation, response), call);
+        } catch (Exception e) {
+            Log.e(TAG, operation.errorPrefix, e);
+            return withAttempts(failure(operation, e), call);
+        }
+    }
+
+    /**
+     * Store a write in the outbox when write-behind is on
+     * @return Result acknowledging the stored write, or null if the call is to be sent now
+     */
+    private FaceRecognitionResult queue(Operation<?> operation) throws IOException {
+        MutationOutbox outbox = client.getOutbox();
+        if (outbox == null || !operation.queue(outbox)) {
+            return null;
+        }
+        client.getImageCache().invalidate(operation.userId);
+        return new FaceRecognitionResult.Builder()
+                .setSuccess(true)
+                .setUserId(operation.userId)
+                .setQueued(true)
+                .build();
+    }
+
+    /**
+     * Send a write taken from the outbox, bypassing it
+     */
+    private FaceRecognitionResult send(Mutation mutation) {
+        if (!sessionManager.hasToken()) {
+            return notAuthenticated();
+        }
+        String userId = mutation.getUserId();
+        Operation<ApiResponse> operation;
+        switch (mutation.getType()) {
+            case REGISTER:
+                operation = registerOperation(mutation::getImage, userId,
+                        mutation.getIdempotencyKey());
+                break;
+            case UPDATE:
+                operation = updateOperation(mutation::getImage, userId,
+                        mutation.getIdempotencyKey());
+                break;
+            default:
+                operation = deleteOperation(userId, mutation.getIdempotencyKey());
+        }
+        startDeadline(operation);
+        return call(operation);
+    }
+
+    /**
+     * Sender of the shared outbox. Its instance is created on first use, with the
+     * application context and default settings: queued images are already encoded.
+     */
+    private static MutationOutbox.Sender outboxSender(FaceRecognitionClient client) {
+        return new MutationOutbox.Sender() {
+            private volatile FaceRecognition sender;
+
+            @Override
+            public FaceRecognitionResult send(Mutation mutation) {
+                FaceRecognition instance = sender;
+                if (instance == null) {
+                    instance = new FaceRecognition(client.getContext(), client);
+                    sender = instance;
+                }
+                return instance.send(mutation);
+            }
+        };
+    }
+
+    /**
+     * Start the clock of an operation's deadline, if it has one
+     */
+    private void startDeadline(Operation<?> operation) {
+        long millis = deadlineMillis >= 0
+                ? deadlineMillis : client.getConfig().getDeadlineMillis(operation.endpoint);
+        operation.deadlineAt = millis > 0 ? SystemClock.elapsedRealtime() + millis : 0;
+    }
+
+    /**
+     * Bound a call by what is left of its operation's deadline. The timeout covers every
+     * attempt of the call, so retries share the remaining time.
+     */
+    private void applyDeadline(Call<?> call, Operation<?> operation) throws InterruptedIOException {
+        if (operation.deadlineAt == 0) {
+            return;
+        }
+        long remaining = operation.deadlineAt - SystemClock.elapsedRealtime();
+        if (remaining <= 0) {
+            throw new InterruptedIOException(DEADLINE_EXCEEDED);
+        }
+        call.timeout().timeout(remaining, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Whether a call failed because its deadline ran out: OkHttp fails a call whose timeout
+     * fired with a plain InterruptedIOException("timeout"), and {@link #applyDeadline} throws
+     * its own when no time is left. Socket timeouts are subclasses and do not count.
+     */
+    private static boolean isDeadlineExceeded(Operation<?> operation, Throwable t) {
+        if (operation.deadlineAt == 0 || t.getClass() != InterruptedIOException.class) {
+            return false;
+        }
+        return "timeout".equals(t.getMessage()) || DEADLINE_EXCEEDED.equals(t.getMessage());
+    }
+
+    /**
+     * Add the attempt count and latencies the retry interceptor recorded for a call
+     */
+    private FaceRecognitionResult withAttempts(FaceRecognitionResult result, Call<?> call) {
+        if (call == null) {
+            return result;
+        }
+        List<Long> latencies = client.getAttemptLatencies(call.request());
+        return latencies.isEmpty() ? result : new FaceRecognitionResult.Builder(result)
+                .setAttemptLatencies(latencies)
+                .build();
+    }
+
+    /**
+     * Run work on the calling thread, or wait for an identical flight already in progress
+     */
+    private FaceRecognitionResult coalesce(String key, LocalWork work) {
+        BlockingListener waiter = new BlockingListener();
+        SingleFlight<FaceRecognitionResult>.Membership membership =
+                client.getFlights().join(key, waiter);
+        if (!membership.isLeader()) {
+            return waiter.await();
+        }
+        FaceRecognitionResult result = null;
+        try {
+            result = work.run();
+        } finally {
+            membership.complete(result != null ? result : new FaceRecognitionResult.Builder()
+                    .setSuccess(false)
+                    .setError("Request failed")
+                    .build());
+        }
+        return result;
+    }
+
+    /**
+     * Coalescing key of a read, bound to the session so users of another token never
+     * share a result
+     */
+    private String flightKey(Operation<?> operation) {
+        String key = operation.flightKey();
+        return key != null ? key + '\n' + authHeader() : null;
+    }
+
+    private <T> FaceRecognitionTask enqueue(Operation<T> operation, FaceRecognitionCallback callback) {
+        startDeadline(operation);
+        RequestTask task = new RequestTask();
+        task.setFuture(client.getExecutor().submit(() -> {
+            if (task.isCancelled()) {
+                return;
+            }
+            try {
+                if (operation.requiresAuth && !sessionManager.hasToken()) {
+                    deliver(task, callback, notAuthenticated());
+                    return;
+                }
+                FaceRecognitionResult queued = queue(operation);
+                if (queued != null) {
+                    deliver(task, callback, queued);
+                    return;
+                }
+                FaceRecognitionResult cached = operation.fromCache();
+                if (cached != null) {
+                    deliver(task, callback, cached);
+                    return;
+                }
+                String key = flightKey(operation);
+                if (key == null) {
+                    enqueueCall(task, operation, result -> deliver(task, callback, result));
+                    return;
+                }
+                SingleFlight<FaceRecognitionResult>.Membership membership = client.getFlights()
+                        .join(key, result -> deliver(task, callback, result));
+                if (membership.isLeader()) {
+                    // The call belongs to the flight, so it outlives the task that started
+                    // it and is cancelled only when every member has cancelled
+                    RequestTask shared = new RequestTask();
+                    membership.onAbandoned(shared::cancel);
+                    task.onCancel(membership::leave);
+                    try {
+                        enqueueCall(shared, operation, membership::complete);
+                    } catch (Exception e) {
+                        Log.e(TAG, operation.errorPrefix, e);
+                        membership.complete(failure(operation, e));
+                    }
+                } else {
+                    task.onCancel(membership::leave);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, operation.errorPrefix, e);
+                deliver(task, callback, failure(operation, e));
+            }
+        }));
+        return task;
+    }
+
+    /**
+     * @param done Receives the result; not called if the call is cancelled
+     */
+    private <T> void enqueueCall(RequestTask task, Operation<T> operation,
+                                 FaceRecognitionCallback done) throws Exception {
+        Call<T> call = operation.newCall(authHeader());
+        applyDeadline(call, operation);
+        if (!task.attach(call)) {
+            return;
+        }
+        call.enqueue(new Callback<T>() {
+            @Override
+            public void onResponse(Call<T> call, Response<T> response) {
+                if (isMultipartRejected(call, response)) {
+                    client.onMultipartRejected(operation.endpoint);
+                    try {
+                        enqueueCall(task, operation, done);
+                    } catch (Exception e) {
+                        Log.e(TAG, operation.errorPrefix, e);
+                        done.onResult(failure(operation, e));
+                    }
+                    return;
+                }
+                done.onResult(withAttempts(handleResponse(operation, response), call));
+            }
+
+            @Override
+            public void onFailure(Call<T> call, Throwable t) {
+                // A call that ran out of time is cancelled too, but still has a result
+                if (call.isCanceled() && !isDeadlineExceeded(operation, t)) {
+                    return;
+                }
+                Log.e(TAG, operation.errorPrefix, t);
+                done.onResult(withAttempts(failure(operation, t), call));
+            }
+        });
+    }
+
+    private boolean isMultipart(Endpoint endpoint) {
+        return client.getTransportMode(endpoint) == TransportMode.MULTIPART;
+    }
+
+    /**
+     * A 415 answer to a multipart upload means the endpoint only accepts JSON
+     */
+    private boolean isMultipartRejected(Call<?> call, Response<?> response) {
+        if (response.code() != 415 || !(call.request().body() instanceof MultipartBody)) {
+            return false;
+        }
+        if (response.errorBody() != null) {
+            response.errorBody().close();
+        }
+        return true;
+    }
+
+    private void deliver(RequestTask task, FaceRecognitionCallback callback,
+                         FaceRecognitionResult result) {
+        if (!task.complete()) {
+            return;
+        }
+        callbackExecutor.execute(() -> {
+            if (!task.isCancelled()) {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    private <T> FaceRecognitionResult handleResponse(Operation<T> operation, Response<T> response) {
+        if (response.isSuccessful() && response.body() != null) {
+            try {
+                FaceRecognitionResult result = operation.onSuccess(response.body());
+                if (result != null) {
+                    return result;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, operation.errorPrefix, e);
+                return failure(operation, e);
+            }
+        }
+        return handleApiError(response, operation.userId);
+    }
+
+    private FaceRecognitionResult notAuthenticated() {
+        return new FaceRecognitionResult.Builder()
+                .setSuccess(false)
+                .setError("Not authenticated")
+                .setErrorCode(ErrorCode.NOT_AUTHENTICATED)
+                .build();
+    }
+
+    private FaceRecognitionResult failure(Operation<?> operation, Throwable t) {
+        if (isDeadlineExceeded(operation, t)) {
             return new FaceRecognitionResult.Builder()
                     .setSuccess(false)
-                    .setUserId(userId)
-                    .setError("Error deleting user: " + e.getMessage())
+                    .setUserId(operation.userId)
+                    .setError(operation.errorPrefix + ": deadline exceeded")
+                    .setErrorCode(ErrorCode.DEADLINE_EXCEEDED)
                     .build();
         }
+        return new FaceRecognitionResult.Builder()
+                .setSuccess(false)
+                .setUserId(operation.userId)
+                .setError(operation.errorPrefix + ": " + t.getMessage())
+                .setErrorCode(errorCode(t))
+                .build();
+    }
+
+    private static ErrorCode errorCode(Throwable t) {
+        if (t instanceof CircuitOpenException) {
+            return ErrorCode.CIRCUIT_OPEN;
+        }
+        return t instanceof IOException ? ErrorCode.NETWORK : ErrorCode.UNKNOWN;
     }
 
     private FaceRecognitionResult handleApiError(Response<?> response, String userId) {
@@ -360,6 +1414,8 @@ public class FaceRecognition implements FaceRecognitionService {
                     .setSuccess(false)
                     .setUserId(userId)
                     .setError(errorMessage)
+                    .setErrorCode(ErrorCode.HTTP)
+                    .setHttpStatus(response.code())
                     .build();
         } catch (Exception e) {
             Log.e(TAG, "Error handling API error", e);
@@ -370,10 +1426,47 @@ public class FaceRecognition implements FaceRecognitionService {
         }
     }
 
-    private String bitmapToBase64(Bitmap bitmap) {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-        byte[] imageBytes = outputStream.toByteArray();
-        return "data:image/jpeg;base64," + Base64.encodeToString(imageBytes, Base64.NO_WRAP);
+    private String authHeader() {
+        return "Bearer " + sessionManager.getToken();
+    }
+
+    private ApiService apiService() {
+        return client.getApiService();
+    }
+
+    private MultipartBody.Part imagePart(String name, ImageInput image) throws IOException {
+        ImageSource source = image.get();
+        String extension = source.getMimeType().substring(source.getMimeType().indexOf('/') + 1);
+        return MultipartBody.Part.createFormData(name, "face." + extension,
+                new ImageRequestBody(source));
+    }
+
+    private ImageSource imageSource(Bitmap bitmap) {
+        return new BitmapImageSource(preprocess(bitmap), imageEncoder);
+    }
+
+    private Bitmap preprocess(Bitmap bitmap) {
+        FacePreprocessor preprocessor = facePreprocessor;
+        return preprocessor != null ? preprocessor.process(bitmap) : bitmap;
+    }
+
+    private ImagePayload imagePayload(ImageInput image) throws IOException {
+        return new ImagePayload(image.get());
+    }
+
+    private ImageInput uriImage(Uri uri) {
+        return () -> prepareSource(EncodedFace.fromUri(context, uri));
+    }
+
+    private ImageInput bytesImage(byte[] data) {
+        return () -> prepareSource(EncodedFace.fromBytes(data));
+    }
+
+    private ImageInput bufferImage(ByteBuffer data) {
+        return () -> prepareSource(EncodedFace.fromByteBuffer(data));
+    }
+
+    private EncodedFace prepareSource(EncodedFace source) throws IOException {
+        return SourceImage.prepare(source, imageEncoder, facePreprocessor);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,91 @@
+package com.nivbuskila.facerecognition;
+
+import com.nivbuskila.facerecognition.api.FaceRecognitionTask;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import retrofit2.Call;
+
+/**
+ * {@link FaceRecognitionTask} backed by a preparation step on the SDK executor
+ * followed by an enqueued Retrofit call, or by a shared flight of such a call.
+ */
+final class RequestTask implements FaceRecognitionTask {
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile Future<?> future;
+    private volatile Call<?> call;
+    private volatile Runnable cancelAction;
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+        if (cancelled.get()) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Attach the HTTP call about to be enqueued.
+     * @return false if the task was cancelled meanwhile, in which case the call is cancelled too
+     */
+    boolean attach(Call<?> call) {
+        this.call = call;
+        if (cancelled.get()) {
+            call.cancel();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Set what else to do when the task is cancelled, e.g. leave a shared flight
+     * @return false if the task was cancelled meanwhile, in which case the action has run
+     */
+    boolean onCancel(Runnable action) {
+        this.cancelAction = action;
+        if (cancelled.get()) {
+            action.run();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Mark the task as completed.
+     * @return true if the caller should deliver its result
+     */
+    boolean complete() {
+        return !cancelled.get() && done.compareAndSet(false, true);
+    }
+
+    @Override
+    public void cancel() {
+        if (!cancelled.compareAndSet(false, true) || done.get()) {
+            // Already delivered or pending delivery, which is suppressed by the flag
+            return;
+        }
+        Future<?> currentFuture = future;
+        if (currentFuture != null) {
+            currentFuture.cancel(false);
+        }
+        Call<?> currentCall = call;
+        if (currentCall != null) {
+            currentCall.cancel();
+        }
+        Runnable action = cancelAction;
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.get() || cancelled.get();
+    }
+}
@@ -0,0 +1,11 @@
+package com.nivbuskila.facerecognition.api;
+
+import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
+
+/**
+ * Receives the result of an asynchronous {@link FaceRecognitionService} call.
+ * Invoked on the callback executor of the service, the main thread by default.
+ */
+public interface FaceRecognitionCallback {
+    void onResult(FaceRecognitionResult result);
+}
@@ -2,7 +2,13 @@ package com.nivbuskila.facerecognition.api;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.net.Uri;
+import com.nivbuskila.facerecognition.directory.UserDirectory;
+import com.nivbuskila.facerecognition.image.EncodedFace;
 import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
+
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 
@@ -23,14 +29,44 @@ public interface FaceRecognitionService {
      */
     FaceRecognitionResult registerUser(Bitmap faceImage, String userId);
 
+    /**
+     * Register a new user with an already encoded face, without encoding it again
+     * @param face The encoded face to register
+     * @param userId Unique identifier for the user
+     * @return Result of the registration
+     */
+    FaceRecognitionResult registerUser(EncodedFace face, String userId);
+
+    /**
+     * Register a new user with an already compressed image. JPEG and WebP data is uploaded
+     * as-is, with metadata removed, unless it has to be rotated, preprocessed or shrunk.
+     * @param image Content or file URI of the image
+     * @param userId Unique identifier for the user
+     * @return Result of the registration
+     */
+    FaceRecognitionResult registerUser(Uri image, String userId);
+
+    FaceRecognitionResult registerUser(byte[] image, String userId);
+
+    FaceRecognitionResult registerUser(ByteBuffer image, String userId);
+
     /**
      * Verify a user's face against their registered image
      * @param faceImage The face image to verify
      * @param userId User identifier to verify against
-     * @return Result of the verification
+     * @return Result of the verification; a face that does not match fails with
+     *         {@link com.nivbuskila.facerecognition.models.ErrorCode#NOT_MATCHED}
      */
     FaceRecognitionResult verifyUser(Bitmap faceImage, String userId);
 
+    FaceRecognitionResult verifyUser(EncodedFace face, String userId);
+
+    FaceRecognitionResult verifyUser(Uri image, String userId);
+
+    FaceRecognitionResult verifyUser(byte[] image, String userId);
+
+    FaceRecognitionResult verifyUser(ByteBuffer image, String userId);
+
 
     /**
      * Update user's face image
@@ -40,8 +76,47 @@ public interface FaceRecognitionService {
      */
     FaceRecognitionResult updateUser(Bitmap faceImage, String userId);
 
+    FaceRecognitionResult updateUser(EncodedFace face, String userId);
+
+    FaceRecognitionResult updateUser(Uri image, String userId);
+
+    FaceRecognitionResult updateUser(byte[] image, String userId);
+
+    FaceRecognitionResult updateUser(ByteBuffer image, String userId);
+
     FaceRecognitionResult getUsers();
 
+    /**
+     * Bring the local user directory up to date, requesting only the changes since the
+     * previous sync when the server supports it
+     * @return Result whose {@link FaceRecognitionResult#getChanges()} lists added, updated
+     *         and removed users
+     */
+    FaceRecognitionResult syncUsers();
+
+    /**
+     * @return Local mirror of the user directory maintained by {@link #syncUsers()}
+     */
+    UserDirectory getUserDirectory();
+
+    /**
+     * Search the local user directory without a network call
+     * @return Result whose {@link FaceRecognitionResult#getRecords()} holds the page
+     * @see UserDirectory#search
+     */
+    FaceRecognitionResult searchUsers(String text, UserDirectory.Match match,
+                                      UserDirectory.Order order, int offset, int limit);
+
+    /**
+     * Stream the user listing page by page, handing each user to the consumer as it is
+     * parsed instead of collecting the whole listing in memory
+     * @param pageSize Users requested per page
+     * @param includeFaceData Whether to parse each user's faceData; skipped otherwise
+     * @param consumer Called for each user on the calling thread; may stop the listing
+     */
+    FaceRecognitionResult forEachUser(int pageSize, boolean includeFaceData,
+                                      UserConsumer consumer);
+
     /**
      * Get user's face image
      * @param userId User identifier
@@ -49,6 +124,24 @@ public interface FaceRecognitionService {
      */
     FaceRecognitionResult getUserImage(String userId);
 
+    /**
+     * Get user's face image decoded to a Bitmap. The response is decoded as it streams
+     * in, without holding the base64 data in memory.
+     * @param userId User identifier
+     * @param reqWidth Minimum width needed, the image is downsampled towards it; 0 for full size
+     * @param reqHeight Minimum height needed; 0 for full size
+     * @return Result whose {@link FaceRecognitionResult#getImage()} holds the bitmap
+     */
+    FaceRecognitionResult getUserImageBitmap(String userId, int reqWidth, int reqHeight);
+
+    /**
+     * Download user's face image into a file, decoding the response as it streams in
+     * @param userId User identifier
+     * @param destination File to write the encoded image to
+     * @return Result whose {@link FaceRecognitionResult#getImageFile()} is the destination
+     */
+    FaceRecognitionResult downloadUserImage(String userId, File destination);
+
     /**
      * Start face detection activity
      * @param context Context to start the activity
@@ -62,10 +155,130 @@ public interface FaceRecognitionService {
      * Compare two face images for similarity
      * @param face1 First face image
      * @param face2 Second face image
-     * @return Result of the comparison
+     * @return Result of the comparison; faces that do not match fail with
+     *         {@link com.nivbuskila.facerecognition.models.ErrorCode#NOT_MATCHED}
      */
     FaceRecognitionResult compareFaces(Bitmap face1, Bitmap face2);
-}
 
+    FaceRecognitionResult compareFaces(EncodedFace face1, EncodedFace face2);
+
+    FaceRecognitionResult compareFaces(Uri image1, Uri image2);
+
+    FaceRecognitionResult compareFaces(byte[] image1, byte[] image2);
+
+    FaceRecognitionResult compareFaces(ByteBuffer image1, ByteBuffer image2);
+
+    /**
+     * Asynchronous counterpart of {@link #authenticate(String, String)}
+     * @param callback Receives the result on the callback executor
+     * @return Handle that can cancel the in-flight request
+     */
+    FaceRecognitionTask authenticateAsync(String username, String password,
+                                          FaceRecognitionCallback callback);
+
+    /**
+     * Asynchronous counterpart of {@link #registerUser(Bitmap, String)}
+     * @param callback Receives the result on the callback executor
+     * @return Handle that can cancel the in-flight request
+     */
+    FaceRecognitionTask registerUserAsync(Bitmap faceImage, String userId,
+                                          FaceRecognitionCallback callback);
+
+    FaceRecognitionTask registerUserAsync(EncodedFace face, String userId,
+                                          FaceRecognitionCallback callback);
+
+    FaceRecognitionTask registerUserAsync(Uri image, String userId,
+                                          FaceRecognitionCallback callback);
+
+    FaceRecognitionTask registerUserAsync(byte[] image, String userId,
+                                          FaceRecognitionCallback callback);
+
+    FaceRecognitionTask registerUserAsync(ByteBuffer image, String userId,
+                                          FaceRecognitionCallback callback);
+
+    /**
+     * Asynchronous counterpart of {@link #verifyUser(Bitmap, String)}
+     * @param callback Receives the result on the callback executor
+     * @return Handle that can cancel the in-flight request
+     */
+    FaceRecognitionTask verifyUserAsync(Bitmap faceImage, String userId,
+                                        FaceRecognitionCallback callback);
+
+    FaceRecognitionTask verifyUserAsync(EncodedFace face, String userId,
+                                        FaceRecognitionCallback callback);
+
+    FaceRecognitionTask verifyUserAsync(Uri image, String userId,
+                                        FaceRecognitionCallback callback);
+
+    FaceRecognitionTask verifyUserAsync(byte[] image, String userId,
+                                        FaceRecognitionCallback callback);
+
+    FaceRecognitionTask verifyUserAsync(ByteBuffer image, String userId,
+                                        FaceRecognitionCallback callback);
+
+    /**
+     * Asynchronous counterpart of {@link #updateUser(Bitmap, String)}
+     * @param callback Receives the result on the callback executor
+     * @return Handle that can cancel the in-flight request
+     */
+    FaceRecognitionTask updateUserAsync(Bitmap faceImage, String userId,
+                                        FaceRecognitionCallback callback);
+
+    FaceRecognitionTask updateUserAsync(EncodedFace face, String userId,
+                                        FaceRecognitionCallback callback);
+
+    FaceRecognitionTask updateUserAsync(Uri image, String userId,
+                                        FaceRecognitionCallback callback);
+
+    FaceRecognitionTask updateUserAsync(byte[] image, String userId,
+                                        FaceRecognitionCallback callback);
+
+    FaceRecognitionTask updateUserAsync(ByteBuffer image, String userId,
+                                        FaceRecognitionCallback callback);
+
+    FaceRecognitionTask getUsersAsync(FaceRecognitionCallback callback);
+
+    FaceRecognitionTask syncUsersAsync(FaceRecognitionCallback callback);
+
+    FaceRecognitionTask searchUsersAsync(String text, UserDirectory.Match match,
+                                         UserDirectory.Order order, int offset, int limit,
+                                         FaceRecognitionCallback callback);
+
+    /**
+     * Asynchronous counterpart of {@link #forEachUser}; the consumer is called on the SDK
+     * executor and the callback once the listing is done
+     */
+    FaceRecognitionTask forEachUserAsync(int pageSize, boolean includeFaceData,
+                                         UserConsumer consumer,
+                                         FaceRecognitionCallback callback);
+
+    FaceRecognitionTask getUserImageAsync(String userId, FaceRecognitionCallback callback);
+
+    FaceRecognitionTask getUserImageBitmapAsync(String userId, int reqWidth, int reqHeight,
+                                                FaceRecognitionCallback callback);
+
+    FaceRecognitionTask downloadUserImageAsync(String userId, File destination,
+                                               FaceRecognitionCallback callback);
+
+    FaceRecognitionTask deleteUserAsync(String userId, FaceRecognitionCallback callback);
+
+    /**
+     * Asynchronous counterpart of {@link #compareFaces(Bitmap, Bitmap)}
+     * @param callback Receives the result on the callback executor
+     * @return Handle that can cancel the in-flight request
+     */
+    FaceRecognitionTask compareFacesAsync(Bitmap face1, Bitmap face2,
+                                          FaceRecognitionCallback callback);
+
+    FaceRecognitionTask compareFacesAsync(EncodedFace face1, EncodedFace face2,
+                                          FaceRecognitionCallback callback);
+
+    FaceRecognitionTask compareFacesAsync(Uri image1, Uri image2,
+                                          FaceRecognitionCallback callback);
 
+    FaceRecognitionTask compareFacesAsync(byte[] image1, byte[] image2,
+                                          FaceRecognitionCallback callback);
 
+    FaceRecognitionTask compareFacesAsync(ByteBuffer image1, ByteBuffer image2,
+                                          FaceRecognitionCallback callback);
+}
\ No newline at end of file
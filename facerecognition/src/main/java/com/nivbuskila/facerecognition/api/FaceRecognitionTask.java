@@ -0,0 +1,19 @@
+package com.nivbuskila.facerecognition.api;
+
+/**
+ * Handle to an asynchronous {@link FaceRecognitionService} call.
+ */
+public interface FaceRecognitionTask {
+    /**
+     * Cancel the call. Any in-flight HTTP request is aborted and the callback is not invoked,
+     * even if a result was already produced but not yet delivered.
+     */
+    void cancel();
+
+    boolean isCancelled();
+
+    /**
+     * @return true once a result has been delivered or the task was cancelled
+     */
+    boolean isDone();
+}
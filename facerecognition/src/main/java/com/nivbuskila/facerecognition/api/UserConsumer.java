@@ -0,0 +1,16 @@
+package com.nivbuskila.facerecognition.api;
+
+import com.nivbuskila.facerecognition.models.UserRecord;
+
+/**
+ * Receives users one at a time from {@link FaceRecognitionService#forEachUser}.
+ * Invoked on the thread that reads the listing, never the main thread for async calls.
+ */
+public interface UserConsumer {
+    /**
+     * @param user The next user
+     * @param faceData The user's image data URL if it was requested and sent, otherwise null
+     * @return false to stop reading the listing
+     */
+    boolean onUser(UserRecord user, String faceData);
+}
@@ -6,7 +6,15 @@ public class AuthResponse {
     @SerializedName("token")
     private String token;
 
+    // Optional; lifetime of the token in seconds
+    @SerializedName("expiresIn")
+    private Long expiresIn;
+
     public String getToken() {
         return token;
     }
+
+    public Long getExpiresIn() {
+        return expiresIn;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package com.nivbuskila.facerecognition.directory;
+
+import com.nivbuskila.facerecognition.models.UserChangeSet;
+import com.nivbuskila.facerecognition.models.UserRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * {@link UserDirectory} held in memory for the lifetime of the process. Searches scan all
+ * users; see {@link SqliteUserDirectory} for an indexed store.
+ */
+public class InMemoryUserDirectory implements UserDirectory {
+    // Same order as ORDER BY created_at DESC, user_id in SQLite: missing dates last
+    private static final Comparator<UserRecord> NEWEST_FIRST = (a, b) -> {
+        String x = a.getCreatedAt();
+        String y = b.getCreatedAt();
+        if (x == null || y == null) {
+            return x != null ? -1 : y != null ? 1 : a.getUserId().compareTo(b.getUserId());
+        }
+        int result = y.compareTo(x);
+        return result != 0 ? result : a.getUserId().compareTo(b.getUserId());
+    };
+
+    private final TreeMap<String, UserRecord> users = new TreeMap<>();
+    private String cursor;
+
+    @Override
+    public synchronized String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public synchronized int size() {
+        return users.size();
+    }
+
+    @Override
+    public synchronized List<UserRecord> getAll() {
+        return new ArrayList<>(users.values());
+    }
+
+    @Override
+    public synchronized UserRecord get(String userId) {
+        return users.get(userId);
+    }
+
+    @Override
+    public synchronized List<UserRecord> search(String text, Match match, Order order,
+                                                int offset, int limit) {
+        String folded = text != null ? text.toLowerCase(Locale.ROOT) : "";
+        List<UserRecord> matches = new ArrayList<>();
+        for (UserRecord user : users.values()) {
+            if (matches(user.getUserId(), folded, match)) {
+                matches.add(user);
+            }
+        }
+        if (order == Order.NEWEST_FIRST) {
+            Collections.sort(matches, NEWEST_FIRST);
+        }
+        int from = Math.min(Math.max(offset, 0), matches.size());
+        int to = Math.min(from + Math.max(limit, 0), matches.size());
+        return new ArrayList<>(matches.subList(from, to));
+    }
+
+    private static boolean matches(String userId, String folded, Match match) {
+        if (folded.isEmpty()) {
+            return true;
+        }
+        if (match == Match.PREFIX) {
+            return userId.regionMatches(true, 0, folded, 0, folded.length());
+        }
+        return userId.toLowerCase(Locale.ROOT).contains(folded);
+    }
+
+    @Override
+    public synchronized UserChangeSet applyChanges(List<UserRecord> upserts, List<String> removed,
+                                                   String cursor) {
+        List<UserRecord> added = new ArrayList<>();
+        List<UserRecord> updated = new ArrayList<>();
+        List<String> actuallyRemoved = new ArrayList<>();
+        for (UserRecord user : upserts) {
+            UserRecord previous = users.put(user.getUserId(), user);
+            if (previous == null) {
+                added.add(user);
+            } else if (previous.differsFrom(user)) {
+                updated.add(user);
+            }
+        }
+        for (String userId : removed) {
+            if (users.remove(userId) != null) {
+                actuallyRemoved.add(userId);
+            }
+        }
+        this.cursor = cursor;
+        return new UserChangeSet(added, updated, actuallyRemoved, false);
+    }
+
+    @Override
+    public synchronized UserChangeSet replaceAll(List<UserRecord> listing, String cursor) {
+        Set<String> seen = new HashSet<>();
+        List<UserRecord> added = new ArrayList<>();
+        List<UserRecord> updated = new ArrayList<>();
+        for (UserRecord user : listing) {
+            seen.add(user.getUserId());
+            UserRecord previous = users.put(user.getUserId(), user);
+            if (previous == null) {
+                added.add(user);
+            } else if (previous.differsFrom(user)) {
+                updated.add(user);
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String userId : new ArrayList<>(users.keySet())) {
+            if (!seen.contains(userId)) {
+                users.remove(userId);
+                removed.add(userId);
+            }
+        }
+        this.cursor = cursor;
+        return new UserChangeSet(added, updated, removed, true);
+    }
+
+    @Override
+    public synchronized void clear() {
+        users.clear();
+        cursor = null;
+    }
+}
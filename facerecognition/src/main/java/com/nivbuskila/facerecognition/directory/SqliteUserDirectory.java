@@ -0,0 +1,302 @@
+package com.nivbuskila.facerecognition.directory;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.nivbuskila.facerecognition.models.UserChangeSet;
+import com.nivbuskila.facerecognition.models.UserRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link UserDirectory} stored in an SQLite database, so the directory and its sync cursor
+ * survive restarts. userId is indexed case-insensitively for prefix search and created_at
+ * for ordering by date; substring search has no usable index and scans the table.
+ * <p>
+ * The database is opened on first use, which should not be on the main thread.
+ */
+public class SqliteUserDirectory implements UserDirectory {
+    public static final String DEFAULT_NAME = "face-recognition-users.db";
+
+    private static final int VERSION = 1;
+    private static final String USERS = "users";
+    private static final String META = "meta";
+    private static final String CURSOR_KEY = "cursor";
+    private static final String COLUMNS = "user_id, id, created_at";
+
+    private final Helper helper;
+
+    public SqliteUserDirectory(Context context) {
+        this(context, DEFAULT_NAME);
+    }
+
+    /**
+     * @param name Database file name, or null for a database that is only held in memory
+     */
+    public SqliteUserDirectory(Context context, String name) {
+        this.helper = new Helper(context.getApplicationContext(), name);
+    }
+
+    @Override
+    public synchronized String getCursor() {
+        try (Cursor cursor = db().rawQuery("SELECT value FROM " + META + " WHERE key = ?",
+                new String[]{CURSOR_KEY})) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        try (Cursor cursor = db().rawQuery("SELECT COUNT(*) FROM " + USERS, null)) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    @Override
+    public synchronized List<UserRecord> getAll() {
+        return read(db().rawQuery("SELECT " + COLUMNS + " FROM " + USERS + " ORDER BY user_id",
+                null));
+    }
+
+    @Override
+    public synchronized UserRecord get(String userId) {
+        List<UserRecord> users = read(db().rawQuery("SELECT " + COLUMNS + " FROM " + USERS
+                + " WHERE user_id = ?", new String[]{userId}));
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    @Override
+    public synchronized List<UserRecord> search(String text, Match match, Order order,
+                                                int offset, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT " + COLUMNS + " FROM " + USERS);
+        String[] args = null;
+        if (text != null && !text.isEmpty()) {
+            if (match == Match.PREFIX) {
+                // A range on the NOCASE index rather than LIKE, which older SQLite versions
+                // cannot run on an index when an ESCAPE clause is given
+                String upper = prefixUpperBound(text);
+                if (upper != null) {
+                    sql.append(" WHERE user_id COLLATE NOCASE >= ?"
+                            + " AND user_id COLLATE NOCASE < ?");
+                    args = new String[]{text, upper};
+                } else {
+                    sql.append(" WHERE user_id COLLATE NOCASE >= ?");
+                    args = new String[]{text};
+                }
+            } else {
+                sql.append(" WHERE user_id LIKE ? ESCAPE '\\'");
+                args = new String[]{"%" + escapeLike(text) + "%"};
+            }
+        }
+        sql.append(order == Order.NEWEST_FIRST
+                ? " ORDER BY created_at DESC, user_id"
+                : " ORDER BY user_id");
+        sql.append(" LIMIT ").append(Math.max(limit, 0))
+                .append(" OFFSET ").append(Math.max(offset, 0));
+        return read(db().rawQuery(sql.toString(), args));
+    }
+
+    @Override
+    public synchronized UserChangeSet applyChanges(List<UserRecord> upserts, List<String> removed,
+                                                   String cursor) {
+        List<UserRecord> added = new ArrayList<>();
+        List<UserRecord> updated = new ArrayList<>();
+        List<String> actuallyRemoved = new ArrayList<>();
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            try (SQLiteStatement upsert = upsertStatement(db)) {
+                for (UserRecord user : upserts) {
+                    UserRecord previous = get(user.getUserId());
+                    if (previous == null) {
+                        added.add(user);
+                    } else if (previous.differsFrom(user)) {
+                        updated.add(user);
+                    } else {
+                        continue;
+                    }
+                    bind(upsert, user).executeInsert();
+                }
+            }
+            for (String userId : removed) {
+                if (db.delete(USERS, "user_id = ?", new String[]{userId}) > 0) {
+                    actuallyRemoved.add(userId);
+                }
+            }
+            setCursor(db, cursor);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return new UserChangeSet(added, updated, actuallyRemoved, false);
+    }
+
+    @Override
+    public synchronized UserChangeSet replaceAll(List<UserRecord> listing, String cursor) {
+        Map<String, UserRecord> previous = new HashMap<>();
+        for (UserRecord user : getAll()) {
+            previous.put(user.getUserId(), user);
+        }
+        List<UserRecord> added = new ArrayList<>();
+        List<UserRecord> updated = new ArrayList<>();
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            try (SQLiteStatement upsert = upsertStatement(db)) {
+                for (UserRecord user : listing) {
+                    UserRecord old = previous.remove(user.getUserId());
+                    if (old == null) {
+                        added.add(user);
+                    } else if (old.differsFrom(user)) {
+                        updated.add(user);
+                    } else {
+                        continue;
+                    }
+                    bind(upsert, user).executeInsert();
+                }
+            }
+            // Whatever was not in the listing has been deleted on the server
+            List<String> removed = new ArrayList<>(previous.keySet());
+            for (String userId : removed) {
+                db.delete(USERS, "user_id = ?", new String[]{userId});
+            }
+            setCursor(db, cursor);
+            db.setTransactionSuccessful();
+            return new UserChangeSet(added, updated, removed, true);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            db.delete(USERS, null, null);
+            db.delete(META, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private SQLiteDatabase db() {
+        return helper.getWritableDatabase();
+    }
+
+    private static SQLiteStatement upsertStatement(SQLiteDatabase db) {
+        return db.compileStatement("INSERT OR REPLACE INTO " + USERS + " (" + COLUMNS
+                + ") VALUES (?, ?, ?)");
+    }
+
+    private static SQLiteStatement bind(SQLiteStatement statement, UserRecord user) {
+        statement.clearBindings();
+        statement.bindString(1, user.getUserId());
+        if (user.getId() != null) {
+            statement.bindString(2, user.getId());
+        }
+        if (user.getCreatedAt() != null) {
+            statement.bindString(3, user.getCreatedAt());
+        }
+        return statement;
+    }
+
+    private static void setCursor(SQLiteDatabase db, String cursor) {
+        if (cursor == null) {
+            db.delete(META, "key = ?", new String[]{CURSOR_KEY});
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put("key", CURSOR_KEY);
+        values.put("value", cursor);
+        db.insertWithOnConflict(META, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static List<UserRecord> read(Cursor cursor) {
+        try {
+            List<UserRecord> users = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                users.add(new UserRecord(cursor.getString(0), cursor.getString(1),
+                        cursor.getString(2)));
+            }
+            return users;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The smallest string that sorts after every string starting with the prefix, under
+     * NOCASE: the prefix with its last code point incremented. SQLite compares UTF-8 bytes,
+     * which is code point order, so this also bounds ids continuing with characters outside
+     * the BMP. NOCASE folds ASCII letters to lower case, so the prefix is folded first.
+     * @return The bound, or null if there is none
+     */
+    static String prefixUpperBound(String prefix) {
+        StringBuilder bound = new StringBuilder(prefix.length());
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            bound.append(c >= 'A' && c <= 'Z' ? (char) (c - 'A' + 'a') : c);
+        }
+        int end = bound.length();
+        while (end > 0) {
+            int last = bound.codePointBefore(end);
+            end -= Character.charCount(last);
+            if (last < Character.MAX_CODE_POINT) {
+                int next = last + 1;
+                if (next == 'A') {
+                    // Folds to 'a': the next character after '@' under NOCASE is '['
+                    next = '[';
+                } else if (next == Character.MIN_SURROGATE) {
+                    next = Character.MAX_SURROGATE + 1;
+                }
+                bound.setLength(end);
+                return bound.appendCodePoint(next).toString();
+            }
+        }
+        return null;
+    }
+
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static class Helper extends SQLiteOpenHelper {
+        Helper(Context context, String name) {
+            super(context, name, null, VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + USERS + " ("
+                    + "user_id TEXT PRIMARY KEY NOT NULL, "
+                    + "id TEXT, "
+                    + "created_at TEXT)");
+            db.execSQL("CREATE INDEX users_user_id_nocase ON " + USERS
+                    + " (user_id COLLATE NOCASE)");
+            db.execSQL("CREATE INDEX users_created_at ON " + USERS + " (created_at)");
+            db.execSQL("CREATE TABLE " + META + " (key TEXT PRIMARY KEY NOT NULL, value TEXT)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // A mirror of the server: drop it and let the next sync refill it
+            db.execSQL("DROP TABLE IF EXISTS " + USERS);
+            db.execSQL("DROP TABLE IF EXISTS " + META);
+            onCreate(db);
+        }
+
+        @Override
+        public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            onUpgrade(db, oldVersion, newVersion);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.nivbuskila.facerecognition.directory;
+
+import com.nivbuskila.facerecognition.models.UserChangeSet;
+import com.nivbuskila.facerecognition.models.UserRecord;
+
+import java.util.List;
+
+/**
+ * Local mirror of the server's user directory, kept current by {@link UserDirectorySync}.
+ * Implementations must be thread-safe.
+ */
+public interface UserDirectory {
+    /**
+     * @return Sync cursor of the last successful sync, or null before the first one
+     */
+    String getCursor();
+
+    int size();
+
+    /**
+     * @return All users, ordered by userId
+     */
+    List<UserRecord> getAll();
+
+    UserRecord get(String userId);
+
+    /**
+     * One page of the users whose userId matches a search text, ignoring ASCII case
+     * @param text Search text; null or empty matches every user
+     * @param offset Number of matching users to skip
+     * @param limit Maximum number of users to return
+     */
+    List<UserRecord> search(String text, Match match, Order order, int offset, int limit);
+
+    /**
+     * Apply changes reported by the server
+     * @param upserts Added or updated users
+     * @param removed Ids of deleted users
+     * @param cursor Cursor to store for the next sync
+     * @return What actually changed locally
+     */
+    UserChangeSet applyChanges(List<UserRecord> upserts, List<String> removed, String cursor);
+
+    /**
+     * Replace the whole directory with a full listing
+     * @return The difference to the previous contents
+     */
+    UserChangeSet replaceAll(List<UserRecord> users, String cursor);
+
+    void clear();
+
+    enum Match {
+        /** userId starts with the text */
+        PREFIX,
+        /** userId contains the text */
+        SUBSTRING
+    }
+
+    enum Order {
+        /** Ascending userId, the order of {@link #getAll()} */
+        USER_ID,
+        /** Descending created_at, then ascending userId */
+        NEWEST_FIRST
+    }
+}
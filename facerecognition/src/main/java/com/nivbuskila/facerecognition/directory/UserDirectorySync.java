@@ -0,0 +1,118 @@
+package com.nivbuskila.facerecognition.directory;
+
+import android.util.Log;
+
+import com.nivbuskila.facerecognition.models.UserChangeSet;
+import com.nivbuskila.facerecognition.models.UserRecord;
+import com.nivbuskila.facerecognition.network.ApiResponse;
+import com.nivbuskila.facerecognition.network.ApiService;
+import com.nivbuskila.facerecognition.network.UserChangesResponse;
+import com.nivbuskila.facerecognition.network.UserListing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+/**
+ * Keeps a {@link UserDirectory} in step with the server. With a cursor from the previous sync
+ * only the changes since then are requested; without one, or when the server reports the
+ * cursor as stale (410) or has no changes endpoint (404), the full listing is streamed page
+ * by page without face images and diffed against the local mirror.
+ */
+public class UserDirectorySync {
+    private static final String TAG = "UserDirectorySync";
+
+    private final ApiService apiService;
+    private final UserDirectory directory;
+    private volatile boolean deltaUnsupported;
+
+    public UserDirectorySync(ApiService apiService, UserDirectory directory) {
+        this.apiService = apiService;
+        this.directory = directory;
+    }
+
+    public UserDirectory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Bring the directory up to date. Calls are serialized, so concurrent syncs never
+     * apply the same changes twice.
+     * @return What changed in the local directory
+     * @throws HttpException if the server answered with an error
+     */
+    public synchronized UserChangeSet sync(String authHeader) throws IOException {
+        String cursor = directory.getCursor();
+        if (cursor != null && !deltaUnsupported) {
+            Response<UserChangesResponse> response =
+                    apiService.getUserChanges(authHeader, cursor).execute();
+            UserChangesResponse body = response.body();
+            if (response.isSuccessful() && body != null) {
+                return applyChanges(body, cursor);
+            }
+            if (response.code() == 404) {
+                Log.w(TAG, "Server has no changes endpoint, using full listings");
+                deltaUnsupported = true;
+            } else if (response.code() == 410) {
+                Log.d(TAG, "Sync cursor is stale, resyncing");
+            } else {
+                throw new HttpException(response);
+            }
+            closeErrorBody(response);
+        }
+        return fullSync(authHeader);
+    }
+
+    private UserChangeSet applyChanges(UserChangesResponse body, String cursor) {
+        List<UserRecord> upserts = toRecords(body.getUsers());
+        List<String> removed = body.getDeleted() != null
+                ? body.getDeleted() : Collections.<String>emptyList();
+        String next = body.getCursor() != null ? body.getCursor() : latestCreatedAt(upserts, cursor);
+        return directory.applyChanges(upserts, removed, next);
+    }
+
+    private UserChangeSet fullSync(String authHeader) throws IOException {
+        List<UserRecord> users = new ArrayList<>();
+        UserListing listing = new UserListing(apiService, UserListing.DEFAULT_PAGE_SIZE, false);
+        listing.forEach(authHeader, (user, faceData) -> users.add(user));
+        String cursor = listing.getSyncCursor();
+        return directory.replaceAll(users, cursor != null ? cursor : latestCreatedAt(users, null));
+    }
+
+    private static List<UserRecord> toRecords(List<ApiResponse> responses) {
+        List<UserRecord> records = new ArrayList<>(responses != null ? responses.size() : 0);
+        if (responses != null) {
+            for (ApiResponse response : responses) {
+                if (response.getUserId() != null) {
+                    records.add(UserRecord.from(response));
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Fallback cursor when the server does not return one: the newest created_at seen.
+     * ISO-8601 timestamps in one format compare correctly as strings.
+     */
+    private static String latestCreatedAt(List<UserRecord> users, String current) {
+        String latest = current;
+        for (UserRecord user : users) {
+            String createdAt = user.getCreatedAt();
+            if (createdAt != null && (latest == null || createdAt.compareTo(latest) > 0)) {
+                latest = createdAt;
+            }
+        }
+        return latest;
+    }
+
+    private static void closeErrorBody(Response<?> response) {
+        if (response.errorBody() != null) {
+            response.errorBody().close();
+        }
+    }
+}
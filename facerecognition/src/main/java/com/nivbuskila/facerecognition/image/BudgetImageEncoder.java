@@ -0,0 +1,107 @@
+package com.nivbuskila.facerecognition.image;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes at the highest quality whose output fits a byte budget, found by a bounded
+ * binary search on quality. Encoding buffers are kept per thread and reused across calls.
+ */
+public class BudgetImageEncoder implements ImageEncoder {
+    private static final String TAG = "BudgetImageEncoder";
+
+    private final ImageFormat format;
+    private final int maxBytes;
+    private final int minQuality;
+    private final int maxQuality;
+    private final int maxAttempts;
+    private final ThreadLocal<ByteArrayOutputStream[]> buffers;
+
+    /**
+     * @param format Output format
+     * @param maxBytes Byte budget for one encoded image
+     */
+    public BudgetImageEncoder(ImageFormat format, int maxBytes) {
+        this(format, maxBytes, 40, 95, 6);
+    }
+
+    /**
+     * @param minQuality Lowest quality tried; used even if it exceeds the budget
+     * @param maxQuality Highest quality tried
+     * @param maxAttempts Maximum number of encodes per image
+     */
+    public BudgetImageEncoder(ImageFormat format, int maxBytes, int minQuality, int maxQuality,
+                              int maxAttempts) {
+        this.format = format;
+        this.maxBytes = maxBytes;
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+        this.maxAttempts = maxAttempts;
+        this.buffers = new ThreadLocal<ByteArrayOutputStream[]>() {
+            @Override
+            protected ByteArrayOutputStream[] initialValue() {
+                return new ByteArrayOutputStream[]{
+                        new ByteArrayOutputStream(maxBytes), new ByteArrayOutputStream(maxBytes)};
+            }
+        };
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String getMimeType() {
+        return format.getMimeType();
+    }
+
+    @Override
+    public void encode(Bitmap bitmap, OutputStream out) throws IOException {
+        ByteArrayOutputStream[] pair = buffers.get();
+        ByteArrayOutputStream best = pair[0];
+        ByteArrayOutputStream scratch = pair[1];
+        best.reset();
+
+        int bestQuality = -1;
+        int low = minQuality;
+        int high = maxQuality;
+        int attempts = 0;
+        while (low <= high && attempts < maxAttempts) {
+            // Try the top of the range first, most images from the preprocessor already fit
+            int quality = attempts == 0 ? high : (low + high + 1) / 2;
+            attempts++;
+            scratch.reset();
+            compress(bitmap, quality, scratch);
+            if (scratch.size() <= maxBytes) {
+                ByteArrayOutputStream swap = best;
+                best = scratch;
+                scratch = swap;
+                bestQuality = quality;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+
+        if (bestQuality < 0) {
+            best.reset();
+            compress(bitmap, minQuality, best);
+            bestQuality = minQuality;
+            Log.w(TAG, "Image exceeds budget of " + maxBytes + " bytes at minimum quality: "
+                    + best.size());
+        }
+        Log.d(TAG, "Encoded " + best.size() + " bytes at quality " + bestQuality
+                + " in " + attempts + " attempts");
+        best.writeTo(out);
+    }
+
+    private void compress(Bitmap bitmap, int quality, ByteArrayOutputStream out) throws IOException {
+        if (!bitmap.compress(format.getCompressFormat(), quality, out)) {
+            throw new IOException("Failed to compress image");
+        }
+    }
+}
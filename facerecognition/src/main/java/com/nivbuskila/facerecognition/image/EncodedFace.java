@@ -0,0 +1,159 @@
+package com.nivbuskila.facerecognition.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import com.nivbuskila.facerecognition.network.ImageSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A face image encoded once and reused by any number of operations. Holds the encoded bytes
+ * together with their MIME type, pixel dimensions and SHA-256 content hash.
+ */
+public final class EncodedFace implements ImageSource {
+    private final byte[] bytes;
+    private final String mimeType;
+    private final int width;
+    private final int height;
+    private volatile String contentHash;
+
+    private EncodedFace(byte[] bytes, String mimeType, int width, int height) {
+        this.bytes = bytes;
+        this.mimeType = mimeType;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Encode a bitmap once
+     */
+    public static EncodedFace fromBitmap(Bitmap bitmap, ImageEncoder encoder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(bitmap, out);
+        return new EncodedFace(out.toByteArray(), encoder.getMimeType(),
+                bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    /**
+     * Wrap already encoded JPEG, WebP or PNG data. The array is kept, not copied,
+     * and must not be modified afterwards.
+     */
+    public static EncodedFace fromBytes(byte[] bytes) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (options.outMimeType == null || options.outWidth <= 0) {
+            throw new IOException("Unsupported image data");
+        }
+        return new EncodedFace(bytes, options.outMimeType, options.outWidth, options.outHeight);
+    }
+
+    /**
+     * Copy the remaining bytes of a buffer of encoded JPEG, WebP or PNG data.
+     * The buffer's position is not changed.
+     */
+    public static EncodedFace fromByteBuffer(ByteBuffer buffer) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        byte[] bytes = new byte[source.remaining()];
+        source.get(bytes);
+        return fromBytes(bytes);
+    }
+
+    /**
+     * Read encoded image data from a content or file URI as-is
+     */
+    public static EncodedFace fromUri(Context context, Uri uri) throws IOException {
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return fromBytes(out.toByteArray());
+        }
+    }
+
+    static EncodedFace of(byte[] bytes, String mimeType, int width, int height) {
+        return new EncodedFace(bytes, mimeType, width, height);
+    }
+
+    /**
+     * The encoded bytes without copying, for use inside this package only
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    @Override
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    @Override
+    public long contentLength() {
+        return bytes.length;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    public int size() {
+        return bytes.length;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Copy of the encoded bytes
+     */
+    public byte[] toByteArray() {
+        return bytes.clone();
+    }
+
+    /**
+     * @return Lowercase hex SHA-256 of the encoded bytes, computed on first use
+     */
+    public String getContentHash() {
+        String hash = contentHash;
+        if (hash == null) {
+            hash = sha256(bytes);
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.nivbuskila.facerecognition.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.face.Face;
+import com.google.mlkit.vision.face.FaceDetection;
+import com.google.mlkit.vision.face.FaceDetector;
+import com.google.mlkit.vision.face.FaceDetectorOptions;
+import com.google.mlkit.vision.face.FaceLandmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares a face image for upload: finds the largest face with ML Kit, crops it with a
+ * margin, optionally levels the eye line and scales the crop to a square canonical size.
+ * {@link #process(Bitmap)} blocks on face detection and must not run on the main thread.
+ */
+public class FacePreprocessor {
+    private static final String TAG = "FacePreprocessor";
+    private static final long DETECTION_TIMEOUT_MS = 5000;
+
+    private final Options options;
+    private FaceDetector detector;
+
+    public FacePreprocessor() {
+        this(new Options.Builder().build());
+    }
+
+    public FacePreprocessor(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * @param source Full captured or picked image
+     * @return The aligned face crop, or the source itself if no face was found
+     */
+    public Bitmap process(Bitmap source) {
+        float scale = Math.min(1f, (float) options.detectionMaxSize
+                / Math.max(source.getWidth(), source.getHeight()));
+        Bitmap detectionImage = scale < 1f
+                ? Bitmap.createScaledBitmap(source, Math.round(source.getWidth() * scale),
+                        Math.round(source.getHeight() * scale), true)
+                : source;
+
+        List<Face> faces;
+        try {
+            faces = Tasks.await(getDetector().process(InputImage.fromBitmap(detectionImage, 0)),
+                    DETECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.w(TAG, "Face detection failed, using full image", e);
+            return source;
+        } finally {
+            if (detectionImage != source) {
+                detectionImage.recycle();
+            }
+        }
+
+        Face face = largestFace(faces);
+        if (face == null) {
+            Log.w(TAG, "No face found, using full image");
+            return source;
+        }
+        return cropFace(source, face, scale);
+    }
+
+    public synchronized void close() {
+        if (detector != null) {
+            detector.close();
+            detector = null;
+        }
+    }
+
+    private synchronized FaceDetector getDetector() {
+        if (detector == null) {
+            FaceDetectorOptions detectorOptions = new FaceDetectorOptions.Builder()
+                    .setPerformanceMode(FaceDetectorOptions.PERFORMANCE_MODE_FAST)
+                    .setLandmarkMode(options.alignEyes
+                            ? FaceDetectorOptions.LANDMARK_MODE_ALL
+                            : FaceDetectorOptions.LANDMARK_MODE_NONE)
+                    .setContourMode(FaceDetectorOptions.CONTOUR_MODE_NONE)
+                    .build();
+            detector = FaceDetection.getClient(detectorOptions);
+        }
+        return detector;
+    }
+
+    private static Face largestFace(List<Face> faces) {
+        Face largest = null;
+        long largestArea = 0;
+        for (Face face : faces) {
+            Rect box = face.getBoundingBox();
+            long area = (long) box.width() * box.height();
+            if (area > largestArea) {
+                largest = face;
+                largestArea = area;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * @param scale Factor between detection coordinates and source coordinates
+     */
+    private Bitmap cropFace(Bitmap source, Face face, float scale) {
+        Rect box = face.getBoundingBox();
+        float centerX = box.exactCenterX() / scale;
+        float centerY = box.exactCenterY() / scale;
+        float side = Math.max(box.width(), box.height()) / scale * (1f + 2f * options.margin);
+        float angle = options.alignEyes ? eyeLineAngle(face) : 0f;
+
+        int size = options.targetSize;
+        Matrix matrix = new Matrix();
+        matrix.postTranslate(-centerX, -centerY);
+        matrix.postRotate(-angle);
+        matrix.postScale(size / side, size / side);
+        matrix.postTranslate(size / 2f, size / 2f);
+
+        Bitmap output = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(output);
+        canvas.drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return output;
+    }
+
+    /**
+     * @return Angle of the line between the eyes in degrees, 0 if landmarks are missing
+     */
+    private static float eyeLineAngle(Face face) {
+        FaceLandmark leftEye = face.getLandmark(FaceLandmark.LEFT_EYE);
+        FaceLandmark rightEye = face.getLandmark(FaceLandmark.RIGHT_EYE);
+        if (leftEye == null || rightEye == null) {
+            return 0f;
+        }
+        PointF first = leftEye.getPosition();
+        PointF second = rightEye.getPosition();
+        if (first.x > second.x) {
+            PointF swap = first;
+            first = second;
+            second = swap;
+        }
+        return (float) Math.toDegrees(Math.atan2(second.y - first.y, second.x - first.x));
+    }
+
+    public static class Options {
+        private final float margin;
+        private final boolean alignEyes;
+        private final int targetSize;
+        private final int detectionMaxSize;
+
+        private Options(Builder builder) {
+            this.margin = builder.margin;
+            this.alignEyes = builder.alignEyes;
+            this.targetSize = builder.targetSize;
+            this.detectionMaxSize = builder.detectionMaxSize;
+        }
+
+        public float getMargin() { return margin; }
+        public boolean isAlignEyes() { return alignEyes; }
+        public int getTargetSize() { return targetSize; }
+        public int getDetectionMaxSize() { return detectionMaxSize; }
+
+        public static class Builder {
+            private float margin = 0.25f;
+            private boolean alignEyes = true;
+            private int targetSize = 320;
+            private int detectionMaxSize = 640;
+
+            /**
+             * @param margin Extra space around the face box on each side, as a fraction of its size
+             */
+            public Builder setMargin(float margin) {
+                this.margin = margin;
+                return this;
+            }
+
+            public Builder setAlignEyes(boolean alignEyes) {
+                this.alignEyes = alignEyes;
+                return this;
+            }
+
+            /**
+             * @param targetSize Width and height of the output image in pixels
+             */
+            public Builder setTargetSize(int targetSize) {
+                this.targetSize = targetSize;
+                return this;
+            }
+
+            /**
+             * @param detectionMaxSize Longest side the image is downscaled to before detection
+             */
+            public Builder setDetectionMaxSize(int detectionMaxSize) {
+                this.detectionMaxSize = detectionMaxSize;
+                return this;
+            }
+
+            public Options build() {
+                return new Options(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.nivbuskila.facerecognition.image;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes face images for upload.
+ */
+public interface ImageEncoder {
+    String getMimeType();
+
+    /**
+     * Encode the bitmap into the stream. Must be safe to call from several threads.
+     */
+    void encode(Bitmap bitmap, OutputStream out) throws IOException;
+}
@@ -0,0 +1,33 @@
+package com.nivbuskila.facerecognition.image;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * Lossy formats an {@link ImageEncoder} can produce.
+ */
+public enum ImageFormat {
+    JPEG("image/jpeg"),
+    WEBP("image/webp");
+
+    private final String mimeType;
+
+    ImageFormat(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    @SuppressWarnings("deprecation")
+    public Bitmap.CompressFormat getCompressFormat() {
+        if (this == JPEG) {
+            return Bitmap.CompressFormat.JPEG;
+        }
+        // Before API 30 WEBP is lossy for any quality below 100
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY
+                : Bitmap.CompressFormat.WEBP;
+    }
+}
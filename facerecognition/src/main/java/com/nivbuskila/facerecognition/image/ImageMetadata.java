@@ -0,0 +1,254 @@
+package com.nivbuskila.facerecognition.image;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Reads the EXIF orientation of JPEG and WebP data and strips metadata from it at the
+ * container level, without decoding any pixels. Malformed input is returned unchanged.
+ */
+final class ImageMetadata {
+    static final int ORIENTATION_NORMAL = 1;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_APP2 = 0xE2;
+    private static final int MARKER_APP13 = 0xED;
+    private static final int MARKER_COM = 0xFE;
+    private static final int VP8X_EXIF_FLAG = 0x08;
+    private static final int VP8X_XMP_FLAG = 0x04;
+
+    private ImageMetadata() {
+    }
+
+    static boolean isJpeg(byte[] data) {
+        return data.length > 3 && (data[0] & 0xff) == 0xFF && (data[1] & 0xff) == 0xD8;
+    }
+
+    static boolean isWebp(byte[] data) {
+        return data.length > 12 && matches(data, 0, "RIFF") && matches(data, 8, "WEBP");
+    }
+
+    /**
+     * @return EXIF orientation (1-8), {@link #ORIENTATION_NORMAL} if absent or unreadable
+     */
+    static int readOrientation(byte[] data) {
+        if (isJpeg(data)) {
+            int pos = 2;
+            while (pos + 4 <= data.length && (data[pos] & 0xff) == 0xFF) {
+                int marker = data[pos + 1] & 0xff;
+                if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                    break;
+                }
+                int end = pos + 2 + u16(data, pos + 2, false);
+                if (marker == MARKER_APP1 && matches(data, pos + 4, "Exif\0\0")) {
+                    return tiffOrientation(data, pos + 10, Math.min(end, data.length));
+                }
+                pos = end;
+            }
+        } else if (isWebp(data)) {
+            int pos = 12;
+            while (pos + 8 <= data.length) {
+                int size = u32le(data, pos + 4);
+                if (size < 0 || pos + 8 + size > data.length) {
+                    break;
+                }
+                if (matches(data, pos, "EXIF")) {
+                    int start = pos + 8;
+                    if (matches(data, start, "Exif\0\0")) {
+                        start += 6;
+                    }
+                    return tiffOrientation(data, start, pos + 8 + size);
+                }
+                pos += 8 + size + (size & 1);
+            }
+        }
+        return ORIENTATION_NORMAL;
+    }
+
+    /**
+     * Remove EXIF, XMP, IPTC and comment metadata, and anything appended after the image
+     * (e.g. motion photo video). Color profiles are kept.
+     * @return The stripped data, or the same array if there was nothing to strip
+     */
+    static byte[] strip(byte[] data) {
+        if (isJpeg(data)) {
+            return stripJpeg(data);
+        }
+        if (isWebp(data)) {
+            return stripWebp(data);
+        }
+        return data;
+    }
+
+    private static byte[] stripJpeg(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        out.write(data, 0, 2);
+        boolean stripped = false;
+        int pos = 2;
+        while (true) {
+            if (pos + 4 > data.length || (data[pos] & 0xff) != 0xFF) {
+                return data;
+            }
+            int marker = data[pos + 1] & 0xff;
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (marker == MARKER_SOS) {
+                break;
+            }
+            int length = u16(data, pos + 2, false);
+            int end = pos + 2 + length;
+            if (length < 2 || end > data.length) {
+                return data;
+            }
+            if (isMetadataSegment(data, pos, marker)) {
+                stripped = true;
+            } else {
+                out.write(data, pos, end - pos);
+            }
+            pos = end;
+        }
+
+        // Inside entropy-coded data 0xFF is always followed by 0x00 or a restart marker,
+        // so the first FFD9 is the end of the image
+        int end = data.length;
+        for (int i = pos; i + 1 < data.length; i++) {
+            if ((data[i] & 0xff) == 0xFF && (data[i + 1] & 0xff) == MARKER_EOI) {
+                end = i + 2;
+                break;
+            }
+        }
+        if (!stripped && end == data.length) {
+            return data;
+        }
+        out.write(data, pos, end - pos);
+        return out.toByteArray();
+    }
+
+    private static boolean isMetadataSegment(byte[] data, int pos, int marker) {
+        switch (marker) {
+            case MARKER_APP1:
+            case MARKER_APP13:
+            case MARKER_COM:
+                return true;
+            case MARKER_APP2:
+                // Multi-picture index; the pictures it points to follow the end of the image
+                return matches(data, pos + 4, "MPF\0");
+            default:
+                return false;
+        }
+    }
+
+    private static byte[] stripWebp(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        out.write(data, 0, 12);
+        boolean stripped = false;
+        int vp8xFlags = -1;
+        int pos = 12;
+        while (pos + 8 <= data.length) {
+            int size = u32le(data, pos + 4);
+            if (size < 0 || pos + 8 + size > data.length) {
+                return data;
+            }
+            // The padding byte of the last chunk is sometimes missing
+            int end = Math.min(pos + 8 + size + (size & 1), data.length);
+            if (matches(data, pos, "EXIF") || matches(data, pos, "XMP ")) {
+                stripped = true;
+            } else {
+                if (matches(data, pos, "VP8X")) {
+                    vp8xFlags = out.size() + 8;
+                }
+                out.write(data, pos, end - pos);
+            }
+            pos = end;
+        }
+        if (!stripped) {
+            return data;
+        }
+        byte[] result = out.toByteArray();
+        if (vp8xFlags >= 0) {
+            result[vp8xFlags] &= (byte) ~(VP8X_EXIF_FLAG | VP8X_XMP_FLAG);
+        }
+        int riffSize = result.length - 8;
+        result[4] = (byte) riffSize;
+        result[5] = (byte) (riffSize >> 8);
+        result[6] = (byte) (riffSize >> 16);
+        result[7] = (byte) (riffSize >> 24);
+        return result;
+    }
+
+    private static int tiffOrientation(byte[] data, int start, int end) {
+        if (start + 8 > end) {
+            return ORIENTATION_NORMAL;
+        }
+        boolean littleEndian;
+        if (matches(data, start, "II")) {
+            littleEndian = true;
+        } else if (matches(data, start, "MM")) {
+            littleEndian = false;
+        } else {
+            return ORIENTATION_NORMAL;
+        }
+        long ifdOffset = u32(data, start + 4, littleEndian);
+        if (ifdOffset < 8 || start + ifdOffset + 2 > end) {
+            return ORIENTATION_NORMAL;
+        }
+        int ifd = (int) (start + ifdOffset);
+        int count = u16(data, ifd, littleEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                break;
+            }
+            if (u16(data, entry, littleEndian) == TAG_ORIENTATION) {
+                int value = u16(data, entry + 8, littleEndian);
+                return value >= 1 && value <= 8 ? value : ORIENTATION_NORMAL;
+            }
+        }
+        return ORIENTATION_NORMAL;
+    }
+
+    private static boolean matches(byte[] data, int offset, String ascii) {
+        if (offset < 0 || offset + ascii.length() > data.length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (data[offset + i] != (byte) ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int u16(byte[] data, int offset, boolean littleEndian) {
+        if (offset + 2 > data.length) {
+            return 0;
+        }
+        int b0 = data[offset] & 0xff;
+        int b1 = data[offset + 1] & 0xff;
+        return littleEndian ? b0 | (b1 << 8) : (b0 << 8) | b1;
+    }
+
+    private static long u32(byte[] data, int offset, boolean littleEndian) {
+        if (offset + 4 > data.length) {
+            return 0;
+        }
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = data[offset + (littleEndian ? 3 - i : i)] & 0xff;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    /**
+     * RIFF chunk size, or -1 if it does not fit in an int
+     */
+    private static int u32le(byte[] data, int offset) {
+        long value = u32(data, offset, true);
+        return value > Integer.MAX_VALUE - 16 ? -1 : (int) value;
+    }
+}
@@ -0,0 +1,39 @@
+package com.nivbuskila.facerecognition.image;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes at a fixed format and quality, straight into the output stream.
+ */
+public class QualityImageEncoder implements ImageEncoder {
+    private final ImageFormat format;
+    private final int quality;
+
+    public QualityImageEncoder(ImageFormat format, int quality) {
+        this.format = format;
+        this.quality = quality;
+    }
+
+    public ImageFormat getFormat() {
+        return format;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    @Override
+    public String getMimeType() {
+        return format.getMimeType();
+    }
+
+    @Override
+    public void encode(Bitmap bitmap, OutputStream out) throws IOException {
+        if (!bitmap.compress(format.getCompressFormat(), quality, out)) {
+            throw new IOException("Failed to compress image");
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.nivbuskila.facerecognition.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Prepares an already compressed source image (a gallery pick, a file, a camera buffer)
+ * for upload. JPEG and WebP data that needs no pixel changes is sent as-is with its
+ * metadata stripped; only images that must be rotated, preprocessed, converted or shrunk
+ * to a byte budget are decoded and encoded again.
+ */
+public final class SourceImage {
+    private static final String TAG = "SourceImage";
+
+    private SourceImage() {
+    }
+
+    /**
+     * @param source Encoded source image
+     * @param encoder Encoder used if the image has to be transcoded; a
+     *                {@link BudgetImageEncoder} also sets the size limit for pass-through
+     * @param preprocessor Face preprocessor, or null. Preprocessing always transcodes.
+     * @return Image ready for upload
+     */
+    public static EncodedFace prepare(EncodedFace source, ImageEncoder encoder,
+                                      FacePreprocessor preprocessor) throws IOException {
+        byte[] data = source.bytes();
+        int orientation = ImageMetadata.readOrientation(data);
+        String reason = null;
+        if (preprocessor != null) {
+            reason = "preprocessing";
+        } else if (!isPassThroughFormat(source.getMimeType())) {
+            reason = "format " + source.getMimeType();
+        } else if (orientation != ImageMetadata.ORIENTATION_NORMAL) {
+            reason = "orientation " + orientation;
+        }
+
+        if (reason == null) {
+            byte[] stripped = ImageMetadata.strip(data);
+            if (withinBudget(stripped.length, encoder)) {
+                Log.d(TAG, "Passing through " + source.getMimeType() + ", " + stripped.length
+                        + " bytes (" + (data.length - stripped.length) + " bytes of metadata removed)");
+                return stripped == data ? source : EncodedFace.of(stripped,
+                        source.getMimeType(), source.getWidth(), source.getHeight());
+            }
+            reason = "over budget";
+        }
+
+        Log.d(TAG, "Transcoding " + source.getMimeType() + " (" + reason + ")");
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode image");
+        }
+        bitmap = applyOrientation(bitmap, orientation);
+        if (preprocessor != null) {
+            bitmap = preprocessor.process(bitmap);
+        }
+        return EncodedFace.fromBitmap(bitmap, encoder);
+    }
+
+    private static boolean isPassThroughFormat(String mimeType) {
+        return "image/jpeg".equals(mimeType) || "image/webp".equals(mimeType);
+    }
+
+    private static boolean withinBudget(int size, ImageEncoder encoder) {
+        return !(encoder instanceof BudgetImageEncoder)
+                || size <= ((BudgetImageEncoder) encoder).getMaxBytes();
+    }
+
+    private static Bitmap applyOrientation(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case 2:
+                matrix.postScale(-1, 1);
+                break;
+            case 3:
+                matrix.postRotate(180);
+                break;
+            case 4:
+                matrix.postScale(1, -1);
+                break;
+            case 5:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case 6:
+                matrix.postRotate(90);
+                break;
+            case 7:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case 8:
+                matrix.postRotate(-90);
+                break;
+            default:
+                return bitmap;
+        }
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+}
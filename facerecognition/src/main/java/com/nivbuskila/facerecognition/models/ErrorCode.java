@@ -0,0 +1,44 @@
+package com.nivbuskila.facerecognition.models;
+
+/**
+ * Why a {@link FaceRecognitionResult} failed.
+ */
+public enum ErrorCode {
+    /**
+     * No session token; log in first
+     */
+    NOT_AUTHENTICATED,
+
+    /**
+     * The server answered with an error status
+     */
+    HTTP,
+
+    /**
+     * The server could not be reached or the connection failed
+     */
+    NETWORK,
+
+    /**
+     * The backend has been failing, so the call was not sent. Retry after the delay in the
+     * error message.
+     */
+    CIRCUIT_OPEN,
+
+    /**
+     * The call's deadline passed before it completed, see
+     * FaceRecognitionClient.Config.Builder#setDeadline
+     */
+    DEADLINE_EXCEEDED,
+
+    /**
+     * Verify or compare completed, but the faces did not match. Not an error of the call;
+     * the confidence holds the server's score.
+     */
+    NOT_MATCHED,
+
+    /**
+     * Any other failure, e.g. an image that could not be read
+     */
+    UNKNOWN
+}
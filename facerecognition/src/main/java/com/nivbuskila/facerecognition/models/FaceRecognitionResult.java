@@ -1,16 +1,30 @@
 package com.nivbuskila.facerecognition.models;
 
+import android.graphics.Bitmap;
+
+import com.nivbuskila.facerecognition.image.EncodedFace;
 import com.nivbuskila.facerecognition.network.ApiResponse;
 
+import java.io.File;
+import java.util.Collections;
 import java.util.List;
 
 public class FaceRecognitionResult {
     private final boolean success;
     private final String userId;
     private final String error;
+    private final ErrorCode errorCode;
+    private final int httpStatus;
+    private final boolean queued;
     private final float confidence;
     private final List<ApiResponse> users;
     private final String faceData;
+    private final Bitmap image;
+    private final File imageFile;
+    private final EncodedFace encodedFace;
+    private final UserChangeSet changes;
+    private final List<UserRecord> records;
+    private final List<Long> attemptLatencies;
 
     public FaceRecognitionResult(boolean success, String userId, float confidence,
                                  String error, List<ApiResponse> users, String faceData) {
@@ -18,26 +32,121 @@ public class FaceRecognitionResult {
         this.userId = userId;
         this.confidence = confidence;
         this.error = error;
+        this.errorCode = success ? null : ErrorCode.UNKNOWN;
+        this.httpStatus = 0;
+        this.queued = false;
         this.users = users;
         this.faceData = faceData;
+        this.image = null;
+        this.imageFile = null;
+        this.encodedFace = null;
+        this.changes = null;
+        this.records = null;
+        this.attemptLatencies = Collections.emptyList();
     }
 
+    private FaceRecognitionResult(Builder builder) {
+        this.success = builder.success;
+        this.userId = builder.userId;
+        this.confidence = builder.confidence;
+        this.error = builder.error;
+        this.errorCode = builder.errorCode != null || builder.success
+                ? builder.errorCode : ErrorCode.UNKNOWN;
+        this.httpStatus = builder.httpStatus;
+        this.queued = builder.queued;
+        this.users = builder.users;
+        this.faceData = builder.faceData;
+        this.image = builder.image;
+        this.imageFile = builder.imageFile;
+        this.encodedFace = builder.encodedFace;
+        this.changes = builder.changes;
+        this.records = builder.records;
+        this.attemptLatencies = builder.attemptLatencies;
+    }
 
     public boolean isSuccess() { return success; }
     public String getUserId() { return userId; }
     public String getError() { return error; }
+
+    /**
+     * @return Kind of failure, null on success
+     */
+    public ErrorCode getErrorCode() { return errorCode; }
+
+    /**
+     * @return Status of the error response for {@link ErrorCode#HTTP}, otherwise 0
+     */
+    public int getHttpStatus() { return httpStatus; }
+
+    /**
+     * @return true if the write was stored in the outbox and will be sent later, see
+     *         FaceRecognitionClient.Config.Builder#setWriteBehind
+     */
+    public boolean isQueued() { return queued; }
     public float getConfidence() { return confidence; }
 
     public List<ApiResponse> getUsers() { return users; }
     public String getFaceData() { return faceData; }
+    public Bitmap getImage() { return image; }
+    public File getImageFile() { return imageFile; }
+    public EncodedFace getEncodedFace() { return encodedFace; }
+    public UserChangeSet getChanges() { return changes; }
+
+    /**
+     * @return Users read from the local directory, see FaceRecognitionService#searchUsers
+     */
+    public List<UserRecord> getRecords() { return records; }
+
+    /**
+     * @return Number of HTTP attempts made, 0 if the result was served without a call
+     */
+    public int getAttempts() { return attemptLatencies.size(); }
+
+    /**
+     * @return Latency in milliseconds of each HTTP attempt, in order
+     */
+    public List<Long> getAttemptLatencies() { return attemptLatencies; }
 
     public static class Builder {
         private boolean success;
         private String userId;
         private String error;
+        private ErrorCode errorCode;
+        private int httpStatus;
+        private boolean queued;
         private float confidence;
         private List<ApiResponse> users;
         private String faceData;
+        private Bitmap image;
+        private File imageFile;
+        private EncodedFace encodedFace;
+        private UserChangeSet changes;
+        private List<UserRecord> records;
+        private List<Long> attemptLatencies = Collections.emptyList();
+
+        public Builder() {
+        }
+
+        /**
+         * Start from a copy of a result
+         */
+        public Builder(FaceRecognitionResult result) {
+            this.success = result.success;
+            this.userId = result.userId;
+            this.error = result.error;
+            this.errorCode = result.errorCode;
+            this.httpStatus = result.httpStatus;
+            this.queued = result.queued;
+            this.confidence = result.confidence;
+            this.users = result.users;
+            this.faceData = result.faceData;
+            this.image = result.image;
+            this.imageFile = result.imageFile;
+            this.encodedFace = result.encodedFace;
+            this.changes = result.changes;
+            this.records = result.records;
+            this.attemptLatencies = result.attemptLatencies;
+        }
 
         public Builder setSuccess(boolean success) {
             this.success = success;
@@ -50,6 +159,37 @@ public class FaceRecognitionResult {
             return this;
         }
 
+        public Builder setImage(Bitmap image) {
+            this.image = image;
+            return this;
+        }
+
+        public Builder setImageFile(File imageFile) {
+            this.imageFile = imageFile;
+            return this;
+        }
+
+        public Builder setEncodedFace(EncodedFace encodedFace) {
+            this.encodedFace = encodedFace;
+            return this;
+        }
+
+        public Builder setChanges(UserChangeSet changes) {
+            this.changes = changes;
+            return this;
+        }
+
+        public Builder setAttemptLatencies(List<Long> attemptLatencies) {
+            this.attemptLatencies = attemptLatencies != null
+                    ? attemptLatencies : Collections.<Long>emptyList();
+            return this;
+        }
+
+        public Builder setRecords(List<UserRecord> records) {
+            this.records = records;
+            return this;
+        }
+
         public Builder setUserId(String userId) {
             this.userId = userId;
             return this;
@@ -60,6 +200,21 @@ public class FaceRecognitionResult {
             return this;
         }
 
+        public Builder setErrorCode(ErrorCode errorCode) {
+            this.errorCode = errorCode;
+            return this;
+        }
+
+        public Builder setHttpStatus(int httpStatus) {
+            this.httpStatus = httpStatus;
+            return this;
+        }
+
+        public Builder setQueued(boolean queued) {
+            this.queued = queued;
+            return this;
+        }
+
         public Builder setConfidence(float confidence) {
             this.confidence = confidence;
             return this;
@@ -72,7 +227,7 @@ public class FaceRecognitionResult {
         }
 
         public FaceRecognitionResult build() {
-            return new FaceRecognitionResult(success, userId, confidence, error, users, faceData);
+            return new FaceRecognitionResult(this);
         }
     }
 }
\ No newline at end of file
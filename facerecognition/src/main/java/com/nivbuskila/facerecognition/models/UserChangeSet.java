@@ -0,0 +1,40 @@
+package com.nivbuskila.facerecognition.models;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Difference between two states of the user directory.
+ */
+public final class UserChangeSet {
+    private final List<UserRecord> added;
+    private final List<UserRecord> updated;
+    private final List<String> removed;
+    private final boolean fullResync;
+
+    public UserChangeSet(List<UserRecord> added, List<UserRecord> updated, List<String> removed,
+                         boolean fullResync) {
+        this.added = Collections.unmodifiableList(added);
+        this.updated = Collections.unmodifiableList(updated);
+        this.removed = Collections.unmodifiableList(removed);
+        this.fullResync = fullResync;
+    }
+
+    public List<UserRecord> getAdded() { return added; }
+    public List<UserRecord> getUpdated() { return updated; }
+
+    /**
+     * @return User ids that no longer exist
+     */
+    public List<String> getRemoved() { return removed; }
+
+    /**
+     * @return true if the change set was computed from a full listing because there was no
+     *         valid cursor, rather than reported by the server
+     */
+    public boolean isFullResync() { return fullResync; }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+}
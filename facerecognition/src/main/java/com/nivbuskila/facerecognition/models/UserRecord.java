@@ -0,0 +1,37 @@
+package com.nivbuskila.facerecognition.models;
+
+import com.nivbuskila.facerecognition.network.ApiResponse;
+
+/**
+ * Entry of the local user directory: the listing fields of a user, without the face image.
+ */
+public final class UserRecord {
+    private final String userId;
+    private final String id;
+    private final String createdAt;
+
+    public UserRecord(String userId, String id, String createdAt) {
+        this.userId = userId;
+        this.id = id;
+        this.createdAt = createdAt;
+    }
+
+    public static UserRecord from(ApiResponse response) {
+        return new UserRecord(response.getUserId(), response.getId(), response.getCreatedAt());
+    }
+
+    public String getUserId() { return userId; }
+    public String getId() { return id; }
+    public String getCreatedAt() { return createdAt; }
+
+    /**
+     * @return true if the listing fields differ, i.e. the user was updated
+     */
+    public boolean differsFrom(UserRecord other) {
+        return !equal(id, other.id) || !equal(createdAt, other.createdAt);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -1,19 +1,25 @@
 package com.nivbuskila.facerecognition.network;
 
-import com.nivbuskila.facerecognition.FaceRecognition;
 import com.nivbuskila.facerecognition.auth.AuthRequest;
 import com.nivbuskila.facerecognition.auth.AuthResponse;
 
 import java.util.List;
+
+import okhttp3.MultipartBody;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.DELETE;
 import retrofit2.http.GET;
 import retrofit2.http.Header;
 import retrofit2.http.Headers;
+import retrofit2.http.Multipart;
 import retrofit2.http.POST;
 import retrofit2.http.PUT;
+import retrofit2.http.Part;
 import retrofit2.http.Path;
+import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 
 public interface ApiService {
     @POST("api/auth/login")
@@ -26,31 +32,92 @@ public interface ApiService {
     @GET("api/users")
     Call<List<ApiResponse>> getUsers(@Header("Authorization") String authHeader);
 
-    @POST("api/users")
-    Call<ApiResponse> registerUser(@Header("Authorization") String authHeader,
-                                   @Body RegisterRequest request);
+    /**
+     * One page of the user listing, left unparsed so it can be read element by element,
+     * see UserListing
+     */
+    @Streaming
+    @GET("api/users")
+    Call<ResponseBody> getUsersPage(@Header("Authorization") String authHeader,
+                                    @Query("limit") Integer limit,
+                                    @Query("cursor") String cursor);
 
+    /**
+     * Users added, updated or deleted since a sync cursor, see UserDirectorySync
+     */
+    @GET("api/users/changes")
+    Call<UserChangesResponse> getUserChanges(@Header("Authorization") String authHeader,
+                                             @Query("since") String cursor);
 
     @GET("api/users/{userId}/image")
     Call<ApiResponse> getUserImage(@Header("Authorization") String authHeader,
                                    @Path("userId") String userId);
 
+    /**
+     * Same resource as {@link #getUserImage}, left unparsed so faceData can be decoded
+     * incrementally by {@link FaceImageDecoder}
+     */
+    @Streaming
+    @GET("api/users/{userId}/image")
+    Call<ResponseBody> getUserImageStream(@Header("Authorization") String authHeader,
+                                          @Path("userId") String userId);
+
+    /**
+     * Writes take the Idempotency-Key to send with every attempt; with null
+     * {@link RetryInterceptor} generates one per call
+     */
+    @DELETE("api/users/{userId}")
+    Call<ApiResponse> deleteUser(@Header("Authorization") String authHeader,
+                                 @Header(RetryInterceptor.IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                                 @Path("userId") String userId);
+
+    // Binary variants of the image endpoints, see TransportMode.MULTIPART
+
+    @Multipart
+    @POST("api/users")
+    Call<ApiResponse> registerUserMultipart(@Header("Authorization") String authHeader,
+                                            @Header(RetryInterceptor.IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                                            @Part MultipartBody.Part userId,
+                                            @Part MultipartBody.Part faceData);
+
+    @Multipart
+    @POST("api/users/{userId}/verify")
+    Call<ApiResponse> verifyUserMultipart(@Header("Authorization") String authHeader,
+                                          @Path("userId") String userId,
+                                          @Part MultipartBody.Part faceData);
+
+    @Multipart
+    @POST("api/faces/compare")
+    Call<ApiResponse> compareFacesMultipart(@Header("Authorization") String authHeader,
+                                            @Part MultipartBody.Part faceData1,
+                                            @Part MultipartBody.Part faceData2);
+
+    @Multipart
+    @PUT("api/users/{userId}")
+    Call<ApiResponse> updateUserMultipart(@Header("Authorization") String authHeader,
+                                          @Header(RetryInterceptor.IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                                          @Path("userId") String userId,
+                                          @Part MultipartBody.Part faceData);
+
+    // Streaming JSON variants of the image endpoints, see StreamingJsonConverterFactory
+
+    @POST("api/users")
+    Call<ApiResponse> registerUser(@Header("Authorization") String authHeader,
+                                   @Header(RetryInterceptor.IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                                   @Body ImageRegisterRequest request);
+
     @POST("api/users/{userId}/verify")
     Call<ApiResponse> verifyUser(@Header("Authorization") String authHeader,
                                  @Path("userId") String userId,
-                                 @Body VerifyRequest request);
+                                 @Body ImageVerifyRequest request);
 
     @POST("api/faces/compare")
     Call<ApiResponse> compareFaces(@Header("Authorization") String authHeader,
-                                   @Body CompareRequest request);
-
-    @DELETE("api/users/{userId}")
-    Call<ApiResponse> deleteUser(@Header("Authorization") String authHeader,
-                                 @Path("userId") String userId);
-
+                                   @Body ImageCompareRequest request);
 
     @PUT("api/users/{userId}")
     Call<ApiResponse> updateUser(@Header("Authorization") String authHeader,
+                                 @Header(RetryInterceptor.IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
                                  @Path("userId") String userId,
-                                 @Body FaceRecognition.UpdateRequest request);
+                                 @Body ImageUpdateRequest request);
 }
\ No newline at end of file
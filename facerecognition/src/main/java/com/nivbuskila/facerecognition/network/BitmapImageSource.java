@@ -0,0 +1,58 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.graphics.Bitmap;
+
+import com.nivbuskila.facerecognition.image.EncodedFace;
+import com.nivbuskila.facerecognition.image.ImageEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link ImageSource} that encodes a Bitmap the first time it is written. The encoded bytes
+ * are kept, so a retried, hedged or re-sent request replays them instead of compressing the
+ * bitmap again.
+ */
+public class BitmapImageSource implements ImageSource {
+    private final Bitmap bitmap;
+    private final ImageEncoder encoder;
+    private volatile EncodedFace encoded;
+
+    public BitmapImageSource(Bitmap bitmap, ImageEncoder encoder) {
+        this.bitmap = bitmap;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public String getMimeType() {
+        return encoder.getMimeType();
+    }
+
+    /**
+     * @return Size of the encoded image once it has been written, -1 before
+     */
+    @Override
+    public long contentLength() {
+        EncodedFace face = encoded;
+        return face != null ? face.contentLength() : -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        encode().writeTo(out);
+    }
+
+    private EncodedFace encode() throws IOException {
+        EncodedFace face = encoded;
+        if (face == null) {
+            synchronized (this) {
+                face = encoded;
+                if (face == null) {
+                    face = EncodedFace.fromBitmap(bitmap, encoder);
+                    encoded = face;
+                }
+            }
+        }
+        return face;
+    }
+}
@@ -0,0 +1,164 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Circuit breaker for the backend. While closed, attempts pass and their outcomes are kept
+ * in a sliding window; when too many failed or were slow the breaker opens and attempts fail
+ * at once with {@link CircuitOpenException} instead of waiting for timeouts. After the open
+ * duration it is half-open: one attempt is let through as a probe, and its outcome closes
+ * the breaker or opens it again. Other attempts fail fast until the probe is back.
+ * <p>
+ * Cancelled attempts are not counted.
+ */
+public class CircuitBreakerInterceptor implements Interceptor {
+    private static final String TAG = "CircuitBreaker";
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final int SUCCESS = 0;
+    private static final int FAILURE = 1;
+    private static final int SLOW = 2;
+
+    private final CircuitBreakerPolicy policy;
+    private final int[] outcomes;
+    private int count;
+    private int next;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    public CircuitBreakerInterceptor(CircuitBreakerPolicy policy) {
+        this.policy = policy;
+        this.outcomes = new int[policy.getWindow()];
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        boolean probe = acquire();
+        long start = now();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                release(probe);
+            } else {
+                record(FAILURE, probe);
+            }
+            throw e;
+        }
+        long took = now() - start;
+        if (isServerFailure(response.code())) {
+            record(FAILURE, probe);
+        } else {
+            record(took >= policy.getSlowCallMillis() ? SLOW : SUCCESS, probe);
+        }
+        return response;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && remainingOpenMillis() <= 0) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * @return true if the attempt is the half-open probe
+     * @throws CircuitOpenException if the attempt may not be sent
+     */
+    private synchronized boolean acquire() throws CircuitOpenException {
+        if (state == State.OPEN) {
+            long remaining = remainingOpenMillis();
+            if (remaining > 0) {
+                throw new CircuitOpenException(remaining);
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                throw new CircuitOpenException(0);
+            }
+            probeInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void release(boolean probe) {
+        if (probe) {
+            probeInFlight = false;
+        }
+    }
+
+    private synchronized void record(int outcome, boolean probe) {
+        if (probe) {
+            probeInFlight = false;
+            if (outcome == FAILURE) {
+                open("probe failed");
+            } else {
+                Log.i(TAG, "Probe succeeded, closing");
+                state = State.CLOSED;
+                count = 0;
+                next = 0;
+            }
+            return;
+        }
+        if (state != State.CLOSED) {
+            // Started before the breaker opened
+            return;
+        }
+        outcomes[next] = outcome;
+        next = (next + 1) % outcomes.length;
+        count = Math.min(count + 1, outcomes.length);
+        if (count < policy.getMinCalls()) {
+            return;
+        }
+        int failures = 0;
+        int slow = 0;
+        for (int i = 0; i < count; i++) {
+            if (outcomes[i] == FAILURE) {
+                failures++;
+            } else if (outcomes[i] == SLOW) {
+                slow++;
+            }
+        }
+        if (failures >= policy.getFailureRateThreshold() * count) {
+            open(failures + " of " + count + " attempts failed");
+        } else if (slow >= policy.getSlowCallRateThreshold() * count) {
+            open(slow + " of " + count + " attempts were slow");
+        }
+    }
+
+    private void open(String reason) {
+        Log.w(TAG, "Opening for " + policy.getOpenMillis() + " ms: " + reason);
+        state = State.OPEN;
+        openedAt = now();
+        count = 0;
+        next = 0;
+    }
+
+    private long remainingOpenMillis() {
+        return openedAt + policy.getOpenMillis() - now();
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static boolean isServerFailure(int code) {
+        return code == 500 || code == 502 || code == 503 || code == 504;
+    }
+}
@@ -0,0 +1,83 @@
+package com.nivbuskila.facerecognition.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When {@link CircuitBreakerInterceptor} opens. The breaker looks at the outcome of the last
+ * {@code window} attempts and opens once at least {@code minCalls} of them were seen and the
+ * share of failures or of slow calls reaches its threshold.
+ */
+public final class CircuitBreakerPolicy {
+    private final int window;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long slowCallMillis;
+    private final double slowCallRateThreshold;
+    private final long openMillis;
+
+    private CircuitBreakerPolicy(Builder builder) {
+        this.window = builder.window;
+        this.minCalls = builder.minCalls;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallMillis = builder.slowCallMillis;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.openMillis = builder.openMillis;
+    }
+
+    public int getWindow() { return window; }
+    public int getMinCalls() { return minCalls; }
+    public double getFailureRateThreshold() { return failureRateThreshold; }
+    public long getSlowCallMillis() { return slowCallMillis; }
+    public double getSlowCallRateThreshold() { return slowCallRateThreshold; }
+    public long getOpenMillis() { return openMillis; }
+
+    public static class Builder {
+        private int window = 20;
+        private int minCalls = 10;
+        private double failureRateThreshold = 0.5;
+        private long slowCallMillis = TimeUnit.SECONDS.toMillis(10);
+        private double slowCallRateThreshold = 0.8;
+        private long openMillis = TimeUnit.SECONDS.toMillis(30);
+
+        /**
+         * Number of recent attempts looked at, and how many must have been seen before the
+         * breaker can open. Defaults to 20 and 10.
+         */
+        public Builder setWindow(int window, int minCalls) {
+            this.window = Math.max(1, window);
+            this.minCalls = Math.max(1, Math.min(minCalls, this.window));
+            return this;
+        }
+
+        /**
+         * Share of failed attempts (I/O errors, 500, 502, 503, 504) that opens the breaker.
+         * Defaults to 0.5.
+         */
+        public Builder setFailureRateThreshold(double rate) {
+            this.failureRateThreshold = rate;
+            return this;
+        }
+
+        /**
+         * Attempts slower than {@code duration} count as slow, and this share of slow
+         * attempts opens the breaker. Defaults to 10 s and 0.8.
+         */
+        public Builder setSlowCalls(long duration, TimeUnit unit, double rate) {
+            this.slowCallMillis = unit.toMillis(duration);
+            this.slowCallRateThreshold = rate;
+            return this;
+        }
+
+        /**
+         * How long the breaker stays open before it lets a probe through. Defaults to 30 s.
+         */
+        public Builder setOpenDuration(long duration, TimeUnit unit) {
+            this.openMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public CircuitBreakerPolicy build() {
+            return new CircuitBreakerPolicy(this);
+        }
+    }
+}
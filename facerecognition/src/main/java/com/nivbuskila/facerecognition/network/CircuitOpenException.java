@@ -0,0 +1,22 @@
+package com.nivbuskila.facerecognition.network;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a call while the {@link CircuitBreakerInterceptor} is open.
+ */
+public class CircuitOpenException extends IOException {
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(long retryAfterMillis) {
+        super("Service unavailable, retry in " + Math.max(1, (retryAfterMillis + 999) / 1000) + " s");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return Time until the breaker lets a probe call through
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
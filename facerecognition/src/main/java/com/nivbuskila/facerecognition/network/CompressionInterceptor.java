@@ -0,0 +1,104 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Gzips JSON request bodies of the endpoints enabled in
+ * {@link FaceRecognitionClient.Config.Builder#setRequestCompression(Endpoint, boolean)}.
+ * Base64 image data shrinks by about a quarter. Bodies of unknown length (the streamed image
+ * requests) are always compressed, others only from the configured threshold on. If the
+ * server answers 415, the request is sent again uncompressed and the endpoint is no longer
+ * compressed.
+ * <p>
+ * Responses need nothing here: OkHttp already sends {@code Accept-Encoding: gzip} and
+ * decompresses transparently as long as the request does not set that header itself.
+ */
+public class CompressionInterceptor implements Interceptor {
+    private static final String TAG = "CompressionInterceptor";
+
+    private final FaceRecognitionClient.Config config;
+    private final Set<Endpoint> rejected = Collections.synchronizedSet(EnumSet.noneOf(Endpoint.class));
+
+    public CompressionInterceptor(FaceRecognitionClient.Config config) {
+        this.config = config;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Endpoint endpoint = Endpoint.of(request);
+        if (endpoint == null || !shouldCompress(endpoint, request)) {
+            return chain.proceed(request);
+        }
+
+        Request compressed = request.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(request.method(), new GzipRequestBody(request.body()))
+                .build();
+        Response response = chain.proceed(compressed);
+        if (response.code() != 415) {
+            return response;
+        }
+        response.close();
+        if (rejected.add(endpoint)) {
+            Log.w(TAG, "Compressed body rejected for " + endpoint + ", sending uncompressed");
+        }
+        return chain.proceed(request);
+    }
+
+    private boolean shouldCompress(Endpoint endpoint, Request request) throws IOException {
+        RequestBody body = request.body();
+        if (body == null || !config.isRequestCompressionEnabled(endpoint)
+                || rejected.contains(endpoint)
+                || request.header("Content-Encoding") != null) {
+            return false;
+        }
+        MediaType type = body.contentType();
+        if (type == null || !"json".equals(type.subtype())) {
+            // Multipart parts are already compressed JPEG or WebP
+            return false;
+        }
+        long length = body.contentLength();
+        return length == -1 || length >= config.getCompressionThreshold();
+    }
+
+    private static class GzipRequestBody extends RequestBody {
+        private final RequestBody body;
+
+        GzipRequestBody(RequestBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return body.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+            body.writeTo(gzipSink);
+            // Closing writes the gzip trailer; OkHttp tolerates its sink being closed here
+            gzipSink.close();
+        }
+    }
+}
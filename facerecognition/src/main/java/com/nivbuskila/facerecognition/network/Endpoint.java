@@ -0,0 +1,48 @@
+package com.nivbuskila.facerecognition.network;
+
+import okhttp3.Request;
+import retrofit2.Invocation;
+
+/**
+ * Endpoints of {@link ApiService}, used to configure transport behaviour per call.
+ */
+public enum Endpoint {
+    LOGIN,
+    GET_USERS,
+    REGISTER,
+    GET_USER_IMAGE,
+    VERIFY,
+    COMPARE,
+    UPDATE,
+    DELETE;
+
+    /**
+     * Endpoint of a request made through {@link ApiService}, from the method Retrofit
+     * tags it with; null for requests made some other way
+     */
+    public static Endpoint of(Request request) {
+        Invocation invocation = request.tag(Invocation.class);
+        if (invocation == null) {
+            return null;
+        }
+        String method = invocation.method().getName();
+        if (method.equals("login")) {
+            return LOGIN;
+        } else if (method.startsWith("getUsers") || method.equals("getUserChanges")) {
+            return GET_USERS;
+        } else if (method.startsWith("registerUser")) {
+            return REGISTER;
+        } else if (method.startsWith("getUserImage")) {
+            return GET_USER_IMAGE;
+        } else if (method.startsWith("verifyUser")) {
+            return VERIFY;
+        } else if (method.startsWith("compareFaces")) {
+            return COMPARE;
+        } else if (method.startsWith("updateUser")) {
+            return UPDATE;
+        } else if (method.equals("deleteUser")) {
+            return DELETE;
+        }
+        return null;
+    }
+}
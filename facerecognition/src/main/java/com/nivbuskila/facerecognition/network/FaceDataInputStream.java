@@ -0,0 +1,260 @@
+package com.nivbuskila.facerecognition.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a JSON response and exposes the characters of its top-level {@code faceData} string,
+ * without the {@code data:...;base64,} prefix, as a stream. The body is read a block at a time
+ * and at most one block past the value is consumed, so the base64 text is never held in
+ * memory as a whole. Wrap in {@link android.util.Base64InputStream} to get the image bytes.
+ */
+public class FaceDataInputStream extends InputStream {
+    private static final String FIELD_NAME = "faceData";
+    private static final int MAX_KEY_LENGTH = 64;
+    private static final int MAX_PREFIX_LENGTH = 256;
+    private static final int BLOCK_SIZE = 8192;
+
+    private final InputStream in;
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private int blockPos;
+    private int blockLength;
+    private boolean started;
+    private boolean finished;
+    private byte[] pending;
+    private int pendingPos;
+    private int pendingLength;
+
+    /**
+     * @param in JSON response body, ideally buffered
+     */
+    public FaceDataInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        start();
+        if (pendingPos < pendingLength) {
+            return pending[pendingPos++] & 0xff;
+        }
+        return nextValueChar();
+    }
+
+    /**
+     * Copies runs of plain base64 characters straight out of the current block; only
+     * escapes, whitespace and the closing quote go through {@link #nextValueChar()}.
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        start();
+        int count = Math.min(length, pendingLength - pendingPos);
+        System.arraycopy(pending, pendingPos, buffer, offset, count);
+        pendingPos += count;
+        while (count < length && !finished) {
+            if (blockPos == blockLength) {
+                fill();
+            }
+            while (count < length && blockPos < blockLength) {
+                byte c = block[blockPos];
+                if (c == '"' || c == '\\' || isWhitespace(c)) {
+                    break;
+                }
+                buffer[offset + count++] = c;
+                blockPos++;
+            }
+            if (count < length && blockPos < blockLength) {
+                int c = nextValueChar();
+                if (c == -1) {
+                    break;
+                }
+                buffer[offset + count++] = (byte) c;
+            }
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void start() throws IOException {
+        if (!started) {
+            started = true;
+            seekValue();
+            skipDataUrlPrefix();
+        }
+    }
+
+    /**
+     * Position the stream right after the opening quote of the faceData value
+     */
+    private void seekValue() throws IOException {
+        int depth = 0;
+        boolean expectKey = false;
+        while (true) {
+            int c = readRequired();
+            switch (c) {
+                case '{':
+                case '[':
+                    depth++;
+                    expectKey = c == '{' && depth == 1;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    expectKey = false;
+                    break;
+                case ',':
+                    expectKey = depth == 1;
+                    break;
+                case '"':
+                    if (expectKey) {
+                        expectKey = false;
+                        if (FIELD_NAME.equals(readKey())) {
+                            openStringValue();
+                            return;
+                        }
+                    } else {
+                        skipString();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private String readKey() throws IOException {
+        StringBuilder key = new StringBuilder();
+        while (true) {
+            int c = readRequired();
+            if (c == '"') {
+                return key.toString();
+            }
+            if (c == '\\') {
+                c = readRequired();
+            }
+            if (key.length() < MAX_KEY_LENGTH) {
+                key.append((char) c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = readRequired();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                readRequired();
+            }
+        }
+    }
+
+    /**
+     * Consume the separator after the faceData key and the opening quote of its value.
+     * @throws IOException if the value is null or not a string
+     */
+    private void openStringValue() throws IOException {
+        int c = skipWhitespace();
+        if (c != ':') {
+            throw new IOException("Malformed JSON: expected ':' after key");
+        }
+        c = skipWhitespace();
+        if (c == '"') {
+            return;
+        }
+        if (c == 'n') {
+            throw new IOException("Response has no faceData");
+        }
+        throw new IOException("faceData is not a string");
+    }
+
+    /**
+     * Drop a leading data URL prefix; base64 never contains ',' so the first comma ends it.
+     * Characters read while looking for it are replayed if there is no prefix.
+     */
+    private void skipDataUrlPrefix() throws IOException {
+        byte[] buffer = new byte[MAX_PREFIX_LENGTH];
+        int length = 0;
+        while (length < buffer.length) {
+            int c = nextValueChar();
+            if (c == -1) {
+                break;
+            }
+            if (c == ',') {
+                length = 0;
+                break;
+            }
+            buffer[length++] = (byte) c;
+        }
+        pending = buffer;
+        pendingPos = 0;
+        pendingLength = length;
+    }
+
+    private int nextValueChar() throws IOException {
+        while (!finished) {
+            int c = readRequired();
+            if (c == '"') {
+                finished = true;
+                return -1;
+            }
+            if (c == '\\') {
+                c = readRequired();
+                if (c == 'u') {
+                    // No escaped code points in base64, skip
+                    for (int i = 0; i < 4; i++) {
+                        readRequired();
+                    }
+                    continue;
+                }
+                if (c == 'n' || c == 'r' || c == 't') {
+                    continue;
+                }
+            }
+            if (isWhitespace(c)) {
+                continue;
+            }
+            return c;
+        }
+        return -1;
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        do {
+            c = readRequired();
+        } while (isWhitespace(c));
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int readRequired() throws IOException {
+        if (blockPos == blockLength) {
+            fill();
+        }
+        return block[blockPos++] & 0xff;
+    }
+
+    private void fill() throws IOException {
+        int count;
+        do {
+            count = in.read(block, 0, block.length);
+        } while (count == 0);
+        if (count == -1) {
+            throw new IOException("Unexpected end of response while reading faceData");
+        }
+        blockPos = 0;
+        blockLength = count;
+    }
+}
@@ -0,0 +1,477 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.ResponseBody;
+
+/**
+ * Two-tier cache of user face images. The memory tier holds decoded bitmaps per user and
+ * requested size, bounded by their allocation size. The disk tier holds the encoded image
+ * bytes per user, bounded by file size, with an index that keeps the LRU order across
+ * restarts. Both tiers evict least recently used entries first.
+ * <p>
+ * The index is rewritten when entries are added or removed; recency changes from hits are
+ * saved with the next such write.
+ * <p>
+ * {@link #invalidate} and {@link #clear} only evict from memory on the calling thread, which
+ * may be the main thread. The disk tier drops the entries on the executor, and every disk
+ * lookup or store applies pending removals first, so an invalidated image is never served.
+ */
+public class FaceImageCache {
+    private static final String TAG = "FaceImageCache";
+    private static final String INDEX_FILE = "index";
+    private static final String ENTRY_SUFFIX = ".img";
+
+    private final LruCache<String, Bitmap> memory;
+    private final File directory;
+    private final long maxDiskBytes;
+    private final Executor diskExecutor;
+    // Access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes;
+    private boolean loaded;
+    // Bumped by every invalidation. A load remembers the value it started at and does not
+    // store its image if its user, or the whole cache, was invalidated since.
+    private long generation;
+    private long clearedGeneration;
+    // Generation of the last invalidation per disk key, kept while any load is in flight
+    private final Map<String, Long> invalidations = new HashMap<>();
+    private int loadsInFlight;
+    // Invalidations not yet applied to the disk tier
+    private final Set<String> pendingRemovals = new HashSet<>();
+    private boolean pendingClear;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    /**
+     * @param directory Directory of the disk tier, used by this cache only
+     * @param maxMemoryBytes Budget of decoded bitmaps; 0 disables the memory tier
+     * @param maxDiskBytes Budget of encoded images on disk; 0 disables the disk tier
+     * @param diskExecutor Executor that applies invalidations to the disk tier
+     */
+    public FaceImageCache(File directory, long maxMemoryBytes, long maxDiskBytes,
+                          Executor diskExecutor) {
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.diskExecutor = diskExecutor;
+        this.memory = maxMemoryBytes > 0
+                ? new LruCache<String, Bitmap>((int) Math.min(maxMemoryBytes, Integer.MAX_VALUE)) {
+                    @Override
+                    protected int sizeOf(String key, Bitmap value) {
+                        return value.getAllocationByteCount();
+                    }
+                }
+                : null;
+    }
+
+    /**
+     * Memory tier lookup, cheap enough for the main thread
+     * @return The bitmap decoded for this size, or null
+     */
+    public Bitmap getBitmap(String userId, int reqWidth, int reqHeight) {
+        Bitmap bitmap = memory != null ? memory.get(memoryKey(userId, reqWidth, reqHeight)) : null;
+        if (bitmap != null) {
+            memoryHits.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Disk tier lookup, decoding the image for the requested size and adding it to the
+     * memory tier. Counts a miss if the image is in neither tier.
+     * @return The decoded bitmap, or null
+     */
+    public Bitmap loadBitmap(String userId, int reqWidth, int reqHeight) {
+        String key = diskKey(userId);
+        File file;
+        long startGeneration;
+        synchronized (this) {
+            ensureLoaded();
+            removePending();
+            file = diskEntries.get(key) != null ? entryFile(key) : null;
+            startGeneration = beginLoad();
+        }
+        try {
+            if (file == null || !file.exists()) {
+                misses.incrementAndGet();
+                return null;
+            }
+            Bitmap bitmap;
+            try {
+                bitmap = decode(file, reqWidth, reqHeight);
+            } catch (IOException e) {
+                // Evicted by a concurrent put
+                misses.incrementAndGet();
+                return null;
+            }
+            diskHits.incrementAndGet();
+            putBitmap(userId, key, reqWidth, reqHeight, bitmap, startGeneration);
+            return bitmap;
+        } finally {
+            endLoad();
+        }
+    }
+
+    /**
+     * Store the image of a streamed response in both tiers
+     * @return The image decoded for the requested size
+     */
+    public Bitmap put(String userId, ResponseBody body, int reqWidth, int reqHeight)
+            throws IOException {
+        String key = diskKey(userId);
+        long startGeneration;
+        File temp = null;
+        synchronized (this) {
+            ensureLoaded();
+            removePending();
+            if (maxDiskBytes > 0) {
+                temp = File.createTempFile(key, ".tmp", directory);
+            }
+            startGeneration = beginLoad();
+        }
+        try {
+            if (temp == null) {
+                Bitmap bitmap = FaceImageDecoder.decodeBitmap(body, reqWidth, reqHeight, directory);
+                putBitmap(userId, key, reqWidth, reqHeight, bitmap, startGeneration);
+                return bitmap;
+            }
+
+            Bitmap bitmap;
+            long size;
+            try {
+                size = writeImage(body, temp);
+                bitmap = decode(temp, reqWidth, reqHeight);
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            }
+            synchronized (this) {
+                if (isInvalidated(key, startGeneration)) {
+                    temp.delete();
+                    return bitmap;
+                }
+                removePending();
+                File file = entryFile(key);
+                removeEntry(key);
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                    return bitmap;
+                }
+                diskEntries.put(key, size);
+                diskBytes += size;
+                trimDisk();
+                writeIndex();
+            }
+            putBitmap(userId, key, reqWidth, reqHeight, bitmap, startGeneration);
+            return bitmap;
+        } finally {
+            endLoad();
+        }
+    }
+
+    /**
+     * Write the image bytes of a response to a file; overridden in JVM tests, where the
+     * platform base64 decoder is a stub
+     * @return Number of bytes written
+     */
+    long writeImage(ResponseBody body, File file) throws IOException {
+        return FaceImageDecoder.writeToFile(body, file);
+    }
+
+    /**
+     * Decode a cached image file; overridden in JVM tests, where BitmapFactory is a stub
+     */
+    Bitmap decode(File file, int reqWidth, int reqHeight) throws IOException {
+        return FaceImageDecoder.decodeSampled(file, reqWidth, reqHeight);
+    }
+
+    /**
+     * Add to the memory tier unless the user was invalidated since the image was fetched
+     */
+    private void putBitmap(String userId, String key, int reqWidth, int reqHeight, Bitmap bitmap,
+                           long startGeneration) {
+        if (memory == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!isInvalidated(key, startGeneration)) {
+                memory.put(memoryKey(userId, reqWidth, reqHeight), bitmap);
+            }
+        }
+    }
+
+    /**
+     * @return Generation a load starts at
+     */
+    private long beginLoad() {
+        loadsInFlight++;
+        return generation;
+    }
+
+    private synchronized void endLoad() {
+        if (--loadsInFlight == 0) {
+            invalidations.clear();
+        }
+    }
+
+    /**
+     * Whether the cache was cleared or the key invalidated after a load started
+     */
+    private boolean isInvalidated(String key, long startGeneration) {
+        if (clearedGeneration > startGeneration) {
+            return true;
+        }
+        Long invalidated = invalidations.get(key);
+        return invalidated != null && invalidated > startGeneration;
+    }
+
+    /**
+     * Drop every cached image of a user, e.g. after it was updated or deleted. The disk
+     * tier is updated in the background.
+     */
+    public void invalidate(String userId) {
+        String diskKey = diskKey(userId);
+        synchronized (this) {
+            generation++;
+            if (loadsInFlight > 0) {
+                invalidations.put(diskKey, generation);
+            }
+            if (memory != null) {
+                String prefix = userId + '\n';
+                for (String key : memory.snapshot().keySet()) {
+                    if (key.startsWith(prefix)) {
+                        memory.remove(key);
+                    }
+                }
+            }
+            pendingRemovals.add(diskKey);
+        }
+        diskExecutor.execute(this::applyPendingRemovals);
+    }
+
+    /**
+     * Drop every cached image. The disk tier is emptied in the background.
+     */
+    public void clear() {
+        synchronized (this) {
+            generation++;
+            clearedGeneration = generation;
+            invalidations.clear();
+            if (memory != null) {
+                memory.evictAll();
+            }
+            pendingClear = true;
+            pendingRemovals.clear();
+        }
+        diskExecutor.execute(this::applyPendingRemovals);
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(memoryHits.get(), diskHits.get(), misses.get(),
+                memory != null ? memory.evictionCount() : 0, diskEvictions.get(),
+                memory != null ? memory.size() : 0, diskBytes);
+    }
+
+    private synchronized void applyPendingRemovals() {
+        ensureLoaded();
+        removePending();
+    }
+
+    /**
+     * Apply invalidations to the disk tier; the index must be loaded
+     */
+    private void removePending() {
+        if (pendingClear) {
+            for (String key : diskEntries.keySet()) {
+                entryFile(key).delete();
+            }
+            diskEntries.clear();
+            diskBytes = 0;
+        } else if (pendingRemovals.isEmpty()) {
+            return;
+        }
+        boolean removed = pendingClear;
+        for (String key : pendingRemovals) {
+            removed |= removeEntry(key);
+        }
+        pendingClear = false;
+        pendingRemovals.clear();
+        if (removed) {
+            writeIndex();
+        }
+    }
+
+    private void trimDisk() {
+        Iterator<Map.Entry<String, Long>> iterator = diskEntries.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            entryFile(eldest.getKey()).delete();
+            diskBytes -= eldest.getValue();
+            iterator.remove();
+            diskEvictions.incrementAndGet();
+        }
+    }
+
+    private boolean removeEntry(String key) {
+        Long size = diskEntries.remove(key);
+        entryFile(key).delete();
+        if (size == null) {
+            return false;
+        }
+        diskBytes -= size;
+        return true;
+    }
+
+    /**
+     * Read the index once; entries whose file is missing or has another size are dropped,
+     * and files that are not in the index are deleted
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create cache directory " + directory);
+            return;
+        }
+        File index = new File(directory, INDEX_FILE);
+        if (index.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(index))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if (space <= 0) {
+                        continue;
+                    }
+                    String key = line.substring(0, space);
+                    long size = Long.parseLong(line.substring(space + 1));
+                    if (entryFile(key).length() == size) {
+                        diskEntries.put(key, size);
+                        diskBytes += size;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                Log.w(TAG, "Discarding unreadable cache index", e);
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                String key = name.endsWith(ENTRY_SUFFIX)
+                        ? name.substring(0, name.length() - ENTRY_SUFFIX.length())
+                        : null;
+                if (!name.equals(INDEX_FILE) && (key == null || !diskEntries.containsKey(key))) {
+                    file.delete();
+                }
+            }
+        }
+        trimDisk();
+    }
+
+    private void writeIndex() {
+        File index = new File(directory, INDEX_FILE);
+        File temp = new File(directory, INDEX_FILE + ".tmp");
+        try (Writer writer = new FileWriter(temp)) {
+            for (Map.Entry<String, Long> entry : diskEntries.entrySet()) {
+                writer.write(entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write cache index", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(index)) {
+            temp.delete();
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(directory, key + ENTRY_SUFFIX);
+    }
+
+    private static String memoryKey(String userId, int reqWidth, int reqHeight) {
+        return userId + '\n' + reqWidth + 'x' + reqHeight;
+    }
+
+    /**
+     * File-name-safe key of a user id
+     */
+    private static String diskKey(String userId) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(userId.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Counters since the cache was created
+     */
+    public static class Stats {
+        private final long memoryHits;
+        private final long diskHits;
+        private final long misses;
+        private final long memoryEvictions;
+        private final long diskEvictions;
+        private final long memoryBytes;
+        private final long diskBytes;
+
+        Stats(long memoryHits, long diskHits, long misses, long memoryEvictions,
+              long diskEvictions, long memoryBytes, long diskBytes) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.misses = misses;
+            this.memoryEvictions = memoryEvictions;
+            this.diskEvictions = diskEvictions;
+            this.memoryBytes = memoryBytes;
+            this.diskBytes = diskBytes;
+        }
+
+        public long getMemoryHits() { return memoryHits; }
+        public long getDiskHits() { return diskHits; }
+        public long getMisses() { return misses; }
+        public long getMemoryEvictions() { return memoryEvictions; }
+        public long getDiskEvictions() { return diskEvictions; }
+        public long getMemoryBytes() { return memoryBytes; }
+        public long getDiskBytes() { return diskBytes; }
+
+        @Override
+        public String toString() {
+            return "memoryHits=" + memoryHits + ", diskHits=" + diskHits + ", misses=" + misses
+                    + ", memoryEvictions=" + memoryEvictions + ", diskEvictions=" + diskEvictions
+                    + ", memoryBytes=" + memoryBytes + ", diskBytes=" + diskBytes;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+import android.util.Base64InputStream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import okhttp3.ResponseBody;
+
+/**
+ * Decodes the faceData of a streamed image response without materializing the base64 string.
+ */
+public final class FaceImageDecoder {
+    private static final int BUFFER_SIZE = 8192;
+
+    private FaceImageDecoder() {}
+
+    /**
+     * @return Stream of the raw image bytes carried by the response's faceData field
+     */
+    public static InputStream openImageStream(ResponseBody body) {
+        return new Base64InputStream(new FaceDataInputStream(body.byteStream()), Base64.DEFAULT);
+    }
+
+    /**
+     * Write the image of a response to a file, replacing it atomically
+     * @return Number of image bytes written
+     */
+    public static long writeToFile(ResponseBody body, File destination) throws IOException {
+        File temp = new File(destination.getPath() + ".tmp");
+        long total = 0;
+        try (InputStream in = openImageStream(body);
+             OutputStream out = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(destination)) {
+            temp.delete();
+            throw new IOException("Failed to move image to " + destination);
+        }
+        return total;
+    }
+
+    /**
+     * Decode the image of a response, downsampled to at least the requested size.
+     * A non-positive size decodes at full resolution straight from the stream; otherwise
+     * the image is spooled to a temporary file in cacheDir so its bounds can be read first.
+     */
+    public static Bitmap decodeBitmap(ResponseBody body, int reqWidth, int reqHeight,
+                                      File cacheDir) throws IOException {
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            try (InputStream in = openImageStream(body)) {
+                return requireBitmap(BitmapFactory.decodeStream(in));
+            }
+        }
+        File temp = File.createTempFile("face", ".img", cacheDir);
+        try {
+            writeToFile(body, temp);
+            return decodeSampled(temp, reqWidth, reqHeight);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    public static Bitmap decodeSampled(File file, int reqWidth, int reqHeight) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (reqWidth > 0 && reqHeight > 0) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getPath(), options);
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                    reqWidth, reqHeight);
+            options.inJustDecodeBounds = false;
+        }
+        return requireBitmap(BitmapFactory.decodeFile(file.getPath(), options));
+    }
+
+    /**
+     * Largest power of two that keeps both dimensions at or above the requested size
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static Bitmap requireBitmap(Bitmap bitmap) throws IOException {
+        if (bitmap == null) {
+            throw new IOException("Failed to decode image");
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,713 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.nivbuskila.facerecognition.directory.InMemoryUserDirectory;
+import com.nivbuskila.facerecognition.directory.SqliteUserDirectory;
+import com.nivbuskila.facerecognition.directory.UserDirectory;
+import com.nivbuskila.facerecognition.directory.UserDirectorySync;
+import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
+import com.nivbuskila.facerecognition.outbox.MutationOutbox;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * Process-wide transport shared by every {@link com.nivbuskila.facerecognition.FaceRecognition}
+ * instance. The OkHttp client, its connection pool and dispatcher, and the Retrofit
+ * {@link ApiService} proxy are built once, on first use, and reused afterwards.
+ */
+public class FaceRecognitionClient {
+    private static final String TAG = "FaceRecognitionClient";
+    public static final String DEFAULT_BASE_URL = "https://face-recognition-api-orcin.vercel.app/";
+
+    private static final Object LOCK = new Object();
+    private static volatile FaceRecognitionClient instance;
+    private static Config pendingConfig;
+
+    private final Context context;
+    private final Config config;
+    private volatile OkHttpClient httpClient;
+    private volatile RetryInterceptor retryInterceptor;
+    private volatile CircuitBreakerInterceptor circuitBreaker;
+    private volatile ApiService apiService;
+    private volatile ExecutorService executor;
+    private volatile FaceImageCache imageCache;
+    private volatile UserDirectorySync directorySync;
+    private volatile MutationOutbox outbox;
+    private final Executor mainThreadExecutor;
+    private final SingleFlight<FaceRecognitionResult> flights = new SingleFlight<>();
+    private final Set<Endpoint> multipartRejected =
+            Collections.synchronizedSet(EnumSet.noneOf(Endpoint.class));
+
+    public FaceRecognitionClient(Context context, Config config) {
+        this.context = context.getApplicationContext();
+        this.config = config;
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        this.mainThreadExecutor = mainHandler::post;
+    }
+
+    /**
+     * Set the configuration used when the shared client is first created.
+     * Must be called before the first {@link #getInstance(Context)}.
+     * @param config Transport configuration
+     */
+    public static void configure(Config config) {
+        synchronized (LOCK) {
+            if (instance != null) {
+                throw new IllegalStateException("FaceRecognitionClient is already initialized");
+            }
+            pendingConfig = config;
+        }
+    }
+
+    /**
+     * Get the shared client, creating it lazily on first call
+     * @param context Any context, only the application context is kept
+     * @return The process-wide client
+     */
+    public static FaceRecognitionClient getInstance(Context context) {
+        FaceRecognitionClient client = instance;
+        if (client == null) {
+            synchronized (LOCK) {
+                client = instance;
+                if (client == null) {
+                    Config config = pendingConfig != null ? pendingConfig : new Config.Builder().build();
+                    client = new FaceRecognitionClient(context, config);
+                    instance = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public OkHttpClient getHttpClient() {
+        OkHttpClient client = httpClient;
+        if (client == null) {
+            synchronized (this) {
+                client = httpClient;
+                if (client == null) {
+                    client = buildHttpClient();
+                    httpClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * @return The HTTP response cache with its request, network and hit counts, or null
+     *         if it is not enabled
+     */
+    public Cache getHttpCache() {
+        return getHttpClient().cache();
+    }
+
+    public ApiService getApiService() {
+        ApiService service = apiService;
+        if (service == null) {
+            synchronized (this) {
+                service = apiService;
+                if (service == null) {
+                    Retrofit retrofit = new Retrofit.Builder()
+                            .baseUrl(config.baseUrl)
+                            .client(getHttpClient())
+                            .addConverterFactory(new StreamingJsonConverterFactory())
+                            .addConverterFactory(GsonConverterFactory.create())
+                            .build();
+                    service = retrofit.create(ApiService.class);
+                    apiService = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Effective transport mode for an endpoint: the configured mode, unless the server
+     * already rejected multipart uploads for it.
+     */
+    public TransportMode getTransportMode(Endpoint endpoint) {
+        TransportMode mode = config.getTransportMode(endpoint);
+        if (mode == TransportMode.MULTIPART && multipartRejected.contains(endpoint)) {
+            return TransportMode.JSON;
+        }
+        return mode;
+    }
+
+    /**
+     * Record that the server does not accept multipart uploads on an endpoint,
+     * so later calls go straight to the JSON fallback.
+     */
+    public void onMultipartRejected(Endpoint endpoint) {
+        if (multipartRejected.add(endpoint)) {
+            Log.w(TAG, "Multipart upload rejected for " + endpoint + ", falling back to JSON");
+        }
+    }
+
+    /**
+     * Bounded executor used for the preparation step of asynchronous calls
+     * (image encoding, request building). Network I/O runs on the OkHttp dispatcher.
+     */
+    public ExecutorService getExecutor() {
+        ExecutorService service = executor;
+        if (service == null) {
+            synchronized (this) {
+                service = executor;
+                if (service == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                            config.executorThreads, config.executorThreads,
+                            30, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(),
+                            new SdkThreadFactory());
+                    pool.allowCoreThreadTimeOut(true);
+                    service = pool;
+                    executor = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Cache of downloaded user images, shared by all instances
+     */
+    public FaceImageCache getImageCache() {
+        FaceImageCache cache = imageCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = imageCache;
+                if (cache == null) {
+                    cache = new FaceImageCache(new File(context.getCacheDir(), "face-images"),
+                            config.memoryCacheBytes, config.diskCacheBytes, getExecutor());
+                    imageCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Local mirror of the user directory and its sync state, shared by all instances
+     */
+    public UserDirectorySync getDirectorySync() {
+        UserDirectorySync sync = directorySync;
+        if (sync == null) {
+            synchronized (this) {
+                sync = directorySync;
+                if (sync == null) {
+                    UserDirectory directory = config.persistentUserDirectory
+                            ? new SqliteUserDirectory(context)
+                            : new InMemoryUserDirectory();
+                    sync = new UserDirectorySync(getApiService(), directory);
+                    directorySync = sync;
+                }
+            }
+        }
+        return sync;
+    }
+
+    /**
+     * Writes stored for later while write-behind is on, shared by all instances
+     * @return The outbox, or null if write-behind is off
+     */
+    public MutationOutbox getOutbox() {
+        if (!config.writeBehind) {
+            return null;
+        }
+        MutationOutbox queue = outbox;
+        if (queue == null) {
+            synchronized (this) {
+                queue = outbox;
+                if (queue == null) {
+                    queue = new MutationOutbox(new File(context.getFilesDir(), "face-recognition-outbox"),
+                            config.outboxBatchSize, getExecutor());
+                    outbox = queue;
+                }
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * @return Latency in milliseconds of each attempt of the call that sent this request
+     * @see RetryInterceptor#getAttemptLatencies(Request)
+     */
+    public List<Long> getAttemptLatencies(Request request) {
+        getHttpClient();
+        return retryInterceptor.getAttemptLatencies(request);
+    }
+
+    /**
+     * @return State of the backend circuit breaker; always CLOSED if it is disabled
+     */
+    public CircuitBreakerInterceptor.State getCircuitState() {
+        getHttpClient();
+        CircuitBreakerInterceptor breaker = circuitBreaker;
+        return breaker != null ? breaker.getState() : CircuitBreakerInterceptor.State.CLOSED;
+    }
+
+    /**
+     * In-flight reads shared by all instances, so identical concurrent reads make one call
+     */
+    public SingleFlight<FaceRecognitionResult> getFlights() {
+        return flights;
+    }
+
+    /**
+     * Executor on which asynchronous results are delivered by default
+     */
+    public Executor getMainThreadExecutor() {
+        return mainThreadExecutor;
+    }
+
+    private OkHttpClient buildHttpClient() {
+        Log.d(TAG, "Creating shared HTTP client for " + config.baseUrl);
+
+        // Setup logging
+        HttpLogLevel logLevel = config.logLevel != null ? config.logLevel : defaultLogLevel();
+        HttpLogger loggingInterceptor = new HttpLogger(logLevel, config.maxLoggedBodyBytes);
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.maxRequests);
+        dispatcher.setMaxRequestsPerHost(config.maxRequestsPerHost);
+
+        retryInterceptor = new RetryInterceptor(config.retryPolicy);
+        if (config.circuitBreakerPolicy != null) {
+            circuitBreaker = new CircuitBreakerInterceptor(config.circuitBreakerPolicy);
+        }
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(config.maxIdleConnections,
+                        config.keepAliveMillis, TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                // Renews an expired token once for all the calls it rejected
+                .authenticator(new TokenAuthenticator(SessionManager.getInstance()));
+        if (config.hedgePolicy != null) {
+            // Outermost: each copy is a call of its own through the interceptors below
+            builder.addInterceptor(new HedgingInterceptor(config.hedgePolicy,
+                    request -> getHttpClient().newCall(request)));
+        }
+        builder
+                // First, so every attempt is logged and compressed on its own
+                .addInterceptor(retryInterceptor);
+        if (circuitBreaker != null) {
+            // Inside retries, so each attempt counts and an open breaker ends the retries
+            builder.addInterceptor(circuitBreaker);
+        }
+        builder
+                .addInterceptor(loggingInterceptor)
+                // After logging, so logged bodies are readable
+                .addInterceptor(new CompressionInterceptor(config))
+                .connectTimeout(config.connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(config.readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(config.writeTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (config.httpCacheBytes > 0) {
+            builder.cache(new Cache(new File(context.getCacheDir(), "face-recognition-http"),
+                            config.httpCacheBytes))
+                    .addNetworkInterceptor(new RevalidationInterceptor());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Summaries for debuggable apps, nothing for release builds
+     */
+    private HttpLogLevel defaultLogLevel() {
+        boolean debuggable = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        return debuggable ? HttpLogLevel.SUMMARY : HttpLogLevel.NONE;
+    }
+
+    private static class SdkThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FaceRecognition-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static class Config {
+        private final String baseUrl;
+        private final int maxIdleConnections;
+        private final long keepAliveMillis;
+        private final int maxRequests;
+        private final int maxRequestsPerHost;
+        private final long connectTimeoutMillis;
+        private final long readTimeoutMillis;
+        private final long writeTimeoutMillis;
+        private final int executorThreads;
+        private final Map<Endpoint, TransportMode> transportModes;
+        private final Set<Endpoint> requestCompression;
+        private final long compressionThreshold;
+        private final HttpLogLevel logLevel;
+        private final int maxLoggedBodyBytes;
+        private final long memoryCacheBytes;
+        private final long diskCacheBytes;
+        private final long httpCacheBytes;
+        private final boolean persistentUserDirectory;
+        private final RetryPolicy retryPolicy;
+        private final HedgePolicy hedgePolicy;
+        private final CircuitBreakerPolicy circuitBreakerPolicy;
+        private final boolean writeBehind;
+        private final int outboxBatchSize;
+        private final Map<Endpoint, Long> deadlines;
+
+        private Config(Builder builder) {
+            this.baseUrl = builder.baseUrl;
+            this.maxIdleConnections = builder.maxIdleConnections;
+            this.keepAliveMillis = builder.keepAliveMillis;
+            this.maxRequests = builder.maxRequests;
+            this.maxRequestsPerHost = builder.maxRequestsPerHost;
+            this.connectTimeoutMillis = builder.connectTimeoutMillis;
+            this.readTimeoutMillis = builder.readTimeoutMillis;
+            this.writeTimeoutMillis = builder.writeTimeoutMillis;
+            this.executorThreads = builder.executorThreads;
+            this.transportModes = new EnumMap<>(builder.transportModes);
+            this.requestCompression = builder.requestCompression.isEmpty()
+                    ? EnumSet.noneOf(Endpoint.class)
+                    : EnumSet.copyOf(builder.requestCompression);
+            this.compressionThreshold = builder.compressionThreshold;
+            this.logLevel = builder.logLevel;
+            this.maxLoggedBodyBytes = builder.maxLoggedBodyBytes;
+            this.memoryCacheBytes = builder.memoryCacheBytes;
+            this.diskCacheBytes = builder.diskCacheBytes;
+            this.httpCacheBytes = builder.httpCacheBytes;
+            this.persistentUserDirectory = builder.persistentUserDirectory;
+            this.retryPolicy = builder.retryPolicy;
+            this.hedgePolicy = builder.hedgePolicy;
+            this.circuitBreakerPolicy = builder.circuitBreakerPolicy;
+            this.writeBehind = builder.writeBehind;
+            this.outboxBatchSize = builder.outboxBatchSize;
+            this.deadlines = new EnumMap<>(builder.deadlines);
+        }
+
+        public String getBaseUrl() { return baseUrl; }
+        public int getMaxIdleConnections() { return maxIdleConnections; }
+        public long getKeepAliveMillis() { return keepAliveMillis; }
+        public int getMaxRequests() { return maxRequests; }
+        public int getMaxRequestsPerHost() { return maxRequestsPerHost; }
+        public int getExecutorThreads() { return executorThreads; }
+
+        public TransportMode getTransportMode(Endpoint endpoint) {
+            TransportMode mode = transportModes.get(endpoint);
+            return mode != null ? mode : TransportMode.JSON;
+        }
+
+        public boolean isRequestCompressionEnabled(Endpoint endpoint) {
+            return requestCompression.contains(endpoint);
+        }
+
+        public long getCompressionThreshold() { return compressionThreshold; }
+
+        /**
+         * @return The configured log level, or null to choose it from the app's debuggable flag
+         */
+        public HttpLogLevel getLogLevel() { return logLevel; }
+        public int getMaxLoggedBodyBytes() { return maxLoggedBodyBytes; }
+        public long getMemoryCacheBytes() { return memoryCacheBytes; }
+        public long getDiskCacheBytes() { return diskCacheBytes; }
+        public long getHttpCacheBytes() { return httpCacheBytes; }
+        public boolean isPersistentUserDirectory() { return persistentUserDirectory; }
+        public RetryPolicy getRetryPolicy() { return retryPolicy; }
+
+        /**
+         * @return The hedging policy, or null if hedging is off
+         */
+        public HedgePolicy getHedgePolicy() { return hedgePolicy; }
+
+        /**
+         * @return The circuit breaker policy, or null if the breaker is off
+         */
+        public CircuitBreakerPolicy getCircuitBreakerPolicy() { return circuitBreakerPolicy; }
+        public boolean isWriteBehind() { return writeBehind; }
+        public int getOutboxBatchSize() { return outboxBatchSize; }
+
+        /**
+         * @return Time a call of the endpoint has to complete, retries included, or 0 for
+         *         no deadline
+         */
+        public long getDeadlineMillis(Endpoint endpoint) {
+            Long deadline = deadlines.get(endpoint);
+            return deadline != null ? deadline : 0;
+        }
+
+        public static class Builder {
+            private String baseUrl = DEFAULT_BASE_URL;
+            private int maxIdleConnections = 5;
+            private long keepAliveMillis = TimeUnit.MINUTES.toMillis(5);
+            private int maxRequests = 64;
+            private int maxRequestsPerHost = 5;
+            private long connectTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+            private long readTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+            private long writeTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+            private int executorThreads = Math.max(2,
+                    Math.min(4, Runtime.getRuntime().availableProcessors()));
+            private final Map<Endpoint, TransportMode> transportModes = new EnumMap<>(Endpoint.class);
+            private final Set<Endpoint> requestCompression = EnumSet.noneOf(Endpoint.class);
+            private long compressionThreshold = 1024;
+            private HttpLogLevel logLevel;
+            private int maxLoggedBodyBytes = 4096;
+            private long memoryCacheBytes = Runtime.getRuntime().maxMemory() / 16;
+            private long diskCacheBytes = 20 * 1024 * 1024;
+            private long httpCacheBytes;
+            private boolean persistentUserDirectory = true;
+            private RetryPolicy retryPolicy = new RetryPolicy.Builder().build();
+            private HedgePolicy hedgePolicy;
+            private CircuitBreakerPolicy circuitBreakerPolicy;
+            private boolean writeBehind;
+            private int outboxBatchSize = 4;
+            private final Map<Endpoint, Long> deadlines = new EnumMap<>(Endpoint.class);
+
+            public Builder setBaseUrl(String baseUrl) {
+                this.baseUrl = baseUrl;
+                return this;
+            }
+
+            public Builder setMaxIdleConnections(int maxIdleConnections) {
+                this.maxIdleConnections = maxIdleConnections;
+                return this;
+            }
+
+            public Builder setKeepAlive(long duration, TimeUnit unit) {
+                this.keepAliveMillis = unit.toMillis(duration);
+                return this;
+            }
+
+            public Builder setMaxRequests(int maxRequests) {
+                this.maxRequests = maxRequests;
+                return this;
+            }
+
+            public Builder setMaxRequestsPerHost(int maxRequestsPerHost) {
+                this.maxRequestsPerHost = maxRequestsPerHost;
+                return this;
+            }
+
+            public Builder setConnectTimeout(long timeout, TimeUnit unit) {
+                this.connectTimeoutMillis = unit.toMillis(timeout);
+                return this;
+            }
+
+            public Builder setReadTimeout(long timeout, TimeUnit unit) {
+                this.readTimeoutMillis = unit.toMillis(timeout);
+                return this;
+            }
+
+            public Builder setWriteTimeout(long timeout, TimeUnit unit) {
+                this.writeTimeoutMillis = unit.toMillis(timeout);
+                return this;
+            }
+
+            public Builder setExecutorThreads(int executorThreads) {
+                this.executorThreads = executorThreads;
+                return this;
+            }
+
+            /**
+             * Set how images are uploaded to one of the image endpoints
+             * (REGISTER, VERIFY, UPDATE, COMPARE). Defaults to JSON.
+             */
+            public Builder setTransportMode(Endpoint endpoint, TransportMode mode) {
+                transportModes.put(endpoint, mode);
+                return this;
+            }
+
+            /**
+             * Set the transport mode of all image endpoints
+             */
+            public Builder setTransportMode(TransportMode mode) {
+                transportModes.put(Endpoint.REGISTER, mode);
+                transportModes.put(Endpoint.VERIFY, mode);
+                transportModes.put(Endpoint.UPDATE, mode);
+                transportModes.put(Endpoint.COMPARE, mode);
+                return this;
+            }
+
+            /**
+             * Gzip JSON request bodies sent to an endpoint, see {@link CompressionInterceptor}.
+             * Off by default; the server must accept {@code Content-Encoding: gzip}.
+             */
+            public Builder setRequestCompression(Endpoint endpoint, boolean enabled) {
+                if (enabled) {
+                    requestCompression.add(endpoint);
+                } else {
+                    requestCompression.remove(endpoint);
+                }
+                return this;
+            }
+
+            /**
+             * Enable or disable request compression on all image endpoints
+             */
+            public Builder setRequestCompression(boolean enabled) {
+                setRequestCompression(Endpoint.REGISTER, enabled);
+                setRequestCompression(Endpoint.VERIFY, enabled);
+                setRequestCompression(Endpoint.UPDATE, enabled);
+                setRequestCompression(Endpoint.COMPARE, enabled);
+                return this;
+            }
+
+            /**
+             * Smallest body of known length that is compressed. Defaults to 1 KB.
+             */
+            public Builder setCompressionThreshold(long bytes) {
+                this.compressionThreshold = bytes;
+                return this;
+            }
+
+            /**
+             * Set how much of each call is logged. By default debuggable apps get
+             * {@link HttpLogLevel#SUMMARY} and release builds {@link HttpLogLevel#NONE}.
+             */
+            public Builder setLogLevel(HttpLogLevel logLevel) {
+                this.logLevel = logLevel;
+                return this;
+            }
+
+            /**
+             * Limit of each logged body at {@link HttpLogLevel#BODY_TRUNCATED}. Defaults to 4 KB.
+             */
+            public Builder setMaxLoggedBodyBytes(int maxLoggedBodyBytes) {
+                this.maxLoggedBodyBytes = maxLoggedBodyBytes;
+                return this;
+            }
+
+            /**
+             * Budgets of the user image cache. Defaults to 1/16 of the heap for decoded
+             * bitmaps and 20 MB on disk; 0 disables a tier.
+             */
+            public Builder setImageCacheSize(long memoryBytes, long diskBytes) {
+                this.memoryCacheBytes = memoryBytes;
+                this.diskCacheBytes = diskBytes;
+                return this;
+            }
+
+            /**
+             * Enable an HTTP response cache of this size. Responses of the user list endpoint
+             * that carry an ETag or Last-Modified are stored and revalidated on every call, so
+             * unchanged data costs a 304 without a body. User images are never stored here,
+             * they have their own {@link FaceImageCache}. Off by default.
+             */
+            public Builder setHttpCacheSize(long bytes) {
+                this.httpCacheBytes = bytes;
+                return this;
+            }
+
+            /**
+             * Keep the local user directory in an SQLite database, so it is available right
+             * after a restart and only changes have to be synced. On by default; when off
+             * the directory is held in memory and refilled by the first sync of each process.
+             */
+            public Builder setPersistentUserDirectory(boolean persistent) {
+                this.persistentUserDirectory = persistent;
+                return this;
+            }
+
+            /**
+             * When failed calls are sent again; {@link RetryPolicy#NONE} for a single
+             * attempt. Defaults to 3 attempts within 15 s for reads, verify and compare;
+             * writes are only retried when the policy enables them.
+             */
+            public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+                this.retryPolicy = retryPolicy;
+                return this;
+            }
+
+            /**
+             * Send a second copy of verify and compare requests that are slower than usual
+             * and use whichever answers first. Off by default; null turns it off.
+             */
+            public Builder setHedgePolicy(HedgePolicy hedgePolicy) {
+                this.hedgePolicy = hedgePolicy;
+                return this;
+            }
+
+            /**
+             * Fail calls at once while the backend keeps failing, see
+             * {@link CircuitBreakerInterceptor}. Off by default.
+             */
+            public Builder setCircuitBreakerPolicy(CircuitBreakerPolicy circuitBreakerPolicy) {
+                this.circuitBreakerPolicy = circuitBreakerPolicy;
+                return this;
+            }
+
+            /**
+             * Store register, update and delete calls in a {@link MutationOutbox} on disk and
+             * report them successful at once, with {@link FaceRecognitionResult#isQueued()}
+             * set; they are sent in order once there is a network. Off by default.
+             */
+            public Builder setWriteBehind(boolean writeBehind) {
+                this.writeBehind = writeBehind;
+                return this;
+            }
+
+            /**
+             * Number of queued writes, each for a different user, sent at the same time when
+             * the outbox is replayed. Defaults to 4.
+             */
+            public Builder setOutboxBatchSize(int outboxBatchSize) {
+                this.outboxBatchSize = outboxBatchSize;
+                return this;
+            }
+
+            /**
+             * Time a call of an endpoint has to complete, counted from the method call and
+             * shared by its retries; 0 for none. The socket timeouts still apply to each
+             * attempt. No deadline by default.
+             */
+            public Builder setDeadline(Endpoint endpoint, long deadline, TimeUnit unit) {
+                deadlines.put(endpoint, unit.toMillis(deadline));
+                return this;
+            }
+
+            /**
+             * Set the deadline of every endpoint
+             */
+            public Builder setDeadline(long deadline, TimeUnit unit) {
+                for (Endpoint endpoint : Endpoint.values()) {
+                    setDeadline(endpoint, deadline, unit);
+                }
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.nivbuskila.facerecognition.network;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When {@link HedgingInterceptor} sends a second copy of a slow request. The hedge delay is
+ * a percentile of the endpoint's recent latencies, so only the slowest calls are hedged, and
+ * a budget caps hedges to a fraction of all calls.
+ * <p>
+ * Memory: a hedge buffers nothing. Each copy streams the request body again from its image
+ * source, so at most two copies of the base64 encoder's small chunk buffer are live. The
+ * encoded image itself is held once, by the image source: a Bitmap is compressed on its
+ * first write and those bytes are kept for the rest of the request. A hedge does cost a
+ * second upload of the image and a thread of the interceptor while it runs.
+ */
+public final class HedgePolicy {
+    private final Set<Endpoint> endpoints;
+    private final double percentile;
+    private final long minDelayMillis;
+    private final int minSamples;
+    private final int window;
+    private final double budgetRatio;
+    private final int maxBurst;
+
+    private HedgePolicy(Builder builder) {
+        this.endpoints = builder.endpoints.isEmpty()
+                ? EnumSet.noneOf(Endpoint.class)
+                : EnumSet.copyOf(builder.endpoints);
+        this.percentile = builder.percentile;
+        this.minDelayMillis = builder.minDelayMillis;
+        this.minSamples = builder.minSamples;
+        this.window = builder.window;
+        this.budgetRatio = builder.budgetRatio;
+        this.maxBurst = builder.maxBurst;
+    }
+
+    public boolean isHedged(Endpoint endpoint) {
+        return endpoints.contains(endpoint);
+    }
+
+    public double getPercentile() { return percentile; }
+    public long getMinDelayMillis() { return minDelayMillis; }
+    public int getMinSamples() { return minSamples; }
+    public int getWindow() { return window; }
+    public double getBudgetRatio() { return budgetRatio; }
+    public int getMaxBurst() { return maxBurst; }
+
+    public static class Builder {
+        private final Set<Endpoint> endpoints = EnumSet.of(Endpoint.VERIFY, Endpoint.COMPARE);
+        private double percentile = 0.95;
+        private long minDelayMillis = 50;
+        private int minSamples = 20;
+        private int window = 100;
+        private double budgetRatio = 0.1;
+        private int maxBurst = 5;
+
+        /**
+         * Whether calls of an endpoint are hedged. Defaults to verify and compare, which
+         * have no side effects.
+         */
+        public Builder setHedged(Endpoint endpoint, boolean hedged) {
+            if (hedged) {
+                endpoints.add(endpoint);
+            } else {
+                endpoints.remove(endpoint);
+            }
+            return this;
+        }
+
+        /**
+         * Latency percentile, between 0 and 1, after which the hedge is sent. Defaults to
+         * 0.95, i.e. about 5% of calls are hedged.
+         */
+        public Builder setPercentile(double percentile) {
+            this.percentile = Math.max(0, Math.min(1, percentile));
+            return this;
+        }
+
+        /**
+         * Shortest hedge delay, whatever the percentile. Defaults to 50 ms.
+         */
+        public Builder setMinDelay(long delay, TimeUnit unit) {
+            this.minDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * Number of recent latencies the percentile is taken from, and how many must have
+         * been seen before the first hedge. Defaults to 100 and 20.
+         */
+        public Builder setWindow(int window, int minSamples) {
+            this.window = Math.max(1, window);
+            this.minSamples = Math.max(1, Math.min(minSamples, this.window));
+            return this;
+        }
+
+        /**
+         * Cap of extra load: each call earns {@code ratio} of a hedge, up to
+         * {@code maxBurst} saved hedges. Defaults to 0.1 and 5.
+         */
+        public Builder setBudget(double ratio, int maxBurst) {
+            this.budgetRatio = Math.max(0, ratio);
+            this.maxBurst = Math.max(1, maxBurst);
+            return this;
+        }
+
+        public HedgePolicy build() {
+            return new HedgePolicy(this);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Hedges calls of the endpoints enabled in a {@link HedgePolicy}: the request is sent, and if
+ * no response has arrived after the endpoint's hedge delay a second, identical request is
+ * sent. The first response wins and the other call is cancelled. Both copies write the same
+ * request body, each streaming it again from its source, so a hedge holds no copy of it.
+ * One-shot bodies cannot be written twice and are never hedged.
+ * <p>
+ * Both copies are separate calls of the same client that skip this interceptor, so each of
+ * them is retried, logged and compressed on its own. They run on threads of this interceptor
+ * rather than the dispatcher, so a hedge never waits for a dispatcher slot held by the call
+ * that is waiting for it. The threads are bounded: when all are busy the request is sent
+ * without a hedge. What is left of the call's own timeout applies to both copies.
+ * <p>
+ * The hedge delay comes from the latencies of first copies only, measured when they
+ * complete, so fast hedges do not pull the percentile down.
+ */
+public class HedgingInterceptor implements Interceptor {
+    private static final String TAG = "HedgingInterceptor";
+    private static final long CANCEL_POLL_MILLIS = 100;
+    // OkHttp's default limit of concurrent calls
+    private static final int MAX_THREADS = 64;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final HedgePolicy policy;
+    private final Call.Factory callFactory;
+    private final Map<Endpoint, LatencyWindow> latencies = new EnumMap<>(Endpoint.class);
+    private final ExecutorService executor;
+    private double budget;
+
+    /**
+     * @param callFactory Client the copies are sent with, normally the one this interceptor
+     *                    belongs to
+     */
+    public HedgingInterceptor(HedgePolicy policy, Call.Factory callFactory) {
+        this.policy = policy;
+        this.callFactory = callFactory;
+        this.executor = new ThreadPoolExecutor(0, MAX_THREADS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "FaceRecognition-hedge");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Endpoint endpoint = Endpoint.of(request);
+        RequestBody body = request.body();
+        if (endpoint == null || !policy.isHedged(endpoint)
+                || request.tag(HedgedCall.class) != null
+                || (body != null && body.isOneShot())) {
+            return chain.proceed(request);
+        }
+        long delay = hedgeDelay(endpoint);
+        if (delay < 0) {
+            // Not enough samples yet: measure the plain call
+            return proceedMeasured(chain, request, endpoint);
+        }
+
+        long timeoutNanos = chain.call().timeout().timeoutNanos();
+        long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : NO_DEADLINE;
+        Race race = new Race();
+        if (!start(race, request, endpoint, deadline, true)) {
+            // Every hedging thread is busy
+            return proceedMeasured(chain, request, endpoint);
+        }
+        Response response = null;
+        try {
+            if (!race.await(delay, chain.call()) && takeHedge()
+                    && start(race, request, endpoint, deadline, false)) {
+                Log.d(TAG, endpoint + " slower than " + delay + " ms, sent hedge");
+            }
+            race.await(Long.MAX_VALUE, chain.call());
+            response = race.result();
+            return response;
+        } finally {
+            race.cancelLosers(response);
+        }
+    }
+
+    private Response proceedMeasured(Chain chain, Request request, Endpoint endpoint)
+            throws IOException {
+        long start = System.nanoTime();
+        Response response = chain.proceed(request);
+        record(endpoint, millisSince(start));
+        return response;
+    }
+
+    /**
+     * Send a copy on a thread of this interceptor
+     * @param deadline System.nanoTime() by which the outer call times out
+     * @param first Whether this is the first copy, whose latency is recorded
+     * @return false if it was not sent, as no thread was free or no time is left
+     */
+    private boolean start(Race race, Request original, Endpoint endpoint, long deadline,
+                          boolean first) {
+        long timeoutNanos = 0;
+        if (deadline != NO_DEADLINE) {
+            timeoutNanos = deadline - System.nanoTime();
+            if (timeoutNanos <= 0) {
+                return false;
+            }
+        }
+        Call call = callFactory.newCall(original.newBuilder()
+                .tag(HedgedCall.class, new HedgedCall(original))
+                .build());
+        if (timeoutNanos > 0) {
+            call.timeout().timeout(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        race.add(call);
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    Response response = call.execute();
+                    if (first) {
+                        record(endpoint, millisSince(start));
+                    }
+                    race.onResponse(call, response);
+                } catch (IOException e) {
+                    if (first && call.isCanceled() && race.isDecided()) {
+                        // Lost to the hedge: it took at least this long
+                        record(endpoint, millisSince(start));
+                    }
+                    race.onFailure(e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            race.remove(call);
+            return false;
+        }
+    }
+
+    /**
+     * @return Delay after which to hedge, or -1 while there are too few samples
+     */
+    private synchronized long hedgeDelay(Endpoint endpoint) {
+        budget = Math.min(policy.getMaxBurst(), budget + policy.getBudgetRatio());
+        LatencyWindow window = latencies.get(endpoint);
+        if (window == null || window.size() < policy.getMinSamples()) {
+            return -1;
+        }
+        return Math.max(policy.getMinDelayMillis(), window.percentile(policy.getPercentile()));
+    }
+
+    private synchronized boolean takeHedge() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    private synchronized void record(Endpoint endpoint, long millis) {
+        LatencyWindow window = latencies.get(endpoint);
+        if (window == null) {
+            window = new LatencyWindow(policy.getWindow());
+            latencies.put(endpoint, window);
+        }
+        window.add(millis);
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Marks a copy sent by this interceptor, and links it to the call it belongs to
+     */
+    static final class HedgedCall {
+        final Request original;
+
+        HedgedCall(Request original) {
+            this.original = original;
+        }
+    }
+
+    /**
+     * The copies of one request. The first response wins; a failure only ends the race once
+     * no other copy is running.
+     */
+    private static final class Race {
+        private final List<Call> calls = new ArrayList<>(2);
+        private int running;
+        private Call winner;
+        private Response response;
+        private IOException failure;
+
+        synchronized void add(Call call) {
+            calls.add(call);
+            running++;
+        }
+
+        synchronized void remove(Call call) {
+            calls.remove(call);
+            running--;
+        }
+
+        synchronized boolean isDecided() {
+            return response != null;
+        }
+
+        synchronized void onResponse(Call call, Response result) {
+            running--;
+            if (response != null) {
+                result.close();
+                return;
+            }
+            winner = call;
+            response = result;
+            notifyAll();
+        }
+
+        synchronized void onFailure(IOException e) {
+            running--;
+            failure = e;
+            notifyAll();
+        }
+
+        /**
+         * @return true if the race is decided, false if the time ran out first
+         */
+        synchronized boolean await(long millis, Call outer) throws IOException {
+            long deadline = millis == Long.MAX_VALUE
+                    ? Long.MAX_VALUE : now() + millis;
+            while (response == null && running > 0) {
+                if (outer.isCanceled()) {
+                    throw new IOException("Canceled");
+                }
+                long remaining = deadline - now();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    wait(Math.min(remaining, CANCEL_POLL_MILLIS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a response", e);
+                }
+            }
+            return true;
+        }
+
+        synchronized Response result() throws IOException {
+            if (response != null) {
+                return response;
+            }
+            throw failure != null ? failure : new IOException("No response");
+        }
+
+        void cancelLosers(Response kept) {
+            List<Call> losers;
+            synchronized (this) {
+                losers = new ArrayList<>(calls);
+                if (kept != null) {
+                    losers.remove(winner);
+                } else if (response != null) {
+                    // Decided, but the caller is gone
+                    response.close();
+                }
+            }
+            for (Call call : losers) {
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * The most recent latencies of an endpoint
+     */
+    private static final class LatencyWindow {
+        private final long[] samples;
+        private int count;
+        private int next;
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        int size() {
+            return count;
+        }
+
+        long percentile(double p) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+}
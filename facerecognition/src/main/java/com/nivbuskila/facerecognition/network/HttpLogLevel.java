@@ -0,0 +1,28 @@
+package com.nivbuskila.facerecognition.network;
+
+/**
+ * How much of each HTTP call {@link HttpLogger} writes to logcat.
+ */
+public enum HttpLogLevel {
+    /**
+     * No logging; the default for release builds
+     */
+    NONE,
+
+    /**
+     * One line per call: method, URL, status, duration and body sizes; the default for
+     * debuggable builds
+     */
+    SUMMARY,
+
+    /**
+     * Request and response lines with their headers, credentials redacted
+     */
+    HEADERS,
+
+    /**
+     * Headers plus the start of each JSON body. Image fields are replaced by their length and
+     * hash, credentials are redacted and bodies are cut off at the configured limit.
+     */
+    BODY_TRUNCATED
+}
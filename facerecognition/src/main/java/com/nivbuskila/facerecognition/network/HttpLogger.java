@@ -0,0 +1,218 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * Logs HTTP calls at a {@link HttpLogLevel}. Unlike OkHttp's HttpLoggingInterceptor at
+ * BODY level, bodies are never buffered or turned into one String: they are observed while
+ * OkHttp writes the request and while the caller reads the response, and only a capped,
+ * redacted prefix is kept. The request body is therefore logged after it has been sent and
+ * the response body once it has been read to the end or closed.
+ */
+public class HttpLogger implements Interceptor {
+    private static final String TAG = "FaceRecognitionHttp";
+
+    private final HttpLogLevel level;
+    private final int maxBodyBytes;
+
+    public HttpLogger(HttpLogLevel level, int maxBodyBytes) {
+        this.level = level;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (level == HttpLogLevel.NONE) {
+            return chain.proceed(request);
+        }
+        boolean logHeaders = level == HttpLogLevel.HEADERS || level == HttpLogLevel.BODY_TRUNCATED;
+        boolean logBodies = level == HttpLogLevel.BODY_TRUNCATED;
+
+        if (logHeaders) {
+            Log.d(TAG, "--> " + request.method() + " " + request.url());
+            logHeaders(request.headers());
+        }
+
+        LogBodyRedactor requestLog = null;
+        RequestBody body = request.body();
+        if (logBodies && body != null && isJson(body.contentType())) {
+            requestLog = new LogBodyRedactor(maxBodyBytes);
+            request = request.newBuilder()
+                    .method(request.method(), new LoggingRequestBody(body, requestLog))
+                    .build();
+        }
+
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            Log.d(TAG, "<-- " + request.method() + " " + request.url() + " failed: " + e);
+            throw e;
+        }
+        long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        if (requestLog != null) {
+            Log.d(TAG, "--> body " + requestLog);
+        }
+        if (!logHeaders) {
+            Log.d(TAG, request.method() + " " + request.url() + " -> " + response.code()
+                    + describeCache(response) + " in " + tookMs + " ms, request "
+                    + describeLength(body) + ", response " + describeLength(response.body()));
+            return response;
+        }
+
+        Log.d(TAG, "<-- " + response.code() + " " + response.message() + " "
+                + response.request().url() + describeCache(response) + " (" + tookMs + " ms)");
+        logHeaders(response.headers());
+
+        ResponseBody responseBody = response.body();
+        if (!logBodies || responseBody == null || !isJson(responseBody.contentType())) {
+            return response;
+        }
+        LogBodyRedactor responseLog = new LogBodyRedactor(maxBodyBytes);
+        Source source = new LoggingSource(responseBody.source(), responseLog);
+        return response.newBuilder()
+                .body(ResponseBody.create(Okio.buffer(source), responseBody.contentType(),
+                        responseBody.contentLength()))
+                .build();
+    }
+
+    private void logHeaders(Headers headers) {
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.name(i);
+            boolean secret = name.equalsIgnoreCase("Authorization")
+                    || name.equalsIgnoreCase("Cookie") || name.equalsIgnoreCase("Set-Cookie");
+            Log.d(TAG, name + ": " + (secret ? "<redacted>" : headers.value(i)));
+        }
+    }
+
+    private static String describeCache(Response response) {
+        if (response.cacheResponse() == null) {
+            return "";
+        }
+        return response.networkResponse() == null ? " (from cache)" : " (revalidated)";
+    }
+
+    private static boolean isJson(MediaType type) {
+        return type != null && "json".equals(type.subtype());
+    }
+
+    private static String describeLength(RequestBody body) throws IOException {
+        if (body == null) {
+            return "empty";
+        }
+        long length = body.contentLength();
+        return length >= 0 ? length + " B" : "streamed";
+    }
+
+    private static String describeLength(ResponseBody body) {
+        if (body == null) {
+            return "empty";
+        }
+        long length = body.contentLength();
+        return length >= 0 ? length + " B" : "streamed";
+    }
+
+    private static void copyTo(Buffer buffer, long offset, long byteCount, LogBodyRedactor log) {
+        if (log.isTruncated()) {
+            log.skip(byteCount);
+            return;
+        }
+        Buffer copy = new Buffer();
+        buffer.copyTo(copy, offset, byteCount);
+        byte[] chunk = new byte[(int) Math.min(byteCount, 8192)];
+        int read;
+        while ((read = copy.read(chunk, 0, chunk.length)) > 0) {
+            log.write(chunk, 0, read);
+        }
+    }
+
+    private static class LoggingRequestBody extends RequestBody {
+        private final RequestBody body;
+        private final LogBodyRedactor log;
+
+        LoggingRequestBody(RequestBody body, LogBodyRedactor log) {
+            this.body = body;
+            this.log = log;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return body.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return body.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            Sink tee = new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    copyTo(source, 0, byteCount, log);
+                    super.write(source, byteCount);
+                }
+            };
+            BufferedSink bufferedTee = Okio.buffer(tee);
+            body.writeTo(bufferedTee);
+            // Flush only, closing would close the sink owned by OkHttp
+            bufferedTee.flush();
+        }
+    }
+
+    private static class LoggingSource extends ForwardingSource {
+        private final LogBodyRedactor log;
+        private boolean logged;
+
+        LoggingSource(Source delegate, LogBodyRedactor log) {
+            super(delegate);
+            this.log = log;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read == -1) {
+                logOnce();
+            } else {
+                copyTo(sink, sink.size() - read, read, log);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            logOnce();
+            super.close();
+        }
+
+        private void logOnce() {
+            if (!logged) {
+                logged = true;
+                Log.d(TAG, "<-- body " + log);
+            }
+        }
+    }
+}
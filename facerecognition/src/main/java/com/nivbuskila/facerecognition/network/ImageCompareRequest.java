@@ -0,0 +1,19 @@
+package com.nivbuskila.facerecognition.network;
+
+public class ImageCompareRequest implements ImageJsonRequest {
+    private final ImagePayload faceData1;
+    private final ImagePayload faceData2;
+
+    public ImageCompareRequest(ImagePayload faceData1, ImagePayload faceData2) {
+        this.faceData1 = faceData1;
+        this.faceData2 = faceData2;
+    }
+
+    public ImagePayload getFaceData1() {
+        return faceData1;
+    }
+
+    public ImagePayload getFaceData2() {
+        return faceData2;
+    }
+}
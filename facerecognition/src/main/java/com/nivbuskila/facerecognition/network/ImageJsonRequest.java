@@ -0,0 +1,8 @@
+package com.nivbuskila.facerecognition.network;
+
+/**
+ * Marker for JSON requests carrying {@link ImagePayload} fields, which are
+ * serialized by {@link StreamingJsonConverterFactory}.
+ */
+public interface ImageJsonRequest {
+}
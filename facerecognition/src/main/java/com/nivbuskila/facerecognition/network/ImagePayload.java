@@ -0,0 +1,21 @@
+package com.nivbuskila.facerecognition.network;
+
+/**
+ * Image field of a JSON request. Serialized by {@link ImagePayloadJsonAdapter} as a base64
+ * data URL that is encoded while the request body is written, never held as a String.
+ */
+public class ImagePayload {
+    private final ImageSource source;
+
+    public ImagePayload(ImageSource source) {
+        this.source = source;
+    }
+
+    public ImageSource getSource() {
+        return source;
+    }
+
+    public String getDataUrlPrefix() {
+        return "data:" + source.getMimeType() + ";base64,";
+    }
+}
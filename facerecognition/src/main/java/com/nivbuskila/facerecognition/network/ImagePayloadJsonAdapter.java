@@ -0,0 +1,88 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.util.Base64;
+import android.util.Base64OutputStream;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonDataException;
+import com.squareup.moshi.JsonReader;
+import com.squareup.moshi.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import okio.BufferedSink;
+
+/**
+ * Moshi adapter for {@link ImagePayload}. The image is written as a base64 data URL through
+ * {@link JsonWriter#valueSink()}, encoded in small chunks straight into the request body, so
+ * the encoded image never exists as a whole in memory. Reading decodes a data URL into an
+ * in-memory payload.
+ */
+public class ImagePayloadJsonAdapter extends JsonAdapter<ImagePayload> {
+    private static final String DATA_PREFIX = "data:";
+    private static final String BASE64_MARKER = ";base64,";
+
+    @Override
+    public void toJson(JsonWriter writer, ImagePayload value) throws IOException {
+        if (value == null) {
+            writer.nullValue();
+            return;
+        }
+        try (BufferedSink sink = writer.valueSink()) {
+            // Base64 output and the data URL prefix never need JSON escaping
+            sink.writeByte('"').writeUtf8(value.getDataUrlPrefix());
+            Base64OutputStream base64 = new Base64OutputStream(sink.outputStream(),
+                    Base64.NO_WRAP | Base64.NO_CLOSE);
+            value.getSource().writeTo(base64);
+            base64.close();
+            sink.writeByte('"');
+        }
+    }
+
+    @Override
+    public ImagePayload fromJson(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonReader.Token.NULL) {
+            return reader.nextNull();
+        }
+        String dataUrl = reader.nextString();
+        int marker = dataUrl.indexOf(BASE64_MARKER);
+        if (!dataUrl.startsWith(DATA_PREFIX) || marker < 0) {
+            throw new JsonDataException("Expected a base64 data URL at " + reader.getPath());
+        }
+        String mimeType = dataUrl.substring(DATA_PREFIX.length(), marker);
+        byte[] bytes;
+        try {
+            bytes = Base64.decode(dataUrl.substring(marker + BASE64_MARKER.length()),
+                    Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            throw new JsonDataException("Invalid base64 image at " + reader.getPath(), e);
+        }
+        return new ImagePayload(new BytesImageSource(mimeType, bytes));
+    }
+
+    private static final class BytesImageSource implements ImageSource {
+        private final String mimeType;
+        private final byte[] bytes;
+
+        BytesImageSource(String mimeType, byte[] bytes) {
+            this.mimeType = mimeType;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        @Override
+        public long contentLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.nivbuskila.facerecognition.network;
+
+public class ImageRegisterRequest implements ImageJsonRequest {
+    private final String userId;
+    private final ImagePayload faceData;
+
+    public ImageRegisterRequest(String userId, ImagePayload faceData) {
+        this.userId = userId;
+        this.faceData = faceData;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public ImagePayload getFaceData() {
+        return faceData;
+    }
+}
@@ -0,0 +1,37 @@
+package com.nivbuskila.facerecognition.network;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Request body that writes an {@link ImageSource} directly into the OkHttp sink,
+ * without an intermediate byte array or base64 string.
+ */
+public class ImageRequestBody extends RequestBody {
+    private final ImageSource source;
+    private final MediaType contentType;
+
+    public ImageRequestBody(ImageSource source) {
+        this.source = source;
+        this.contentType = MediaType.parse(source.getMimeType());
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return source.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // Do not close the stream, it would close the sink owned by OkHttp
+        source.writeTo(sink.outputStream());
+    }
+}
@@ -0,0 +1,18 @@
+package com.nivbuskila.facerecognition.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encoded image content that can be written to a request body, possibly more than once.
+ */
+public interface ImageSource {
+    String getMimeType();
+
+    /**
+     * @return Size of the encoded image in bytes, or -1 if unknown until written
+     */
+    long contentLength();
+
+    void writeTo(OutputStream out) throws IOException;
+}
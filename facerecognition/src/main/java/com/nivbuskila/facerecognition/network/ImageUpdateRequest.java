@@ -0,0 +1,13 @@
+package com.nivbuskila.facerecognition.network;
+
+public class ImageUpdateRequest implements ImageJsonRequest {
+    private final ImagePayload faceData;
+
+    public ImageUpdateRequest(ImagePayload faceData) {
+        this.faceData = faceData;
+    }
+
+    public ImagePayload getFaceData() {
+        return faceData;
+    }
+}
@@ -0,0 +1,13 @@
+package com.nivbuskila.facerecognition.network;
+
+public class ImageVerifyRequest implements ImageJsonRequest {
+    private final ImagePayload faceData;
+
+    public ImageVerifyRequest(ImagePayload faceData) {
+        this.faceData = faceData;
+    }
+
+    public ImagePayload getFaceData() {
+        return faceData;
+    }
+}
@@ -0,0 +1,184 @@
+package com.nivbuskila.facerecognition.network;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Builds the logged form of a JSON body from its bytes as they are written or read, so the
+ * body is never held in memory. Image fields are replaced with their length and a short
+ * hash, credential fields with a placeholder, and output stops at a character limit.
+ */
+class LogBodyRedactor {
+    private static final int MAX_KEY_LENGTH = 32;
+    private static final int HASH_PREFIX_BYTES = 4;
+    private static final String[] CREDENTIAL_KEYS = {
+            "password", "passwd", "secret", "token", "apikey", "authorization", "credential"
+    };
+
+    private final int maxBytes;
+    private final ByteArrayOutputStream output;
+    private final StringBuilder lastString = new StringBuilder();
+    private long totalBytes;
+    private boolean truncated;
+
+    private boolean inString;
+    private boolean escaped;
+    private boolean afterColon;
+    private String lastKey;
+
+    private boolean redacting;
+    private boolean redactImage;
+    private long redactedLength;
+    private MessageDigest digest;
+
+    LogBodyRedactor(int maxBytes) {
+        this.maxBytes = maxBytes;
+        this.output = new ByteArrayOutputStream(Math.min(maxBytes, 1024));
+    }
+
+    void write(byte[] data, int offset, int length) {
+        totalBytes += length;
+        for (int i = offset; i < offset + length && !truncated; i++) {
+            write(data[i]);
+        }
+    }
+
+    /**
+     * Count bytes that are not scanned because the output limit was reached
+     */
+    void skip(long length) {
+        totalBytes += length;
+    }
+
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    private void write(byte b) {
+        if (redacting) {
+            redact(b);
+            return;
+        }
+        if (inString) {
+            emit(b);
+            if (escaped) {
+                escaped = false;
+            } else if (b == '\\') {
+                escaped = true;
+            } else if (b == '"') {
+                inString = false;
+            } else if (lastString.length() < MAX_KEY_LENGTH) {
+                lastString.append((char) b);
+            }
+            return;
+        }
+        if (b == '"') {
+            emit(b);
+            if (afterColon && isRedactedKey(lastKey)) {
+                startRedacting();
+            } else {
+                inString = true;
+                lastString.setLength(0);
+            }
+            afterColon = false;
+            return;
+        }
+        if (b == ':') {
+            lastKey = lastString.toString();
+            afterColon = true;
+        } else if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+            afterColon = false;
+        }
+        emit(b);
+    }
+
+    private void startRedacting() {
+        redacting = true;
+        redactImage = lastKey.startsWith("faceData");
+        redactedLength = 0;
+        escaped = false;
+        if (redactImage) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                digest = null;
+            }
+        }
+    }
+
+    private void redact(byte b) {
+        if (escaped) {
+            escaped = false;
+        } else if (b == '\\') {
+            escaped = true;
+        } else if (b == '"') {
+            redacting = false;
+            emit(redactImage ? imageSummary() : "<redacted>");
+            emit(b);
+            return;
+        }
+        redactedLength++;
+        if (redactImage && digest != null) {
+            digest.update(b);
+        }
+    }
+
+    private String imageSummary() {
+        StringBuilder summary = new StringBuilder("<").append(lastKey).append(": ")
+                .append(redactedLength).append(" chars");
+        if (digest != null) {
+            byte[] hash = digest.digest();
+            summary.append(", sha256 ");
+            for (int i = 0; i < HASH_PREFIX_BYTES; i++) {
+                summary.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+                summary.append(Character.forDigit(hash[i] & 0xf, 16));
+            }
+        }
+        return summary.append('>').toString();
+    }
+
+    /**
+     * Image fields by prefix, credential fields by a case-insensitive substring that ignores
+     * '_' and '-', so access_token, refreshToken and newPassword all match
+     */
+    private static boolean isRedactedKey(String key) {
+        if (key == null) {
+            return false;
+        }
+        if (key.startsWith("faceData")) {
+            return true;
+        }
+        String normalized = key.toLowerCase(Locale.ROOT).replace("_", "").replace("-", "");
+        for (String credential : CREDENTIAL_KEYS) {
+            if (normalized.contains(credential)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void emit(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.write(bytes, 0, bytes.length);
+    }
+
+    private void emit(byte b) {
+        if (output.size() >= maxBytes) {
+            truncated = true;
+            return;
+        }
+        output.write(b);
+    }
+
+    @Override
+    public String toString() {
+        String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        if (truncated || redacting) {
+            return text + "... (" + totalBytes + " bytes total)";
+        }
+        return text;
+    }
+}
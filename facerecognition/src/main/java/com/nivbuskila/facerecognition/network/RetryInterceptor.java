@@ -0,0 +1,187 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Retries calls that failed with an I/O error or a transient status (408, 429, 500, 502,
+ * 503, 504) according to a {@link RetryPolicy}. A Retry-After header given in seconds
+ * replaces the computed backoff. Attempts refused by an open circuit breaker are not retried,
+ * and no retry is started that would end after the call's own timeout.
+ * <p>
+ * Register, update and delete requests carry an {@code Idempotency-Key} header, the same for
+ * every attempt, so a server that honours it applies a write once even when the first
+ * response was lost. A key set by the caller is kept, so it can span calls such as the resend
+ * of a rejected multipart upload or an outbox replay; otherwise one is generated per call.
+ * <p>
+ * The latency of each attempt is kept per call and can be read with
+ * {@link #getAttemptLatencies(Request)} once the call is over.
+ */
+public class RetryInterceptor implements Interceptor {
+    private static final String TAG = "RetryInterceptor";
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    private final RetryPolicy policy;
+    // Keyed by the original request of each call, which the caller's Call also returns
+    private final Map<Request, List<Long>> attempts =
+            Collections.synchronizedMap(new WeakHashMap<Request, List<Long>>());
+
+    public RetryInterceptor(RetryPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request original = chain.request();
+        Endpoint endpoint = Endpoint.of(original);
+        Request request = original;
+        if (isWrite(endpoint) && original.header(IDEMPOTENCY_KEY_HEADER) == null) {
+            request = original.newBuilder()
+                    .header(IDEMPOTENCY_KEY_HEADER, UUID.randomUUID().toString())
+                    .build();
+        }
+        List<Long> latencies = latenciesOf(original);
+        boolean retried = endpoint != null && policy.isRetried(endpoint);
+        long deadline = policy.getDeadlineMillis();
+        long callTimeout = TimeUnit.NANOSECONDS.toMillis(chain.call().timeout().timeoutNanos());
+        if (callTimeout > 0) {
+            // The call times out as a whole, so retries share what is left of it
+            deadline = Math.min(deadline, callTimeout);
+        }
+        long start = SystemClock.elapsedRealtime();
+
+        for (int attempt = 1; ; attempt++) {
+            long attemptStart = SystemClock.elapsedRealtime();
+            Response response = null;
+            IOException failure = null;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                failure = e;
+            }
+            latencies.add(SystemClock.elapsedRealtime() - attemptStart);
+
+            boolean retryable = failure != null
+                    ? !chain.call().isCanceled() && !(failure instanceof CircuitOpenException)
+                    : isTransient(response.code());
+            if (!retried || !retryable || attempt >= policy.getMaxAttempts()) {
+                return result(response, failure);
+            }
+            long delay = response != null ? retryAfterMillis(response) : -1;
+            if (delay < 0) {
+                delay = ThreadLocalRandom.current().nextLong(policy.backoffCapMillis(attempt) + 1);
+            }
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            if (elapsed + delay > deadline) {
+                return result(response, failure);
+            }
+
+            Log.d(TAG, endpoint + " attempt " + attempt + " failed ("
+                    + (failure != null ? failure.toString() : "HTTP " + response.code())
+                    + "), retrying in " + delay + " ms");
+            if (response != null) {
+                response.close();
+            }
+            sleep(delay);
+            if (chain.call().isCanceled()) {
+                throw new IOException("Canceled");
+            }
+        }
+    }
+
+    /**
+     * @return Latency in milliseconds of each attempt of the call of this request, in order,
+     *         or an empty list if the call did not pass through this interceptor
+     */
+    public List<Long> getAttemptLatencies(Request request) {
+        List<Long> latencies = attempts.get(request);
+        if (latencies == null) {
+            return Collections.emptyList();
+        }
+        synchronized (latencies) {
+            return Collections.unmodifiableList(new ArrayList<>(latencies));
+        }
+    }
+
+    /**
+     * Copies sent by {@link HedgingInterceptor} count as attempts of the call they belong to
+     */
+    private List<Long> latenciesOf(Request request) {
+        HedgingInterceptor.HedgedCall hedged = request.tag(HedgingInterceptor.HedgedCall.class);
+        Request key = hedged != null ? hedged.original : request;
+        synchronized (attempts) {
+            List<Long> latencies = attempts.get(key);
+            if (latencies == null) {
+                latencies = Collections.synchronizedList(new ArrayList<Long>(1));
+                attempts.put(key, latencies);
+            }
+            return latencies;
+        }
+    }
+
+    private static boolean isWrite(Endpoint endpoint) {
+        return endpoint == Endpoint.REGISTER || endpoint == Endpoint.UPDATE
+                || endpoint == Endpoint.DELETE;
+    }
+
+    private static boolean isTransient(int code) {
+        switch (code) {
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return Wait requested by a Retry-After header in seconds, or -1
+     */
+    private static long retryAfterMillis(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            // An HTTP date; use the computed backoff
+            return -1;
+        }
+    }
+
+    private static Response result(Response response, IOException failure) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        return response;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.nivbuskila.facerecognition.network;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When {@link RetryInterceptor} sends a request again. Failed attempts are retried with
+ * exponential backoff and full jitter: before retry n the interceptor waits a random time
+ * between 0 and min(maxBackoff, initialBackoff * multiplier^(n-1)), and gives up once the
+ * next attempt would start after the retry deadline, counted from the first attempt.
+ */
+public final class RetryPolicy {
+    /**
+     * One attempt per call
+     */
+    public static final RetryPolicy NONE = new Builder().setMaxAttempts(1).build();
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double multiplier;
+    private final long deadlineMillis;
+    private final Set<Endpoint> endpoints;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.multiplier = builder.multiplier;
+        this.deadlineMillis = builder.deadlineMillis;
+        this.endpoints = builder.endpoints.isEmpty()
+                ? EnumSet.noneOf(Endpoint.class)
+                : EnumSet.copyOf(builder.endpoints);
+    }
+
+    public int getMaxAttempts() { return maxAttempts; }
+    public long getInitialBackoffMillis() { return initialBackoffMillis; }
+    public long getMaxBackoffMillis() { return maxBackoffMillis; }
+    public double getMultiplier() { return multiplier; }
+    public long getDeadlineMillis() { return deadlineMillis; }
+
+    public boolean isRetried(Endpoint endpoint) {
+        return maxAttempts > 1 && endpoints.contains(endpoint);
+    }
+
+    /**
+     * Upper bound of the wait before an attempt
+     * @param retry 1 for the first retry
+     */
+    long backoffCapMillis(int retry) {
+        double cap = initialBackoffMillis * Math.pow(multiplier, retry - 1);
+        return (long) Math.min(cap, maxBackoffMillis);
+    }
+
+    public static class Builder {
+        private int maxAttempts = 3;
+        private long initialBackoffMillis = 250;
+        private long maxBackoffMillis = TimeUnit.SECONDS.toMillis(4);
+        private double multiplier = 2;
+        private long deadlineMillis = TimeUnit.SECONDS.toMillis(15);
+        // Reads and verifications are safe to repeat. Writes are only safe if the server
+        // honours their idempotency key, so retrying them is opt-in.
+        private final Set<Endpoint> endpoints = EnumSet.of(Endpoint.GET_USERS,
+                Endpoint.GET_USER_IMAGE, Endpoint.VERIFY, Endpoint.COMPARE);
+
+        /**
+         * Attempts per call including the first; 1 disables retries. Defaults to 3.
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = Math.max(1, maxAttempts);
+            return this;
+        }
+
+        /**
+         * Backoff cap of the first retry and of all retries. Defaults to 250 ms and 4 s.
+         */
+        public Builder setBackoff(long initial, long max, TimeUnit unit) {
+            this.initialBackoffMillis = unit.toMillis(initial);
+            this.maxBackoffMillis = unit.toMillis(max);
+            return this;
+        }
+
+        /**
+         * Growth of the backoff cap per retry. Defaults to 2.
+         */
+        public Builder setMultiplier(double multiplier) {
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * Time after the first attempt past which no retry is started. Defaults to 15 s.
+         */
+        public Builder setDeadline(long deadline, TimeUnit unit) {
+            this.deadlineMillis = unit.toMillis(deadline);
+            return this;
+        }
+
+        /**
+         * Whether calls of an endpoint are retried. By default reads, verify and compare are;
+         * enable REGISTER, UPDATE and DELETE only if the server applies a repeated
+         * Idempotency-Key once.
+         */
+        public Builder setRetried(Endpoint endpoint, boolean retried) {
+            if (retried) {
+                endpoints.add(endpoint);
+            } else {
+                endpoints.remove(endpoint);
+            }
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.nivbuskila.facerecognition.network;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Network interceptor that makes responses of the user list storable but never fresh: if the
+ * server sent an ETag or Last-Modified validator, the response's caching headers are replaced
+ * with {@code no-cache}. The OkHttp cache then keeps the body and revalidates it on every call
+ * with If-None-Match / If-Modified-Since, so an unchanged list costs a 304 without a body.
+ * <p>
+ * User images are marked {@code no-store}: {@link FaceImageCache} already keeps them, and a
+ * second copy in the HTTP cache would only take disk space.
+ */
+class RevalidationInterceptor implements Interceptor {
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Response response = chain.proceed(request);
+        Endpoint endpoint = Endpoint.of(request);
+        if (endpoint == Endpoint.GET_USER_IMAGE) {
+            return response.newBuilder()
+                    .header("Cache-Control", "no-store")
+                    .removeHeader("Pragma")
+                    .removeHeader("Expires")
+                    .build();
+        }
+        if (endpoint != Endpoint.GET_USERS
+                || !response.isSuccessful()
+                || (response.header("ETag") == null && response.header("Last-Modified") == null)) {
+            return response;
+        }
+        return response.newBuilder()
+                .header("Cache-Control", "no-cache")
+                .removeHeader("Pragma")
+                .removeHeader("Expires")
+                .build();
+    }
+}
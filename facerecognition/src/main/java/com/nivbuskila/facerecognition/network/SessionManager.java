@@ -1,31 +1,245 @@
 package com.nivbuskila.facerecognition.network;
 
+import android.util.Base64;
 import android.util.Log;
 
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The session token, shared by every thread. The current {@link Session} is an immutable value
+ * in an atomic reference, so reading it takes no lock.
+ * <p>
+ * When a {@link Renewal} is set, the token is renewed in the background shortly before it
+ * expires, and {@link TokenAuthenticator} renews it when the server rejects it. Concurrent
+ * renewals of the same token share one login.
+ */
 public class SessionManager {
     private static final String TAG = "SessionManager";
-    private static SessionManager instance;
-    private String token;
+    private static final long MIN_REFRESH_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final long RETRY_REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final SessionManager INSTANCE = new SessionManager();
+
+    /**
+     * Gets a new token, normally by logging in again
+     */
+    public interface Renewal {
+        /**
+         * Get a new token and store it with {@link #setToken(String, long)}
+         * @return The new token, or null if the credentials were refused
+         */
+        String renew() throws IOException;
+    }
+
+    /**
+     * Told about every new session, e.g. to save it for the next start; null when the
+     * session ends. Called on the thread that changed the session.
+     */
+    public interface Listener {
+        void onSessionChanged(Session session);
+    }
 
-    private SessionManager() {}
+    /**
+     * A token and when it expires
+     */
+    public static final class Session {
+        private final String token;
+        private final long expiresAt;
 
-    public static synchronized SessionManager getInstance() {
-        if (instance == null) {
-            instance = new SessionManager();
+        Session(String token, long expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
         }
-        return instance;
+
+        public String getToken() { return token; }
+
+        /**
+         * @return Expiry in milliseconds since the epoch, or 0 if unknown
+         */
+        public long getExpiresAt() { return expiresAt; }
+    }
+
+    private final AtomicReference<Session> session = new AtomicReference<>();
+    private final AtomicReference<FutureTask<String>> renewing = new AtomicReference<>();
+    private final ScheduledExecutorService scheduler;
+    private volatile Renewal renewal;
+    private volatile Listener listener;
+    private ScheduledFuture<?> scheduledRefresh;
+
+    private SessionManager() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FaceRecognition-session");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
+    public static SessionManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set the token; its expiry is read from the token itself if it is a JWT
+     */
     public void setToken(String token) {
-        this.token = token;
-        Log.d(TAG, "Token set: " + (token != null ? token.substring(0, 10) + "..." : "null"));
+        setToken(token, token != null ? expiryOf(token) : 0);
+    }
+
+    /**
+     * @param expiresAt Expiry in milliseconds since the epoch, or 0 if unknown
+     */
+    public void setToken(String token, long expiresAt) {
+        Session next = token != null && !token.isEmpty() ? new Session(token, expiresAt) : null;
+        session.set(next);
+        Log.d(TAG, "Token set: " + (token != null ? redact(token) : "null")
+                + (expiresAt > 0 ? ", expires in "
+                + (expiresAt - System.currentTimeMillis()) / 1000 + " s" : ""));
+        scheduleRefresh(next);
+        Listener current = listener;
+        if (current != null) {
+            current.onSessionChanged(next);
+        }
+    }
+
+    /**
+     * Set how the token is renewed, or null to stop renewing it
+     */
+    public void setRenewal(Renewal renewal) {
+        this.renewal = renewal;
+        scheduleRefresh(session.get());
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Forget the token and how to renew it
+     */
+    public void clear() {
+        renewal = null;
+        setToken(null);
+    }
+
+    public Session getSession() {
+        return session.get();
     }
 
     public String getToken() {
-        return token;
+        Session current = session.get();
+        return current != null ? current.token : null;
     }
 
     public boolean hasToken() {
-        return token != null && !token.isEmpty();
+        return session.get() != null;
+    }
+
+    /**
+     * Renew a token the server rejected. If it was already replaced the current token is
+     * returned at once; if a renewal is in progress the caller waits for it.
+     * @param rejected The token that was rejected
+     * @return The new token, or null if it could not be renewed
+     */
+    public String renew(String rejected) {
+        Session current = session.get();
+        if (current != null && !current.token.equals(rejected)) {
+            return current.token;
+        }
+        Renewal login = renewal;
+        if (login == null) {
+            return null;
+        }
+        FutureTask<String> task = renewing.get();
+        if (task == null) {
+            FutureTask<String> mine = new FutureTask<>(login::renew);
+            if (renewing.compareAndSet(null, mine)) {
+                try {
+                    mine.run();
+                } finally {
+                    renewing.compareAndSet(mine, null);
+                }
+            }
+            task = mine.isDone() ? mine : renewing.get();
+            if (task == null) {
+                // Another renewal finished in between
+                return getToken();
+            }
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Could not renew the token", e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Renew the token before it expires: a tenth of its lifetime before, and at least a
+     * minute before. Does nothing if the session was replaced again in the meantime, so a
+     * slower concurrent setToken cannot cancel the refresh of the newer session.
+     */
+    private synchronized void scheduleRefresh(Session next) {
+        if (session.get() != next) {
+            return;
+        }
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+        if (next == null || next.expiresAt == 0 || renewal == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long margin = Math.max(MIN_REFRESH_MARGIN_MILLIS, (next.expiresAt - now) / 10);
+        long delay = Math.max(0, next.expiresAt - margin - now);
+        scheduledRefresh = scheduler.schedule(() -> refresh(next), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh(Session expiring) {
+        if (session.get() != expiring) {
+            return;
+        }
+        Log.d(TAG, "Renewing the token before it expires");
+        if (renew(expiring.token) == null && session.get() == expiring
+                && System.currentTimeMillis() + RETRY_REFRESH_MILLIS < expiring.expiresAt) {
+            synchronized (this) {
+                scheduledRefresh = scheduler.schedule(() -> refresh(expiring),
+                        RETRY_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return The {@code exp} claim of a JWT in milliseconds, or 0 if the token is not a JWT
+     */
+    public static long expiryOf(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return 0;
+        }
+        try {
+            byte[] payload = Base64.decode(parts[1],
+                    Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+            long exp = new JSONObject(new String(payload, StandardCharsets.UTF_8)).optLong("exp");
+            return exp > 0 ? TimeUnit.SECONDS.toMillis(exp) : 0;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static String redact(String token) {
+        return token.length() > 10 ? token.substring(0, 10) + "..." : "...";
     }
-}
\ No newline at end of file
+}
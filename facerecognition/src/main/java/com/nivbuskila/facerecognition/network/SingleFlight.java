@@ -0,0 +1,127 @@
+package com.nivbuskila.facerecognition.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces identical concurrent work. The first caller for a key becomes the leader of a
+ * flight and does the work; callers joining while it is in progress only register a listener,
+ * and every member receives the leader's result. A flight whose members all leave is
+ * abandoned, so the leader can cancel the work nobody waits for.
+ */
+public final class SingleFlight<V> {
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    public interface Listener<V> {
+        void onComplete(V value);
+    }
+
+    /**
+     * Join the flight of a key, starting one if there is none
+     * @param listener Called once with the flight's result, on the leader's thread
+     * @return Membership; if {@link Membership#isLeader()} the caller must do the work and
+     *         call {@link Membership#complete}
+     */
+    public synchronized Membership join(String key, Listener<V> listener) {
+        Flight flight = flights.get(key);
+        boolean leader = flight == null;
+        if (leader) {
+            flight = new Flight(key);
+            flights.put(key, flight);
+        }
+        flight.listeners.add(listener);
+        return new Membership(flight, listener, leader);
+    }
+
+    /**
+     * @return Number of flights in progress
+     */
+    public synchronized int size() {
+        return flights.size();
+    }
+
+    private final class Flight {
+        final String key;
+        final List<Listener<V>> listeners = new ArrayList<>();
+        boolean finished;
+        Runnable abandonAction;
+
+        Flight(String key) {
+            this.key = key;
+        }
+    }
+
+    public final class Membership {
+        private final Flight flight;
+        private final Listener<V> listener;
+        private final boolean leader;
+
+        private Membership(Flight flight, Listener<V> listener, boolean leader) {
+            this.flight = flight;
+            this.listener = listener;
+            this.leader = leader;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * End the flight and hand its result to every member that has not left
+         */
+        public void complete(V value) {
+            List<Listener<V>> listeners;
+            synchronized (SingleFlight.this) {
+                if (flight.finished) {
+                    return;
+                }
+                finish();
+                listeners = new ArrayList<>(flight.listeners);
+            }
+            for (Listener<V> member : listeners) {
+                member.onComplete(value);
+            }
+        }
+
+        /**
+         * Stop waiting for the result. The last member to leave abandons the flight.
+         */
+        public void leave() {
+            Runnable action;
+            synchronized (SingleFlight.this) {
+                if (flight.finished || !flight.listeners.remove(listener)
+                        || !flight.listeners.isEmpty()) {
+                    return;
+                }
+                finish();
+                action = flight.abandonAction;
+            }
+            if (action != null) {
+                action.run();
+            }
+        }
+
+        /**
+         * Set what to do when every member has left, e.g. cancel the call. Runs right away
+         * if that already happened.
+         */
+        public void onAbandoned(Runnable action) {
+            synchronized (SingleFlight.this) {
+                if (!flight.finished || !flight.listeners.isEmpty()) {
+                    flight.abandonAction = action;
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        private void finish() {
+            flight.finished = true;
+            if (flights.get(flight.key) == flight) {
+                flights.remove(flight.key);
+            }
+        }
+    }
+}
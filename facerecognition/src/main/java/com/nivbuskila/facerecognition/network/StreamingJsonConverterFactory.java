@@ -0,0 +1,41 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import okhttp3.RequestBody;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+/**
+ * Converts {@link ImageJsonRequest} bodies into {@link StreamingJsonRequestBody}, written with
+ * Moshi so {@link ImagePayloadJsonAdapter} can stream the images into the body.
+ * Every other type is left to the regular Gson converter registered after this one.
+ */
+public class StreamingJsonConverterFactory extends Converter.Factory {
+    private final Moshi moshi;
+
+    public StreamingJsonConverterFactory() {
+        this.moshi = new Moshi.Builder()
+                .add(ImagePayload.class, new ImagePayloadJsonAdapter())
+                .build();
+    }
+
+    @Override
+    public Converter<?, RequestBody> requestBodyConverter(Type type,
+                                                          Annotation[] parameterAnnotations,
+                                                          Annotation[] methodAnnotations,
+                                                          Retrofit retrofit) {
+        if (!(type instanceof Class) || !ImageJsonRequest.class.isAssignableFrom((Class<?>) type)) {
+            return null;
+        }
+        return createConverter(moshi.adapter(type));
+    }
+
+    private static <T> Converter<T, RequestBody> createConverter(JsonAdapter<T> adapter) {
+        return value -> new StreamingJsonRequestBody<>(adapter, value);
+    }
+}
@@ -0,0 +1,39 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonWriter;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * JSON request body serialized straight into the OkHttp sink when the request is written,
+ * instead of into an intermediate buffer as GsonConverterFactory does.
+ */
+public class StreamingJsonRequestBody<T> extends RequestBody {
+    private static final MediaType MEDIA_TYPE = MediaType.parse("application/json; charset=UTF-8");
+
+    private final JsonAdapter<T> adapter;
+    private final T value;
+
+    public StreamingJsonRequestBody(JsonAdapter<T> adapter, T value) {
+        this.adapter = adapter;
+        this.value = value;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return MEDIA_TYPE;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        JsonWriter writer = JsonWriter.of(sink);
+        adapter.toJson(writer, value);
+        // Flush only, closing would close the sink owned by OkHttp
+        writer.flush();
+    }
+}
@@ -0,0 +1,53 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.util.Log;
+
+import okhttp3.Authenticator;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+/**
+ * Answers a 401 by renewing the session token and sending the request again with the new
+ * one. Requests rejected together wait for a single renewal through
+ * {@link SessionManager#renew(String)}; a request is only sent again once.
+ */
+public class TokenAuthenticator implements Authenticator {
+    private static final String TAG = "TokenAuthenticator";
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String BEARER = "Bearer ";
+
+    private final SessionManager sessionManager;
+
+    public TokenAuthenticator(SessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
+    @Override
+    public Request authenticate(Route route, Response response) {
+        Request request = response.request();
+        String header = request.header(AUTHORIZATION);
+        if (header == null || !header.startsWith(BEARER) || isRetry(response)) {
+            // Login itself, or the renewed token was refused too
+            return null;
+        }
+        String token = sessionManager.renew(header.substring(BEARER.length()));
+        if (token == null) {
+            return null;
+        }
+        Log.d(TAG, "Sending " + Endpoint.of(request) + " again with a renewed token");
+        return request.newBuilder()
+                .header(AUTHORIZATION, BEARER + token)
+                .build();
+    }
+
+    private static boolean isRetry(Response response) {
+        for (Response prior = response.priorResponse(); prior != null;
+             prior = prior.priorResponse()) {
+            if (prior.code() == 401) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,17 @@
+package com.nivbuskila.facerecognition.network;
+
+/**
+ * How face images are sent to an image-carrying endpoint.
+ */
+public enum TransportMode {
+    /**
+     * Base64 data URL inside a JSON body
+     */
+    JSON,
+
+    /**
+     * Binary JPEG streamed into a multipart/form-data part. Falls back to
+     * {@link #JSON} if the server answers 415 Unsupported Media Type.
+     */
+    MULTIPART
+}
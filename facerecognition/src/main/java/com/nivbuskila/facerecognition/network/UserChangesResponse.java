@@ -0,0 +1,40 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.List;
+
+/**
+ * Changes to the user directory since a sync cursor.
+ */
+public class UserChangesResponse {
+    @SerializedName("users")
+    private List<ApiResponse> users;
+
+    @SerializedName("deleted")
+    private List<String> deleted;
+
+    @SerializedName("cursor")
+    private String cursor;
+
+    /**
+     * @return Users added or updated since the cursor
+     */
+    public List<ApiResponse> getUsers() {
+        return users;
+    }
+
+    /**
+     * @return Ids of users deleted since the cursor
+     */
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return Cursor for the next request
+     */
+    public String getCursor() {
+        return cursor;
+    }
+}
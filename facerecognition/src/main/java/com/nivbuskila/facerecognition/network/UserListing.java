@@ -0,0 +1,79 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.nivbuskila.facerecognition.api.UserConsumer;
+import com.nivbuskila.facerecognition.models.UserRecord;
+
+import java.io.IOException;
+
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+/**
+ * Walks the user listing page by page, streaming each page from the network and handing the
+ * users to a {@link UserConsumer} as they are parsed. Memory use depends on the page's
+ * largest user, not on the number of users. Servers that ignore the paging parameters and
+ * return one plain array are read as a single page.
+ */
+public class UserListing {
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    private static final String SYNC_CURSOR_HEADER = "X-Sync-Cursor";
+
+    private final ApiService apiService;
+    private final int pageSize;
+    private final boolean includeFaceData;
+    private String syncCursor;
+
+    /**
+     * @param pageSize Users per request
+     * @param includeFaceData Whether to parse each user's faceData; otherwise it is skipped
+     */
+    public UserListing(ApiService apiService, int pageSize, boolean includeFaceData) {
+        this.apiService = apiService;
+        this.pageSize = pageSize;
+        this.includeFaceData = includeFaceData;
+    }
+
+    /**
+     * @return Number of users passed to the consumer
+     * @throws HttpException if the server answered with an error
+     */
+    public int forEach(String authHeader, UserConsumer consumer) throws IOException {
+        int count = 0;
+        String cursor = null;
+        do {
+            Response<ResponseBody> response =
+                    apiService.getUsersPage(authHeader, pageSize, cursor).execute();
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new HttpException(response);
+            }
+            if (cursor == null) {
+                syncCursor = response.headers().get(SYNC_CURSOR_HEADER);
+            }
+            String next;
+            try (UserPageReader reader = new UserPageReader(response.body(), includeFaceData)) {
+                while (reader.hasNext()) {
+                    UserRecord user = reader.next();
+                    if (user.getUserId() == null) {
+                        continue;
+                    }
+                    count++;
+                    if (!consumer.onUser(user, reader.getFaceData())) {
+                        return count;
+                    }
+                }
+                next = reader.finish();
+            }
+            // A server repeating the cursor would otherwise loop forever
+            cursor = next != null && !next.equals(cursor) ? next : null;
+        } while (cursor != null);
+        return count;
+    }
+
+    /**
+     * @return Sync cursor the server sent with the first page, if any
+     */
+    public String getSyncCursor() {
+        return syncCursor;
+    }
+}
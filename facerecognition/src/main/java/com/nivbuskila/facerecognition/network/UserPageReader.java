@@ -0,0 +1,122 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.nivbuskila.facerecognition.models.UserRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import okhttp3.ResponseBody;
+
+/**
+ * Reads one page of the user listing element by element. Accepts either a bare JSON array or
+ * an object with a {@code users} array and a {@code nextCursor}. Fields other than the listing
+ * fields are skipped without being materialized, faceData too unless it was requested.
+ */
+class UserPageReader implements Closeable {
+    private final JsonReader reader;
+    private final boolean includeFaceData;
+    private boolean wrapped;
+    private String nextCursor;
+    private String faceData;
+
+    UserPageReader(ResponseBody body, boolean includeFaceData) throws IOException {
+        this.reader = new JsonReader(body.charStream());
+        this.includeFaceData = includeFaceData;
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            return;
+        }
+        wrapped = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("users")) {
+                reader.beginArray();
+                return;
+            }
+            readEnvelopeField(name);
+        }
+        throw new IOException("User listing has no users array");
+    }
+
+    boolean hasNext() throws IOException {
+        return reader.hasNext();
+    }
+
+    UserRecord next() throws IOException {
+        String userId = null;
+        String id = null;
+        String createdAt = null;
+        faceData = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "userId":
+                    userId = reader.nextString();
+                    break;
+                case "_id":
+                    id = reader.nextString();
+                    break;
+                case "created_at":
+                    createdAt = reader.nextString();
+                    break;
+                case "faceData":
+                    if (includeFaceData) {
+                        faceData = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new UserRecord(userId, id, createdAt);
+    }
+
+    /**
+     * @return faceData of the user last returned by {@link #next()}, if requested
+     */
+    String getFaceData() {
+        return faceData;
+    }
+
+    /**
+     * Read past the array to the end of the page
+     * @return Cursor of the next page, or null if this was the last one
+     */
+    String finish() throws IOException {
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+        if (wrapped) {
+            while (reader.hasNext()) {
+                readEnvelopeField(reader.nextName());
+            }
+            reader.endObject();
+        }
+        return nextCursor;
+    }
+
+    private void readEnvelopeField(String name) throws IOException {
+        if (name.equals("nextCursor") && reader.peek() == JsonToken.STRING) {
+            nextCursor = reader.nextString();
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,43 @@
+package com.nivbuskila.facerecognition.outbox;
+
+import com.nivbuskila.facerecognition.network.ImageSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encoded image stored by the outbox, streamed from its file on every write
+ */
+class JournalImage implements ImageSource {
+    private final File file;
+    private final String mimeType;
+
+    JournalImage(File file, String mimeType) {
+        this.file = file;
+        this.mimeType = mimeType;
+    }
+
+    @Override
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    @Override
+    public long contentLength() {
+        return file.length();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.nivbuskila.facerecognition.outbox;
+
+import com.nivbuskila.facerecognition.network.ImageSource;
+
+import java.io.File;
+
+/**
+ * A register, update or delete waiting in the {@link MutationOutbox}. The image of a register
+ * or update is kept encoded in a file next to the journal.
+ */
+public final class Mutation {
+    public enum Type {
+        REGISTER,
+        UPDATE,
+        DELETE
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final String userId;
+    private final String mimeType;
+    private final File imageFile;
+    private final String idempotencyKey;
+    // Guarded by the outbox
+    private int attempts;
+
+    Mutation(long sequence, Type type, String userId, String mimeType, File imageFile,
+             String idempotencyKey, int attempts) {
+        this.sequence = sequence;
+        this.type = type;
+        this.userId = userId;
+        this.mimeType = mimeType;
+        this.imageFile = imageFile;
+        this.idempotencyKey = idempotencyKey;
+        this.attempts = attempts;
+    }
+
+    public long getSequence() { return sequence; }
+    public Type getType() { return type; }
+    public String getUserId() { return userId; }
+
+    /**
+     * @return Number of times the mutation was handed to the server so far
+     */
+    public int getAttempts() { return attempts; }
+
+    /**
+     * @return Idempotency-Key sent with every attempt, kept in the journal across restarts
+     */
+    public String getIdempotencyKey() { return idempotencyKey; }
+
+    /**
+     * @return The encoded image to upload, or null for a delete
+     */
+    public ImageSource getImage() {
+        return imageFile != null ? new JournalImage(imageFile, mimeType) : null;
+    }
+
+    /**
+     * @return Size of the stored image in bytes, 0 for a delete
+     */
+    public long getImageBytes() {
+        return imageFile != null ? imageFile.length() : 0;
+    }
+
+    String getMimeType() {
+        return mimeType;
+    }
+
+    File getImageFile() {
+        return imageFile;
+    }
+
+    /**
+     * Count an attempt to send the write
+     */
+    void attempted() {
+        attempts++;
+    }
+
+    /**
+     * The same write with another type, e.g. a register that takes the image of an update
+     */
+    Mutation withType(Type type) {
+        return new Mutation(sequence, type, userId, mimeType, imageFile, idempotencyKey,
+                attempts);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + userId + " #" + sequence;
+    }
+}
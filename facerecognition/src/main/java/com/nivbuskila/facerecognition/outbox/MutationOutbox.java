@@ -0,0 +1,707 @@
+package com.nivbuskila.facerecognition.outbox;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.nivbuskila.facerecognition.models.ErrorCode;
+import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
+import com.nivbuskila.facerecognition.network.ImageSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable queue of register, update and delete calls. A write is appended to a journal on
+ * disk, with its encoded image in a file of its own, and acknowledged at once; the outbox
+ * sends it later, in the order the writes were made, whenever there is a session and a
+ * network.
+ * <p>
+ * Writes for the same user are coalesced while they wait: a newer update replaces an older
+ * one, a delete replaces the updates before it, an update folds into a register that was
+ * never sent, and a delete cancels such a register altogether.
+ * <p>
+ * Replay sends up to {@code batchSize} writes at a time, each for a different user, and
+ * starts the next batch when the current one is done. A write the server rejects for good
+ * (a 4xx other than 401, 408 and 429) is dropped and reported to the {@link Listener}; a
+ * network error, an open circuit, a missing session or a 5xx stops the replay until the
+ * network comes back or a backoff delay has passed.
+ * <p>
+ * The journal is a text file of {@code ADD}, {@code TRY} and {@code DEL} lines, rewritten
+ * with only the pending writes on startup and whenever stale lines outnumber them. Each
+ * write's idempotency key is kept in its ADD line, so every attempt sends the same key, even
+ * after a restart.
+ */
+public class MutationOutbox {
+    private static final String TAG = "MutationOutbox";
+    private static final String JOURNAL = "journal";
+    private static final String IMAGE_SUFFIX = ".img";
+    private static final int COMPACT_MIN_LINES = 64;
+    private static final long MIN_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Sends one write to the server and returns its result
+     */
+    public interface Sender {
+        FaceRecognitionResult send(Mutation mutation);
+    }
+
+    /**
+     * Outcome of replayed writes, called on the outbox thread
+     */
+    public interface Listener {
+        void onReplayed(Mutation mutation, FaceRecognitionResult result);
+
+        /**
+         * The server rejected the write and it was removed from the outbox
+         */
+        void onDropped(Mutation mutation, FaceRecognitionResult result);
+    }
+
+    private enum Outcome {
+        SENT,
+        DROPPED,
+        RETRY
+    }
+
+    private final File directory;
+    private final File journalFile;
+    private final int batchSize;
+    private final ExecutorService sendExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Long, Mutation> pending = new LinkedHashMap<>();
+    private final Set<Long> inFlight = new HashSet<>();
+    private volatile Sender sender;
+    private volatile Listener listener;
+    private boolean loaded;
+    private boolean started;
+    private boolean draining;
+    private long nextSequence = 1;
+    private int journalLines;
+    private int failedRuns;
+    private ScheduledFuture<?> retry;
+    private long replayed;
+    private long dropped;
+    private double lastReplayPerSecond;
+    private double lastReplayBytesPerSecond;
+
+    /**
+     * @param directory    Directory of the journal and the stored images; read on first use
+     * @param batchSize    Number of writes sent at the same time during replay
+     * @param sendExecutor Executor the writes of a batch are sent on
+     */
+    public MutationOutbox(File directory, int batchSize, ExecutorService sendExecutor) {
+        this.directory = directory;
+        this.journalFile = new File(directory, JOURNAL);
+        this.batchSize = Math.max(1, batchSize);
+        this.sendExecutor = sendExecutor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FaceRecognition-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start replaying with this sender, now and whenever a network becomes available.
+     * Only the first call has an effect.
+     */
+    public void start(Context context, Sender sender) {
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            started = true;
+            this.sender = sender;
+        }
+        ConnectivityManager connectivity =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity != null) {
+            try {
+                connectivity.registerNetworkCallback(new NetworkRequest.Builder()
+                                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                                .build(),
+                        new ConnectivityManager.NetworkCallback() {
+                            @Override
+                            public void onAvailable(Network network) {
+                                replay();
+                            }
+                        });
+            } catch (SecurityException e) {
+                Log.w(TAG, "Cannot watch connectivity, replaying on writes and logins only", e);
+            }
+        }
+        replay();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Store a write and schedule its replay. The image, if any, is written to disk before
+     * this returns, so the write survives a restart.
+     * @param image Encoded image of a register or update, null for a delete
+     * @return The stored write, or null if it cancelled out a pending one
+     */
+    public Mutation add(Mutation.Type type, String userId, ImageSource image) throws IOException {
+        long sequence;
+        synchronized (this) {
+            ensureLoaded();
+            sequence = nextSequence++;
+        }
+        File imageFile = null;
+        String mimeType = null;
+        if (image != null) {
+            imageFile = new File(directory, sequence + IMAGE_SUFFIX);
+            mimeType = image.getMimeType();
+            writeImage(image, imageFile);
+        }
+        Mutation stored;
+        try {
+            stored = store(new Mutation(sequence, type, userId, mimeType, imageFile,
+                    UUID.randomUUID().toString(), 0));
+        } catch (IOException e) {
+            deleteImage(imageFile);
+            throw e;
+        }
+        Log.d(TAG, stored != null ? "Queued " + stored : type + " " + userId
+                + " cancelled a pending register");
+        replay();
+        return stored;
+    }
+
+    /**
+     * Send pending writes now, unless a replay is already running
+     */
+    public void replay() {
+        synchronized (this) {
+            if (retry != null) {
+                retry.cancel(false);
+                retry = null;
+            }
+            if (draining || sender == null) {
+                return;
+            }
+            draining = true;
+        }
+        scheduler.execute(this::drain);
+    }
+
+    /**
+     * @return Pending writes in replay order
+     */
+    public synchronized List<Mutation> getPending() {
+        ensureLoaded();
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * @return Queue depth and replay counters
+     */
+    public synchronized Stats getStats() {
+        ensureLoaded();
+        long bytes = 0;
+        for (Mutation mutation : pending.values()) {
+            bytes += mutation.getImageBytes();
+        }
+        return new Stats(pending.size(), bytes, replayed, dropped, lastReplayPerSecond,
+                lastReplayBytesPerSecond);
+    }
+
+    /**
+     * Coalesce a new write with the pending writes of its user and journal the result
+     * @return The write to send, or null if nothing is left to send
+     */
+    private synchronized Mutation store(Mutation mutation) throws IOException {
+        Mutation next = mutation;
+        while (next != null) {
+            Mutation last = lastPending(next.getUserId());
+            if (last == null || inFlight.contains(last.getSequence())) {
+                break;
+            }
+            boolean unsentRegister = last.getType() == Mutation.Type.REGISTER
+                    && last.getAttempts() == 0;
+            if (next.getType() == Mutation.Type.UPDATE) {
+                if (last.getType() == Mutation.Type.UPDATE) {
+                    remove(last);
+                } else if (unsentRegister) {
+                    remove(last);
+                    next = next.withType(Mutation.Type.REGISTER);
+                } else {
+                    break;
+                }
+            } else if (next.getType() == Mutation.Type.DELETE) {
+                if (last.getType() != Mutation.Type.REGISTER) {
+                    remove(last);
+                } else if (unsentRegister) {
+                    remove(last);
+                    next = null;
+                } else {
+                    break;
+                }
+            } else {
+                break;
+            }
+        }
+        if (next == null) {
+            deleteImage(mutation.getImageFile());
+        } else {
+            appendJournal(addLine(next));
+            pending.put(next.getSequence(), next);
+        }
+        compactIfNeeded();
+        return next;
+    }
+
+    private Mutation lastPending(String userId) {
+        Mutation last = null;
+        for (Mutation mutation : pending.values()) {
+            if (mutation.getUserId().equals(userId)) {
+                last = mutation;
+            }
+        }
+        return last;
+    }
+
+    private void drain() {
+        long start = SystemClock.elapsedRealtime();
+        int sent = 0;
+        long sentBytes = 0;
+        try {
+            while (true) {
+                List<Mutation> batch = nextBatch();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                List<Future<FaceRecognitionResult>> results = new ArrayList<>(batch.size());
+                for (Mutation mutation : batch) {
+                    Sender current = sender;
+                    results.add(sendExecutor.submit(() -> current.send(mutation)));
+                }
+                boolean stop = false;
+                for (int i = 0; i < batch.size(); i++) {
+                    Mutation mutation = batch.get(i);
+                    FaceRecognitionResult result = await(results.get(i));
+                    Outcome outcome = outcome(mutation, result);
+                    finish(mutation, outcome);
+                    if (outcome == Outcome.RETRY) {
+                        Log.d(TAG, "Replay of " + mutation + " failed: " + result.getError());
+                        stop = true;
+                        continue;
+                    }
+                    sent++;
+                    sentBytes += mutation.getImageBytes();
+                    Listener current = listener;
+                    if (outcome == Outcome.SENT) {
+                        if (current != null) {
+                            current.onReplayed(mutation, result);
+                        }
+                    } else {
+                        Log.w(TAG, "Dropping " + mutation + ": " + result.getError());
+                        if (current != null) {
+                            current.onDropped(mutation, result);
+                        }
+                    }
+                }
+                if (stop) {
+                    scheduleRetry();
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Replay failed", e);
+            synchronized (this) {
+                inFlight.clear();
+            }
+            scheduleRetry();
+        } finally {
+            if (sent > 0) {
+                recordThroughput(sent, sentBytes, SystemClock.elapsedRealtime() - start);
+            }
+        }
+    }
+
+    /**
+     * Take the next writes to send: pending writes in order, up to the batch size and up to
+     * the first one for a user already in the batch. Ends the replay if there are none.
+     */
+    private synchronized List<Mutation> nextBatch() {
+        ensureLoaded();
+        List<Mutation> batch = new ArrayList<>(batchSize);
+        Set<String> users = new HashSet<>();
+        for (Mutation mutation : pending.values()) {
+            if (batch.size() >= batchSize || !users.add(mutation.getUserId())) {
+                break;
+            }
+            batch.add(mutation);
+        }
+        for (Mutation mutation : batch) {
+            inFlight.add(mutation.getSequence());
+            mutation.attempted();
+            appendJournalQuietly("TRY " + mutation.getSequence());
+        }
+        if (batch.isEmpty()) {
+            draining = false;
+        }
+        return batch;
+    }
+
+    private synchronized void finish(Mutation mutation, Outcome outcome) {
+        inFlight.remove(mutation.getSequence());
+        if (outcome == Outcome.RETRY) {
+            return;
+        }
+        if (outcome == Outcome.SENT) {
+            replayed++;
+            failedRuns = 0;
+        } else {
+            dropped++;
+        }
+        try {
+            remove(mutation);
+        } catch (IOException e) {
+            // Sent again after a restart; the server sees the same write twice
+            Log.e(TAG, "Could not journal the removal of " + mutation, e);
+        }
+        compactIfNeeded();
+    }
+
+    private synchronized void scheduleRetry() {
+        draining = false;
+        failedRuns++;
+        long delay = Math.min(MAX_BACKOFF_MILLIS,
+                MIN_BACKOFF_MILLIS << Math.min(failedRuns - 1, 16));
+        Log.d(TAG, pending.size() + " writes pending, retrying in " + delay + " ms");
+        retry = scheduler.schedule(this::replay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void recordThroughput(int sent, long bytes, long millis) {
+        double seconds = Math.max(1, millis) / 1000.0;
+        lastReplayPerSecond = sent / seconds;
+        lastReplayBytesPerSecond = bytes / seconds;
+        Log.d(TAG, "Replayed " + sent + " writes in " + millis + " ms");
+    }
+
+    private static Outcome outcome(Mutation mutation, FaceRecognitionResult result) {
+        if (result.isSuccess()) {
+            return Outcome.SENT;
+        }
+        ErrorCode code = result.getErrorCode();
+        if (code != ErrorCode.HTTP) {
+            // Network, open circuit or no session: try again later. Anything else, such as
+            // an unreadable image, will not get better.
+            return code == ErrorCode.UNKNOWN ? Outcome.DROPPED : Outcome.RETRY;
+        }
+        int status = result.getHttpStatus();
+        if (status == 404 && mutation.getType() == Mutation.Type.DELETE) {
+            return Outcome.SENT;
+        }
+        if (status == 409 && mutation.getType() == Mutation.Type.REGISTER
+                && mutation.getAttempts() > 1) {
+            // An earlier attempt got through but its response was lost
+            return Outcome.SENT;
+        }
+        if (status == 401 || status == 408 || status == 429 || status >= 500) {
+            return Outcome.RETRY;
+        }
+        return Outcome.DROPPED;
+    }
+
+    private static FaceRecognitionResult await(Future<FaceRecognitionResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed("Interrupted", ErrorCode.NETWORK);
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Sender failed", e.getCause());
+            return failed("Replay error: " + e.getCause(), ErrorCode.UNKNOWN);
+        }
+    }
+
+    private static FaceRecognitionResult failed(String error, ErrorCode code) {
+        return new FaceRecognitionResult.Builder()
+                .setSuccess(false)
+                .setError(error)
+                .setErrorCode(code)
+                .build();
+    }
+
+    private void remove(Mutation mutation) throws IOException {
+        pending.remove(mutation.getSequence());
+        appendJournal("DEL " + mutation.getSequence());
+        deleteImage(mutation.getImageFile());
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Cannot create " + directory);
+            return;
+        }
+        if (journalFile.isFile()) {
+            readJournal();
+        }
+        deleteUnreferencedImages();
+        try {
+            rewriteJournal();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not compact the journal", e);
+        }
+        if (!pending.isEmpty()) {
+            Log.d(TAG, pending.size() + " writes pending from an earlier session");
+        }
+    }
+
+    private void readJournal() {
+        String content;
+        try (FileInputStream in = new FileInputStream(journalFile)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            content = bytes.toString("UTF-8");
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read the journal", e);
+            return;
+        }
+        int start = 0;
+        int end;
+        while ((end = content.indexOf('\n', start)) >= 0) {
+            String line = content.substring(start, end);
+            start = end + 1;
+            if (!applyLine(line)) {
+                Log.w(TAG, "Ignoring malformed journal line: " + line);
+                break;
+            }
+        }
+        if (start < content.length()) {
+            // Lines are written with their newline, so a line without one was torn by a
+            // crash, possibly inside a field that would still parse
+            Log.w(TAG, "Ignoring torn journal line: " + content.substring(start));
+        }
+    }
+
+    private boolean applyLine(String line) {
+        String[] parts = line.split(" ", -1);
+        try {
+            long sequence = Long.parseLong(parts[1]);
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            switch (parts[0]) {
+                case "ADD": {
+                    Mutation.Type type = Mutation.Type.valueOf(parts[2]);
+                    int attempts = Integer.parseInt(parts[3]);
+                    String mimeType = "-".equals(parts[4]) ? null : parts[4];
+                    String userId = URLDecoder.decode(parts[5], "UTF-8");
+                    // Journals written before keys were stored have none
+                    String idempotencyKey = parts.length > 6
+                            ? parts[6] : UUID.randomUUID().toString();
+                    File imageFile = null;
+                    if (type != Mutation.Type.DELETE) {
+                        imageFile = new File(directory, sequence + IMAGE_SUFFIX);
+                        if (!imageFile.isFile()) {
+                            Log.w(TAG, "Image of " + type + " " + userId + " is missing");
+                            return true;
+                        }
+                    }
+                    pending.put(sequence, new Mutation(sequence, type, userId, mimeType,
+                            imageFile, idempotencyKey, attempts));
+                    return true;
+                }
+                case "TRY": {
+                    Mutation mutation = pending.get(sequence);
+                    if (mutation != null) {
+                        mutation.attempted();
+                    }
+                    return true;
+                }
+                case "DEL":
+                    pending.remove(sequence);
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (RuntimeException | UnsupportedEncodingException e) {
+            return false;
+        }
+    }
+
+    private void deleteUnreferencedImages() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<File> referenced = new HashSet<>();
+        for (Mutation mutation : pending.values()) {
+            referenced.add(mutation.getImageFile());
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(IMAGE_SUFFIX) && !referenced.contains(file)) {
+                deleteImage(file);
+            }
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (journalLines < COMPACT_MIN_LINES || journalLines < 2 * pending.size()) {
+            return;
+        }
+        try {
+            rewriteJournal();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not compact the journal", e);
+        }
+    }
+
+    /**
+     * Replace the journal with one ADD line per pending write
+     */
+    private void rewriteJournal() throws IOException {
+        File temp = new File(directory, JOURNAL + ".tmp");
+        StringBuilder content = new StringBuilder();
+        for (Mutation mutation : pending.values()) {
+            content.append(addLine(mutation));
+        }
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(content.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(journalFile)) {
+            throw new IOException("Cannot replace " + journalFile);
+        }
+        journalLines = pending.size();
+    }
+
+    private static String addLine(Mutation mutation) throws UnsupportedEncodingException {
+        return "ADD " + mutation.getSequence() + " " + mutation.getType() + " "
+                + mutation.getAttempts() + " "
+                + (mutation.getMimeType() != null ? mutation.getMimeType() : "-") + " "
+                + URLEncoder.encode(mutation.getUserId(), "UTF-8") + " "
+                + mutation.getIdempotencyKey() + "\n";
+    }
+
+    private void appendJournal(String line) throws IOException {
+        String text = line.endsWith("\n") ? line : line + "\n";
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        journalLines++;
+    }
+
+    private void appendJournalQuietly(String line) {
+        try {
+            appendJournal(line);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not journal " + line, e);
+        }
+    }
+
+    private static void writeImage(ImageSource image, File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            image.writeTo(out);
+            out.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            deleteImage(file);
+            throw e;
+        }
+    }
+
+    private static void deleteImage(File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    /**
+     * Queue depth and replay counters of an outbox
+     */
+    public static final class Stats {
+        private final int pending;
+        private final long pendingBytes;
+        private final long replayed;
+        private final long dropped;
+        private final double lastReplayPerSecond;
+        private final double lastReplayBytesPerSecond;
+
+        Stats(int pending, long pendingBytes, long replayed, long dropped,
+              double lastReplayPerSecond, double lastReplayBytesPerSecond) {
+            this.pending = pending;
+            this.pendingBytes = pendingBytes;
+            this.replayed = replayed;
+            this.dropped = dropped;
+            this.lastReplayPerSecond = lastReplayPerSecond;
+            this.lastReplayBytesPerSecond = lastReplayBytesPerSecond;
+        }
+
+        /**
+         * @return Number of writes waiting to be sent
+         */
+        public int getPending() { return pending; }
+
+        /**
+         * @return Size of the images of the waiting writes
+         */
+        public long getPendingBytes() { return pendingBytes; }
+
+        /**
+         * @return Writes sent successfully since the process started
+         */
+        public long getReplayed() { return replayed; }
+
+        /**
+         * @return Writes rejected by the server and removed since the process started
+         */
+        public long getDropped() { return dropped; }
+
+        /**
+         * @return Writes per second of the last replay, 0 before the first one
+         */
+        public double getLastReplayPerSecond() { return lastReplayPerSecond; }
+
+        /**
+         * @return Image bytes per second of the last replay
+         */
+        public double getLastReplayBytesPerSecond() { return lastReplayBytesPerSecond; }
+
+        @Override
+        public String toString() {
+            return pending + " pending (" + pendingBytes + " bytes), " + replayed
+                    + " replayed, " + dropped + " dropped, "
+                    + String.format(Locale.US, "%.1f", lastReplayPerSecond) + "/s";
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.nivbuskila.facerecognition;
+
+import com.nivbuskila.facerecognition.models.ErrorCode;
+import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
+import com.nivbuskila.facerecognition.network.FaceRecognitionClient;
+import com.nivbuskila.facerecognition.network.HttpLogLevel;
+import com.nivbuskila.facerecognition.network.RetryPolicy;
+import com.nivbuskila.facerecognition.network.SessionManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A deadline bounds a call as a whole: slow bodies, retries and backoff all count against it.
+ */
+public class DeadlineTest {
+    private static final String USERS = users(40);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        SessionManager.getInstance().setToken("token", 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SessionManager.getInstance().clear();
+        server.shutdown();
+    }
+
+    @Test
+    public void throttledResponseExceedsTheDeadline() {
+        server.enqueue(new MockResponse().setBody(USERS)
+                .throttleBody(64, 100, TimeUnit.MILLISECONDS));
+        FaceRecognition faceRecognition = newFaceRecognition(RetryPolicy.NONE, 10_000)
+                .withDeadline(300, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        FaceRecognitionResult result = faceRecognition.getUsers();
+
+        assertFalse(result.isSuccess());
+        assertEquals(ErrorCode.DEADLINE_EXCEEDED, result.getErrorCode());
+        assertTrue(millisSince(start) + " ms", millisSince(start) < 2000);
+    }
+
+    @Test
+    public void asyncCallReportsTheDeadline() throws Exception {
+        server.enqueue(new MockResponse().setBody(USERS)
+                .setHeadersDelay(2, TimeUnit.SECONDS));
+        FaceRecognition faceRecognition = newFaceRecognition(RetryPolicy.NONE, 10_000)
+                .withDeadline(300, TimeUnit.MILLISECONDS);
+        FaceRecognitionResult[] result = new FaceRecognitionResult[1];
+        CountDownLatch done = new CountDownLatch(1);
+
+        faceRecognition.getUsersAsync(r -> {
+            result[0] = r;
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(ErrorCode.DEADLINE_EXCEEDED, result[0].getErrorCode());
+    }
+
+    @Test
+    public void retryOnlyGetsTheRemainingBudget() {
+        server.enqueue(new MockResponse().setResponseCode(503)
+                .setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        // Within the deadline on its own, but not after the first attempt and the backoff
+        server.enqueue(new MockResponse().setBody(USERS)
+                .setHeadersDelay(400, TimeUnit.MILLISECONDS));
+        RetryPolicy retries = new RetryPolicy.Builder()
+                .setBackoff(100, 100, TimeUnit.MILLISECONDS)
+                .build();
+        FaceRecognition faceRecognition = newFaceRecognition(retries, 10_000)
+                .withDeadline(600, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        FaceRecognitionResult result = faceRecognition.getUsers();
+
+        assertEquals(ErrorCode.DEADLINE_EXCEEDED, result.getErrorCode());
+        assertEquals(2, server.getRequestCount());
+        assertTrue(millisSince(start) + " ms", millisSince(start) < 1000);
+    }
+
+    @Test
+    public void socketTimeoutIsANetworkError() {
+        server.enqueue(new MockResponse().setBody(USERS)
+                .setHeadersDelay(1, TimeUnit.SECONDS));
+        FaceRecognition faceRecognition = newFaceRecognition(RetryPolicy.NONE, 200)
+                .withDeadline(5, TimeUnit.SECONDS);
+
+        FaceRecognitionResult result = faceRecognition.getUsers();
+
+        assertEquals(ErrorCode.NETWORK, result.getErrorCode());
+    }
+
+    private FaceRecognition newFaceRecognition(RetryPolicy retryPolicy, long readTimeoutMillis) {
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(retryPolicy)
+                .setReadTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .setPersistentUserDirectory(false)
+                .build();
+        FaceRecognitionClient client =
+                new FaceRecognitionClient(new TestContext(folder.getRoot()), config);
+        FaceRecognition faceRecognition = new FaceRecognition(client.getContext(), client);
+        faceRecognition.setCallbackExecutor(Runnable::run);
+        return faceRecognition;
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static String users(int count) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"userId\":\"user").append(i).append("\"}");
+        }
+        return json.append(']').toString();
+    }
+}
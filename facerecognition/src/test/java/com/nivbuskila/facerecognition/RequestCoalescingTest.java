@@ -0,0 +1,135 @@
+package com.nivbuskila.facerecognition;
+
+import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
+import com.nivbuskila.facerecognition.network.FaceRecognitionClient;
+import com.nivbuskila.facerecognition.network.HttpLogLevel;
+import com.nivbuskila.facerecognition.network.RetryPolicy;
+import com.nivbuskila.facerecognition.network.SessionManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Identical reads issued while one is in flight share its request. The stand-in server holds
+ * its answer back long enough for every caller to join.
+ */
+public class RequestCoalescingTest {
+    private static final int CALLERS = 8;
+    private static final String USERS = "[{\"userId\":\"alice\"},{\"userId\":\"bob\"}]";
+    private static final String IMAGE =
+            "{\"userId\":\"alice\",\"faceData\":\"data:image/jpeg;base64,AAAA\"}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private FaceRecognition faceRecognition;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        SessionManager.getInstance().setToken("token", 0);
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(RetryPolicy.NONE)
+                .setCircuitBreakerPolicy(null)
+                .setPersistentUserDirectory(false)
+                .build();
+        FaceRecognitionClient client =
+                new FaceRecognitionClient(new TestContext(folder.getRoot()), config);
+        faceRecognition = new FaceRecognition(client.getContext(), client);
+        faceRecognition.setCallbackExecutor(Runnable::run);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SessionManager.getInstance().clear();
+        server.shutdown();
+    }
+
+    @Test
+    public void concurrentBlockingReadsShareOneRequest() throws Exception {
+        enqueueSlow(USERS);
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<FaceRecognitionResult>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(callers.submit(() -> {
+                    start.await();
+                    return faceRecognition.getUsers();
+                }));
+            }
+            start.countDown();
+
+            for (Future<FaceRecognitionResult> result : results) {
+                assertTrue(result.get(10, TimeUnit.SECONDS).isSuccess());
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void concurrentAsyncReadsShareOneRequest() throws Exception {
+        enqueueSlow(IMAGE);
+        CountDownLatch done = new CountDownLatch(CALLERS);
+        List<FaceRecognitionResult> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            faceRecognition.getUserImageAsync("alice", result -> {
+                synchronized (results) {
+                    results.add(result);
+                }
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, server.getRequestCount());
+        for (FaceRecognitionResult result : results) {
+            assertTrue(result.isSuccess());
+        }
+    }
+
+    @Test
+    public void laterReadsAfterTheFlightSendTheirOwnRequest() throws Exception {
+        server.enqueue(new MockResponse().setBody(USERS));
+        server.enqueue(new MockResponse().setBody(USERS));
+
+        assertTrue(faceRecognition.getUsers().isSuccess());
+        assertTrue(faceRecognition.getUsers().isSuccess());
+
+        assertEquals(2, server.getRequestCount());
+    }
+
+    /**
+     * One slow answer, plus fast ones so a request that was not coalesced is counted
+     * rather than left waiting
+     */
+    private void enqueueSlow(String body) {
+        server.enqueue(new MockResponse().setBody(body).setBodyDelay(500, TimeUnit.MILLISECONDS));
+        for (int i = 1; i < CALLERS; i++) {
+            server.enqueue(new MockResponse().setBody(body));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.nivbuskila.facerecognition;
+
+import com.nivbuskila.facerecognition.network.FaceRecognitionClient;
+import com.nivbuskila.facerecognition.network.HttpLogLevel;
+import com.nivbuskila.facerecognition.network.RetryPolicy;
+import com.nivbuskila.facerecognition.network.SessionManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharedTransportTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        SessionManager.getInstance().setToken("token", 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SessionManager.getInstance().clear();
+        server.shutdown();
+    }
+
+    @Test
+    public void instancesOfOneClientReuseItsConnection() throws Exception {
+        FaceRecognitionClient client = newClient();
+        server.enqueue(new MockResponse().setBody("[]"));
+        server.enqueue(new MockResponse().setBody("[]"));
+
+        assertTrue(new FaceRecognition(client.getContext(), client).getUsers().isSuccess());
+        assertTrue(new FaceRecognition(client.getContext(), client).getUsers().isSuccess());
+
+        // The sequence number counts the requests sent on the same connection
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void separateClientsOpenTheirOwnConnections() throws Exception {
+        server.enqueue(new MockResponse().setBody("[]"));
+        server.enqueue(new MockResponse().setBody("[]"));
+
+        FaceRecognitionClient first = newClient();
+        FaceRecognitionClient second = newClient();
+        assertTrue(new FaceRecognition(first.getContext(), first).getUsers().isSuccess());
+        assertTrue(new FaceRecognition(second.getContext(), second).getUsers().isSuccess());
+
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+    }
+
+    private FaceRecognitionClient newClient() {
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(RetryPolicy.NONE)
+                .setCircuitBreakerPolicy(null)
+                .setPersistentUserDirectory(false)
+                .build();
+        return new FaceRecognitionClient(new TestContext(folder.getRoot()), config);
+    }
+}
@@ -0,0 +1,34 @@
+package com.nivbuskila.facerecognition;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import java.io.File;
+
+/**
+ * Application context for local tests, whose cache and files directories are a temporary
+ * directory
+ */
+public class TestContext extends ContextWrapper {
+    private final File directory;
+
+    public TestContext(File directory) {
+        super(null);
+        this.directory = directory;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return directory;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return directory;
+    }
+}
@@ -0,0 +1,71 @@
+package com.nivbuskila.facerecognition.directory;
+
+import com.nivbuskila.facerecognition.directory.UserDirectory.Match;
+import com.nivbuskila.facerecognition.directory.UserDirectory.Order;
+import com.nivbuskila.facerecognition.models.UserRecord;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class InMemoryUserDirectoryTest {
+    private InMemoryUserDirectory directory;
+
+    @Before
+    public void setUp() {
+        directory = new InMemoryUserDirectory();
+        directory.replaceAll(Arrays.asList(
+                new UserRecord("alice", "1", "2024-01-03"),
+                new UserRecord("Albert", "2", "2024-01-01"),
+                new UserRecord("bob", "3", "2024-01-02"),
+                new UserRecord("malik", "4", null),
+                new UserRecord("al_x", "5", "2024-01-04")), "c1");
+    }
+
+    @Test
+    public void prefixSearchIgnoresCase() {
+        assertEquals(Arrays.asList("Albert", "al_x", "alice"),
+                ids(directory.search("AL", Match.PREFIX, Order.USER_ID, 0, 10)));
+        assertEquals(Arrays.asList("al_x"),
+                ids(directory.search("al_", Match.PREFIX, Order.USER_ID, 0, 10)));
+    }
+
+    @Test
+    public void substringSearchMatchesAnywhere() {
+        assertEquals(Arrays.asList("Albert", "al_x", "alice", "malik"),
+                ids(directory.search("al", Match.SUBSTRING, Order.USER_ID, 0, 10)));
+        assertEquals(Arrays.asList("alice", "malik"),
+                ids(directory.search("LI", Match.SUBSTRING, Order.USER_ID, 0, 10)));
+    }
+
+    @Test
+    public void emptyTextMatchesEveryone() {
+        assertEquals(5, directory.search("", Match.PREFIX, Order.USER_ID, 0, 10).size());
+        assertEquals(5, directory.search(null, Match.SUBSTRING, Order.USER_ID, 0, 10).size());
+    }
+
+    @Test
+    public void pagesThroughResultsInOrder() {
+        assertEquals(Arrays.asList("al_x", "alice"),
+                ids(directory.search("", Match.PREFIX, Order.NEWEST_FIRST, 0, 2)));
+        assertEquals(Arrays.asList("bob", "Albert"),
+                ids(directory.search("", Match.PREFIX, Order.NEWEST_FIRST, 2, 2)));
+        // Users without a date come last
+        assertEquals(Arrays.asList("malik"),
+                ids(directory.search("", Match.PREFIX, Order.NEWEST_FIRST, 4, 2)));
+        assertEquals(0, directory.search("", Match.PREFIX, Order.NEWEST_FIRST, 6, 2).size());
+    }
+
+    private static List<String> ids(List<UserRecord> users) {
+        List<String> ids = new ArrayList<>(users.size());
+        for (UserRecord user : users) {
+            ids.add(user.getUserId());
+        }
+        return ids;
+    }
+}
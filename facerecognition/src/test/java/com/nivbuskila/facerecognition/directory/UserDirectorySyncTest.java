@@ -0,0 +1,160 @@
+package com.nivbuskila.facerecognition.directory;
+
+import com.nivbuskila.facerecognition.TestContext;
+import com.nivbuskila.facerecognition.models.UserChangeSet;
+import com.nivbuskila.facerecognition.models.UserRecord;
+import com.nivbuskila.facerecognition.network.FaceRecognitionClient;
+import com.nivbuskila.facerecognition.network.HttpLogLevel;
+import com.nivbuskila.facerecognition.network.RetryPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import retrofit2.HttpException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UserDirectorySyncTest {
+    private static final String AUTH = "Bearer token";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private InMemoryUserDirectory directory;
+    private UserDirectorySync sync;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(RetryPolicy.NONE)
+                .setCircuitBreakerPolicy(null)
+                .setPersistentUserDirectory(false)
+                .build();
+        FaceRecognitionClient client =
+                new FaceRecognitionClient(new TestContext(folder.getRoot()), config);
+        directory = new InMemoryUserDirectory();
+        sync = new UserDirectorySync(client.getApiService(), directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void firstSyncListsEveryUserAndKeepsTheCursor() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("X-Sync-Cursor", "c1")
+                .setBody("{\"users\":[" + user("alice", "2024-01-01") + ","
+                        + user("bob", "2024-01-02") + "]}"));
+
+        UserChangeSet changes = sync.sync(AUTH);
+
+        assertTrue(changes.isFullResync());
+        assertEquals(2, changes.getAdded().size());
+        assertEquals("c1", directory.getCursor());
+        assertEquals("/api/users?limit=100", server.takeRequest().getPath());
+    }
+
+    @Test
+    public void fullListingWithoutCursorUsesNewestCreatedAt() throws Exception {
+        server.enqueue(new MockResponse().setBody("[" + user("alice", "2024-01-03") + ","
+                + user("bob", "2024-01-02") + "]"));
+
+        sync.sync(AUTH);
+
+        assertEquals("2024-01-03", directory.getCursor());
+    }
+
+    @Test
+    public void laterSyncOnlyAsksForChangesSinceTheCursor() throws Exception {
+        directory.replaceAll(Arrays.asList(new UserRecord("alice", "1", "2024-01-01"),
+                new UserRecord("bob", "2", "2024-01-02")), "c1");
+        server.enqueue(new MockResponse().setBody("{\"users\":[" + user("carol", "2024-01-03")
+                + "],\"deleted\":[\"alice\"],\"cursor\":\"c2\"}"));
+
+        UserChangeSet changes = sync.sync(AUTH);
+
+        assertFalse(changes.isFullResync());
+        assertEquals("carol", changes.getAdded().get(0).getUserId());
+        assertEquals(Collections.singletonList("alice"), changes.getRemoved());
+        assertEquals("c2", directory.getCursor());
+        assertNull(directory.get("alice"));
+        assertEquals("/api/users/changes?since=c1", server.takeRequest().getPath());
+    }
+
+    @Test
+    public void staleCursorFallsBackToFullListing() throws Exception {
+        directory.replaceAll(Arrays.asList(new UserRecord("alice", "1", "2024-01-01"),
+                new UserRecord("bob", "2", "2024-01-02")), "c1");
+        server.enqueue(new MockResponse().setResponseCode(410));
+        server.enqueue(new MockResponse().setHeader("X-Sync-Cursor", "c5")
+                .setBody("[" + user("bob", "2024-01-02") + "]"));
+
+        UserChangeSet changes = sync.sync(AUTH);
+
+        assertTrue(changes.isFullResync());
+        assertEquals(Collections.singletonList("alice"), changes.getRemoved());
+        assertTrue(changes.getAdded().isEmpty());
+        assertEquals("c5", directory.getCursor());
+        assertEquals("/api/users/changes?since=c1", server.takeRequest().getPath());
+        assertEquals("/api/users?limit=100", server.takeRequest().getPath());
+    }
+
+    @Test
+    public void missingChangesEndpointIsRememberedForTheSession() throws Exception {
+        directory.replaceAll(Collections.singletonList(new UserRecord("alice", "1", "2024-01-01")),
+                "c1");
+        server.enqueue(new MockResponse().setResponseCode(404));
+        server.enqueue(new MockResponse().setHeader("X-Sync-Cursor", "c2")
+                .setBody("[" + user("alice", "2024-01-01") + "]"));
+        server.enqueue(new MockResponse().setHeader("X-Sync-Cursor", "c3")
+                .setBody("[" + user("alice", "2024-01-01") + "]"));
+
+        sync.sync(AUTH);
+        UserChangeSet second = sync.sync(AUTH);
+
+        assertTrue(second.isEmpty());
+        assertEquals("/api/users/changes?since=c1", server.takeRequest().getPath());
+        assertEquals("/api/users?limit=100", server.takeRequest().getPath());
+        assertEquals("/api/users?limit=100", server.takeRequest().getPath());
+    }
+
+    @Test
+    public void otherErrorsAreThrownAndKeepTheMirror() throws Exception {
+        directory.replaceAll(Collections.singletonList(new UserRecord("alice", "1", "2024-01-01")),
+                "c1");
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        try {
+            sync.sync(AUTH);
+            fail("Expected an HttpException");
+        } catch (HttpException e) {
+            assertEquals(500, e.code());
+        }
+        assertEquals(1, directory.size());
+        assertEquals("c1", directory.getCursor());
+    }
+
+    private static String user(String userId, String createdAt) {
+        return "{\"userId\":\"" + userId + "\",\"_id\":\"" + userId.hashCode()
+                + "\",\"created_at\":\"" + createdAt + "\",\"faceData\":\"data:image/jpeg;base64,AAAA\"}";
+    }
+}
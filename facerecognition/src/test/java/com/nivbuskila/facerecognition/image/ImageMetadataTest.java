@@ -0,0 +1,186 @@
+package com.nivbuskila.facerecognition.image;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ImageMetadataTest {
+    private static final byte[] SOI = bytes(0xFF, 0xD8);
+    private static final byte[] APP0 = segment(0xE0, ascii("JFIF\0"), bytes(1, 1, 0, 0, 1, 0, 1, 0, 0));
+    private static final byte[] ICC = segment(0xE2, ascii("ICC_PROFILE\0"), bytes(1, 1, 0x42));
+    private static final byte[] DQT = segment(0xDB, bytes(0, 1, 2, 3, 4));
+    // Entropy-coded data with a stuffed FF00 and a restart marker before the end
+    private static final byte[] SCAN = concat(segment(0xDA, bytes(1, 1, 0, 0, 0x3F, 0)),
+            bytes(0x12, 0xFF, 0x00, 0x34, 0xFF, 0xD0, 0x56, 0xFF, 0xD9));
+
+    @Test
+    public void readsLittleEndianJpegOrientation() {
+        byte[] jpeg = concat(SOI, APP0, exifSegment(true, 6), DQT, SCAN);
+
+        assertEquals(6, ImageMetadata.readOrientation(jpeg));
+    }
+
+    @Test
+    public void readsBigEndianJpegOrientation() {
+        byte[] jpeg = concat(SOI, exifSegment(false, 8), DQT, SCAN);
+
+        assertEquals(8, ImageMetadata.readOrientation(jpeg));
+    }
+
+    @Test
+    public void readsWebpOrientation() {
+        byte[] webp = riff(chunk("VP8X", vp8x(0x08)), chunk("VP8 ", bytes(1, 2, 3)),
+                chunk("EXIF", concat(ascii("Exif\0\0"), tiff(false, 3))));
+
+        assertEquals(3, ImageMetadata.readOrientation(webp));
+    }
+
+    @Test
+    public void ignoresOutOfRangeOrientation() {
+        byte[] jpeg = concat(SOI, exifSegment(true, 9), SCAN);
+
+        assertEquals(ImageMetadata.ORIENTATION_NORMAL, ImageMetadata.readOrientation(jpeg));
+    }
+
+    @Test
+    public void stripsJpegMetadataAndKeepsColorProfile() {
+        byte[] jpeg = concat(SOI, APP0, exifSegment(true, 6), ICC,
+                segment(0xE2, ascii("MPF\0"), bytes(0, 0)), segment(0xED, ascii("Photoshop")),
+                segment(0xFE, ascii("comment")), DQT, SCAN);
+
+        assertArrayEquals(concat(SOI, APP0, ICC, DQT, SCAN), ImageMetadata.strip(jpeg));
+    }
+
+    @Test
+    public void truncatesMotionPhotoAtEndOfImage() {
+        byte[] video = concat(bytes(0, 0, 0, 0x18), ascii("ftypmp42"), bytes(0xFF, 0xD9, 7));
+        byte[] jpeg = concat(SOI, APP0, DQT, SCAN, video);
+
+        assertArrayEquals(concat(SOI, APP0, DQT, SCAN), ImageMetadata.strip(jpeg));
+    }
+
+    @Test
+    public void returnsCleanJpegUnchanged() {
+        byte[] jpeg = concat(SOI, APP0, ICC, DQT, SCAN);
+
+        assertSame(jpeg, ImageMetadata.strip(jpeg));
+    }
+
+    @Test
+    public void stripsWebpMetadataAndFixesHeader() {
+        byte[] icc = chunk("ICCP", bytes(9, 9));
+        byte[] image = chunk("VP8 ", bytes(1, 2, 3));
+        byte[] webp = riff(chunk("VP8X", vp8x(0x20 | 0x08 | 0x04)), icc, image,
+                chunk("EXIF", tiff(true, 6)), chunk("XMP ", ascii("<x:xmpmeta/>")));
+
+        byte[] expected = riff(chunk("VP8X", vp8x(0x20)), icc, image);
+        assertArrayEquals(expected, ImageMetadata.strip(webp));
+        assertEquals(expected.length - 8, u32le(expected, 4));
+    }
+
+    @Test
+    public void returnsMalformedInputUnchanged() {
+        byte[] jpeg = concat(SOI, APP0, exifSegment(true, 6), DQT, SCAN);
+        byte[] truncatedJpeg = Arrays.copyOf(jpeg, SOI.length + APP0.length + 10);
+        byte[] noScan = concat(SOI, APP0, bytes(0x12, 0x34));
+        byte[] webp = riff(chunk("VP8X", vp8x(0x08)), chunk("EXIF", tiff(true, 6)),
+                chunk("VP8 ", bytes(1, 2, 3)));
+        // Cut inside the EXIF chunk
+        byte[] truncatedWebp = Arrays.copyOf(webp, 12 + 18 + 12);
+        byte[] png = concat(bytes(0x89), ascii("PNG"), bytes(0x0D, 0x0A, 0x1A, 0x0A));
+
+        for (byte[] data : new byte[][] {truncatedJpeg, noScan, truncatedWebp, png, new byte[0]}) {
+            assertSame(data, ImageMetadata.strip(data));
+        }
+        assertEquals(ImageMetadata.ORIENTATION_NORMAL, ImageMetadata.readOrientation(truncatedJpeg));
+        assertEquals(ImageMetadata.ORIENTATION_NORMAL, ImageMetadata.readOrientation(truncatedWebp));
+    }
+
+    private static byte[] exifSegment(boolean littleEndian, int orientation) {
+        return segment(0xE1, ascii("Exif\0\0"), tiff(littleEndian, orientation));
+    }
+
+    /**
+     * TIFF header and one IFD holding a single SHORT orientation entry
+     */
+    private static byte[] tiff(boolean littleEndian, int orientation) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, ascii(littleEndian ? "II" : "MM"));
+        write(out, u16(42, littleEndian));
+        write(out, u32(8, littleEndian));
+        write(out, u16(1, littleEndian));
+        write(out, u16(0x0112, littleEndian));
+        write(out, u16(3, littleEndian));
+        write(out, u32(1, littleEndian));
+        write(out, u16(orientation, littleEndian));
+        write(out, bytes(0, 0));
+        write(out, u32(0, littleEndian));
+        return out.toByteArray();
+    }
+
+    private static byte[] segment(int marker, byte[]... payload) {
+        byte[] data = concat(payload);
+        return concat(bytes(0xFF, marker), u16(data.length + 2, false), data);
+    }
+
+    private static byte[] vp8x(int flags) {
+        return bytes(flags, 0, 0, 0, 9, 0, 0, 9, 0, 0);
+    }
+
+    private static byte[] chunk(String fourCc, byte[] payload) {
+        byte[] padding = new byte[payload.length & 1];
+        return concat(ascii(fourCc), u32(payload.length, true), payload, padding);
+    }
+
+    private static byte[] riff(byte[]... chunks) {
+        byte[] body = concat(chunks);
+        return concat(ascii("RIFF"), u32(body.length + 4, true), ascii("WEBP"), body);
+    }
+
+    private static byte[] u16(int value, boolean littleEndian) {
+        return littleEndian ? bytes(value, value >> 8) : bytes(value >> 8, value);
+    }
+
+    private static byte[] u32(long value, boolean littleEndian) {
+        byte[] data = bytes((int) (value >> 24), (int) (value >> 16), (int) (value >> 8), (int) value);
+        if (littleEndian) {
+            return bytes(data[3], data[2], data[1], data[0]);
+        }
+        return data;
+    }
+
+    private static int u32le(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8
+                | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            write(out, part);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] data) {
+        out.write(data, 0, data.length);
+    }
+}
@@ -0,0 +1,195 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.nivbuskila.facerecognition.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import retrofit2.Call;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerInterceptorTest {
+    private static final String AUTH = "Bearer token";
+    private static final long SLOW_MILLIS = 200;
+    private static final long OPEN_MILLIS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ExecutorService executor;
+    private FaceRecognitionClient client;
+    private ApiService api;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        executor = Executors.newCachedThreadPool();
+        client = newClient();
+        api = client.getApiService();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void isOffByDefault() {
+        assertNull(new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .build()
+                .getCircuitBreakerPolicy());
+    }
+
+    @Test
+    public void opensOnFailuresAndClosesAfterAProbe() throws Exception {
+        enqueueOk(2);
+        enqueueFailures(2);
+        for (int i = 0; i < 4; i++) {
+            getUsers();
+        }
+        assertEquals(CircuitBreakerInterceptor.State.OPEN, client.getCircuitState());
+
+        assertFailsFast();
+        assertEquals(4, server.getRequestCount());
+
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertEquals(CircuitBreakerInterceptor.State.HALF_OPEN, client.getCircuitState());
+        enqueueOk(1);
+        assertTrue(getUsers().isSuccessful());
+        assertEquals(CircuitBreakerInterceptor.State.CLOSED, client.getCircuitState());
+    }
+
+    @Test
+    public void failedProbeOpensAgain() throws Exception {
+        enqueueFailures(4);
+        for (int i = 0; i < 4; i++) {
+            getUsers();
+        }
+        Thread.sleep(OPEN_MILLIS + 50);
+
+        enqueueFailures(1);
+        assertEquals(503, getUsers().code());
+
+        assertEquals(CircuitBreakerInterceptor.State.OPEN, client.getCircuitState());
+        assertFailsFast();
+        assertEquals(5, server.getRequestCount());
+    }
+
+    @Test
+    public void opensOnSlowCalls() throws Exception {
+        enqueueOk(2);
+        for (int i = 0; i < 2; i++) {
+            server.enqueue(new MockResponse().setBody("[]")
+                    .setHeadersDelay(SLOW_MILLIS + 50, TimeUnit.MILLISECONDS));
+        }
+        for (int i = 0; i < 4; i++) {
+            assertTrue(getUsers().isSuccessful());
+        }
+
+        assertEquals(CircuitBreakerInterceptor.State.OPEN, client.getCircuitState());
+    }
+
+    @Test
+    public void letsOneProbeThroughAtATime() throws Exception {
+        enqueueFailures(4);
+        for (int i = 0; i < 4; i++) {
+            getUsers();
+        }
+        Thread.sleep(OPEN_MILLIS + 50);
+
+        server.enqueue(new MockResponse().setBody("[]")
+                .setHeadersDelay(500, TimeUnit.MILLISECONDS));
+        Future<retrofit2.Response<List<ApiResponse>>> probe = executor.submit(this::getUsers);
+        while (server.getRequestCount() < 5) {
+            Thread.sleep(10);
+        }
+
+        assertFailsFast();
+        assertTrue(probe.get(5, TimeUnit.SECONDS).isSuccessful());
+        assertEquals(CircuitBreakerInterceptor.State.CLOSED, client.getCircuitState());
+        assertEquals(5, server.getRequestCount());
+    }
+
+    @Test
+    public void doesNotCountCancelledCalls() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+            Call<List<ApiResponse>> call = api.getUsers(AUTH);
+            Future<?> running = executor.submit(() -> call.execute());
+            server.takeRequest(5, TimeUnit.SECONDS);
+            call.cancel();
+            try {
+                running.get(5, TimeUnit.SECONDS);
+                fail("Cancelled call succeeded");
+            } catch (ExecutionException expected) {
+                // Canceled
+            }
+        }
+
+        assertEquals(CircuitBreakerInterceptor.State.CLOSED, client.getCircuitState());
+        enqueueOk(1);
+        assertTrue(getUsers().isSuccessful());
+    }
+
+    private retrofit2.Response<List<ApiResponse>> getUsers() throws Exception {
+        return api.getUsers(AUTH).execute();
+    }
+
+    private void assertFailsFast() throws Exception {
+        try {
+            getUsers();
+            fail("Call went through an open breaker");
+        } catch (CircuitOpenException expected) {
+            // Not sent
+        }
+    }
+
+    private void enqueueOk(int count) {
+        for (int i = 0; i < count; i++) {
+            server.enqueue(new MockResponse().setBody("[]"));
+        }
+    }
+
+    private void enqueueFailures(int count) {
+        for (int i = 0; i < count; i++) {
+            server.enqueue(new MockResponse().setResponseCode(503));
+        }
+    }
+
+    private FaceRecognitionClient newClient() {
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(RetryPolicy.NONE)
+                .setCircuitBreakerPolicy(new CircuitBreakerPolicy.Builder()
+                        .setWindow(4, 4)
+                        .setFailureRateThreshold(0.5)
+                        .setSlowCalls(SLOW_MILLIS, TimeUnit.MILLISECONDS, 0.5)
+                        .setOpenDuration(OPEN_MILLIS, TimeUnit.MILLISECONDS)
+                        .build())
+                .setPersistentUserDirectory(false)
+                .build();
+        return new FaceRecognitionClient(new TestContext(folder.getRoot()), config);
+    }
+}
@@ -0,0 +1,149 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.nivbuskila.facerecognition.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+import retrofit2.Call;
+import retrofit2.Retrofit;
+import retrofit2.http.Body;
+import retrofit2.http.POST;
+import retrofit2.http.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionInterceptorTest {
+    // Repetitive like base64 image data, so it compresses well
+    private static final String FACE_DATA = repeat("/9j/4AAQSkZJRgABAQAAAQABAAD", 400);
+    private static final String BODY = "{\"userId\":\"alice\",\"faceData\":\"" + FACE_DATA + "\"}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void compressesEnabledEndpointOnTheWire() throws Exception {
+        JsonApi api = newApi(1024);
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        assertTrue(api.registerUser(json(BODY))
+                .execute().isSuccessful());
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        int plainSize = BODY.getBytes(StandardCharsets.UTF_8).length;
+        assertTrue("Sent " + request.getBodySize() + " of " + plainSize + " bytes",
+                request.getBodySize() < plainSize / 4);
+        assertEquals(BODY, gunzip(request.getBody()));
+    }
+
+    @Test
+    public void leavesSmallBodiesAndOtherEndpointsAlone() throws Exception {
+        JsonApi api = newApi(BODY.length() + 1);
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        api.registerUser(json(BODY)).execute();
+        api.verifyUser("alice", json(BODY)).execute();
+
+        for (int i = 0; i < 2; i++) {
+            RecordedRequest request = server.takeRequest();
+            assertNull(request.getHeader("Content-Encoding"));
+            assertEquals(request.getBody().size(), request.getBodySize());
+        }
+    }
+
+    @Test
+    public void sendsUncompressedAfter415AndStopsCompressing() throws Exception {
+        JsonApi api = newApi(1024);
+        server.enqueue(new MockResponse().setResponseCode(415));
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        assertTrue(api.registerUser(json(BODY))
+                .execute().isSuccessful());
+        assertTrue(api.registerUser(json(BODY))
+                .execute().isSuccessful());
+
+        assertEquals("gzip", server.takeRequest().getHeader("Content-Encoding"));
+        for (int i = 0; i < 2; i++) {
+            RecordedRequest request = server.takeRequest();
+            assertNull(request.getHeader("Content-Encoding"));
+            assertEquals(BODY, request.getBody().readUtf8());
+        }
+    }
+
+    private JsonApi newApi(long threshold) {
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(RetryPolicy.NONE)
+                .setCircuitBreakerPolicy(null)
+                .setRequestCompression(Endpoint.REGISTER, true)
+                .setCompressionThreshold(threshold)
+                .build();
+        FaceRecognitionClient client = new FaceRecognitionClient(new TestContext(folder.getRoot()), config);
+        return new Retrofit.Builder()
+                .baseUrl(config.getBaseUrl())
+                .client(client.getHttpClient())
+                .build()
+                .create(JsonApi.class);
+    }
+
+    private static RequestBody json(String body) {
+        return RequestBody.create(body, MediaType.get("application/json; charset=utf-8"));
+    }
+
+    private static String gunzip(Buffer body) throws Exception {
+        return Okio.buffer(new GzipSource(body)).readUtf8();
+    }
+
+    /**
+     * Sends a prepared JSON body through the client's OkHttp stack; Endpoint.of only
+     * looks at the method name
+     */
+    interface JsonApi {
+        @POST("api/users")
+        Call<ResponseBody> registerUser(@Body RequestBody body);
+
+        @POST("api/users/{userId}/verify")
+        Call<ResponseBody> verifyUser(@Path("userId") String userId, @Body RequestBody body);
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package com.nivbuskila.facerecognition.network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class FaceDataInputStreamTest {
+    private static final String BASE64 = "/9j/4AAQSkZJRgABAQAAAQABAAD+abc=";
+
+    @Test
+    public void dropsDataUrlPrefix() throws Exception {
+        assertValue(BASE64, "{\"faceData\":\"data:image/jpeg;base64," + BASE64 + "\"}");
+    }
+
+    @Test
+    public void keepsValueWithoutPrefix() throws Exception {
+        assertValue(BASE64, "{\"faceData\":\"" + BASE64 + "\"}");
+    }
+
+    @Test
+    public void unescapesSlashesAndDropsEscapedWhitespace() throws Exception {
+        String escaped = BASE64.replace("/", "\\/");
+        assertValue(BASE64, "{\"faceData\":\"data:image\\/jpeg;base64,"
+                + escaped.substring(0, 10) + "\\n" + escaped.substring(10) + "\"}");
+    }
+
+    @Test
+    public void findsTopLevelValueAfterOtherAndNestedKeys() throws Exception {
+        assertValue(BASE64, "{\"userId\":\"a\\\"faceData\\\"\","
+                + "\"meta\":{\"faceData\":\"nested\",\"list\":[\"faceData\",{\"x\":1}]},"
+                + "\"count\":3,\"faceData\":\"" + BASE64 + "\",\"after\":true}");
+    }
+
+    @Test
+    public void allowsWhitespaceAroundColon() throws Exception {
+        assertValue(BASE64, "{ \"faceData\" \n:\t \"" + BASE64 + "\" }");
+    }
+
+    @Test
+    public void failsOnNullValue() {
+        assertFails("{\"faceData\": null}");
+    }
+
+    @Test
+    public void failsOnNonStringValue() {
+        assertFails("{\"faceData\": 12}");
+    }
+
+    @Test
+    public void failsWithoutFaceData() {
+        assertFails("{\"userId\":\"a\"}");
+    }
+
+    @Test
+    public void failsOnTruncatedValue() {
+        assertFails("{\"faceData\":\"" + BASE64.substring(0, 12));
+    }
+
+    @Test
+    public void failsOnTruncatedEscape() {
+        assertFails("{\"faceData\":\"" + BASE64.substring(0, 12) + "\\");
+    }
+
+    @Test
+    public void singleByteReadsMatchBlockReads() throws Exception {
+        String json = "{\"faceData\":\"data:image/jpeg;base64," + BASE64 + "\"}";
+        FaceDataInputStream in = new FaceDataInputStream(trickle(json));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            out.write(c);
+        }
+
+        assertEquals(BASE64, out.toString("US-ASCII"));
+        assertEquals(-1, in.read(new byte[4], 0, 4));
+    }
+
+    /**
+     * Reads the value in small buffers from a body that arrives a few bytes at a time,
+     * so runs, escapes and the closing quote straddle block boundaries
+     */
+    private static void assertValue(String expected, String json) throws IOException {
+        FaceDataInputStream in = new FaceDataInputStream(trickle(json));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[5];
+        int count;
+        while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        assertEquals(expected, out.toString("US-ASCII"));
+    }
+
+    private static void assertFails(String json) {
+        try (FaceDataInputStream in = new FaceDataInputStream(trickle(json))) {
+            byte[] buffer = new byte[64];
+            while (in.read(buffer, 0, buffer.length) != -1) {
+                // Drain
+            }
+            fail("Read faceData from " + json);
+        } catch (IOException expected) {
+            // Malformed, missing or null faceData
+        }
+    }
+
+    private static InputStream trickle(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, 3));
+            }
+        };
+    }
+}
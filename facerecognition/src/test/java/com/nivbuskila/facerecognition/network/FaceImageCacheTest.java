@@ -0,0 +1,155 @@
+package com.nivbuskila.facerecognition.network;
+
+import android.graphics.Bitmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Disk tier only: bitmaps cannot be decoded on the JVM, so the cache stores response bytes
+ * as-is and a lookup counts as a hit once the file is found.
+ */
+public class FaceImageCacheTest {
+    private static final int IMAGE_BYTES = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evictsLeastRecentlyUsedBeyondTheBudget() throws Exception {
+        FaceImageCache cache = newCache(250, null);
+        put(cache, "alice");
+        put(cache, "bob");
+        assertTrue(isCached(cache, "alice"));
+
+        put(cache, "carol");
+
+        assertFalse(isCached(cache, "bob"));
+        assertTrue(isCached(cache, "alice"));
+        assertTrue(isCached(cache, "carol"));
+        FaceImageCache.Stats stats = cache.getStats();
+        assertEquals(3, stats.getDiskHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getDiskEvictions());
+        assertEquals(2 * IMAGE_BYTES, stats.getDiskBytes());
+    }
+
+    @Test
+    public void indexKeepsEntriesAndOrderAcrossInstances() throws Exception {
+        FaceImageCache cache = newCache(350, null);
+        put(cache, "alice");
+        put(cache, "bob");
+        assertTrue(isCached(cache, "alice"));
+        // Saves the recency of the hit on alice with the index
+        put(cache, "carol");
+
+        FaceImageCache reopened = newCache(350, null);
+        put(reopened, "dave");
+
+        assertFalse(isCached(reopened, "bob"));
+        assertTrue(isCached(reopened, "alice"));
+        assertEquals(1, reopened.getStats().getDiskEvictions());
+        assertEquals(3 * IMAGE_BYTES, reopened.getStats().getDiskBytes());
+    }
+
+    @Test
+    public void dropsDamagedAndUnknownFilesOnLoad() throws Exception {
+        FaceImageCache cache = newCache(1000, null);
+        put(cache, "alice");
+        put(cache, "bob");
+        File[] entries = folder.getRoot().listFiles((dir, name) -> name.endsWith(".img"));
+        assertEquals(2, entries.length);
+        try (OutputStream out = new FileOutputStream(entries[0], true)) {
+            out.write(1);
+        }
+        File stray = new File(folder.getRoot(), "stray.img");
+        assertTrue(stray.createNewFile());
+
+        FaceImageCache reopened = newCache(1000, null);
+        // The index is read by the first lookup
+        assertFalse(isCached(reopened, "carol"));
+
+        assertEquals(IMAGE_BYTES, reopened.getStats().getDiskBytes());
+        assertFalse(entries[0].exists());
+        assertFalse(stray.exists());
+    }
+
+    @Test
+    public void invalidationDuringLoadOnlyDropsThatUser() throws Exception {
+        String[] invalidate = new String[1];
+        FaceImageCache[] self = new FaceImageCache[1];
+        FaceImageCache cache = newCache(1000, () -> self[0].invalidate(invalidate[0]));
+        self[0] = cache;
+
+        invalidate[0] = "alice";
+        put(cache, "bob");
+        invalidate[0] = null;
+        assertTrue(isCached(cache, "bob"));
+
+        invalidate[0] = "bob";
+        put(cache, "bob");
+        invalidate[0] = null;
+        assertFalse(isCached(cache, "bob"));
+    }
+
+    @Test
+    public void clearDuringLoadDropsEveryUser() throws Exception {
+        FaceImageCache[] self = new FaceImageCache[1];
+        FaceImageCache cache = newCache(1000, () -> self[0].clear());
+        self[0] = cache;
+
+        put(cache, "alice");
+
+        assertFalse(isCached(cache, "alice"));
+        assertEquals(0, cache.getStats().getDiskBytes());
+    }
+
+    /**
+     * @param duringWrite Run while a response is being written, outside the cache lock
+     */
+    private FaceImageCache newCache(long maxDiskBytes, Runnable duringWrite) {
+        return new FaceImageCache(folder.getRoot(), 0, maxDiskBytes, Runnable::run) {
+            @Override
+            long writeImage(ResponseBody body, File file) throws IOException {
+                byte[] data = body.bytes();
+                try (OutputStream out = new FileOutputStream(file)) {
+                    out.write(data);
+                }
+                if (duringWrite != null) {
+                    duringWrite.run();
+                }
+                return data.length;
+            }
+
+            @Override
+            Bitmap decode(File file, int reqWidth, int reqHeight) throws IOException {
+                if (!file.exists()) {
+                    throw new IOException("Missing " + file);
+                }
+                return null;
+            }
+        };
+    }
+
+    private static void put(FaceImageCache cache, String userId) throws IOException {
+        cache.put(userId, ResponseBody.create(new byte[IMAGE_BYTES], null), 0, 0);
+    }
+
+    private static boolean isCached(FaceImageCache cache, String userId) {
+        long hits = cache.getStats().getDiskHits();
+        cache.loadBitmap(userId, 0, 0);
+        return cache.getStats().getDiskHits() > hits;
+    }
+}
@@ -0,0 +1,145 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.nivbuskila.facerecognition.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs verify calls against a stand-in server whose latency is usually low but spikes at
+ * random, as a busy backend's does.
+ */
+public class HedgingInterceptorTest {
+    private static final String AUTH = "Bearer token";
+    private static final int CALLS = 60;
+    private static final int WARM_UP = 10;
+    private static final long SPIKE_MILLIS = 1000;
+    private static final ImageVerifyRequest VERIFY =
+            new ImageVerifyRequest(new ImagePayload(new FaceImage()));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new SpikyDispatcher(new Random(42)));
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void hedgesCutLatencySpikesShort() throws Exception {
+        ApiService api = newClient(new HedgePolicy.Builder()
+                .setWindow(50, WARM_UP)
+                .setMinDelay(5, TimeUnit.MILLISECONDS)
+                .setBudget(0.5, 5)
+                .build()).getApiService();
+
+        int slowCalls = 0;
+        for (int i = 0; i < CALLS; i++) {
+            long start = System.nanoTime();
+            assertTrue(api.verifyUser(AUTH, "alice", VERIFY)
+                    .execute().isSuccessful());
+            if (i >= WARM_UP && System.nanoTime() - start
+                    > TimeUnit.MILLISECONDS.toNanos(SPIKE_MILLIS / 2)) {
+                slowCalls++;
+            }
+        }
+
+        assertTrue("Sent no hedges", server.getRequestCount() > CALLS);
+        // Only a call whose hedge spikes too stays slow
+        assertTrue(slowCalls + " slow calls", slowCalls <= 2);
+    }
+
+    @Test
+    public void hedgesStayWithinTheBudget() throws Exception {
+        ApiService api = newClient(new HedgePolicy.Builder()
+                .setWindow(50, WARM_UP)
+                .setMinDelay(5, TimeUnit.MILLISECONDS)
+                .setBudget(0, 1)
+                .build()).getApiService();
+
+        for (int i = 0; i < CALLS / 2; i++) {
+            assertTrue(api.verifyUser(AUTH, "alice", VERIFY)
+                    .execute().isSuccessful());
+        }
+
+        assertEquals(CALLS / 2, server.getRequestCount());
+    }
+
+    private FaceRecognitionClient newClient(HedgePolicy policy) {
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(RetryPolicy.NONE)
+                .setCircuitBreakerPolicy(null)
+                .setHedgePolicy(policy)
+                .setPersistentUserDirectory(false)
+                .build();
+        return new FaceRecognitionClient(new TestContext(folder.getRoot()), config);
+    }
+
+    private static final class FaceImage implements ImageSource {
+        private final byte[] data = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9};
+
+        @Override
+        public String getMimeType() {
+            return "image/jpeg";
+        }
+
+        @Override
+        public long contentLength() {
+            return data.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(data);
+        }
+    }
+
+    /**
+     * Answers after 5 to 15 ms, or after a spike for one request in ten
+     */
+    private static final class SpikyDispatcher extends Dispatcher {
+        private final Random random;
+
+        SpikyDispatcher(Random random) {
+            this.random = random;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            long delay;
+            synchronized (random) {
+                delay = random.nextInt(10) == 0 ? SPIKE_MILLIS : 5 + random.nextInt(11);
+            }
+            return new MockResponse()
+                    .setBody("{\"verified\":true,\"confidence\":0.9}")
+                    .setHeadersDelay(delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.nivbuskila.facerecognition.network;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogBodyRedactorTest {
+    private static final String IMAGE = "data:image/jpeg;base64,/9j/4AAQSkZJRgABAQ\\/AAAQ==";
+
+    @Test
+    public void redactsCredentialKeysInAnyCase() {
+        String body = "{\"userId\":\"alice\",\"password\":\"a\",\"access_token\":\"b\","
+                + "\"refreshToken\":\"c\",\"newPassword\":\"d\",\"Authorization\":\"Bearer e\","
+                + "\"client-secret\":\"f\",\"API_KEY\":\"g\",\"token\":\"h\\\"i\",\"expiresAt\":5}";
+
+        LogBodyRedactor redactor = new LogBodyRedactor(4096);
+        writeInChunks(redactor, body);
+
+        assertEquals("{\"userId\":\"alice\",\"password\":\"<redacted>\","
+                + "\"access_token\":\"<redacted>\",\"refreshToken\":\"<redacted>\","
+                + "\"newPassword\":\"<redacted>\",\"Authorization\":\"<redacted>\","
+                + "\"client-secret\":\"<redacted>\",\"API_KEY\":\"<redacted>\","
+                + "\"token\":\"<redacted>\",\"expiresAt\":5}", redactor.toString());
+    }
+
+    @Test
+    public void summarizesFaceData() throws Exception {
+        String body = "{\"userId\":\"alice\",\"faceData\" : \"" + IMAGE + "\",\"faceData2\":\"\"}";
+
+        LogBodyRedactor redactor = new LogBodyRedactor(4096);
+        writeInChunks(redactor, body);
+
+        assertEquals("{\"userId\":\"alice\",\"faceData\" : \"<faceData: " + IMAGE.length()
+                + " chars, sha256 " + hashPrefix(IMAGE) + ">\",\"faceData2\":\"<faceData2: 0 chars, sha256 "
+                + hashPrefix("") + ">\"}", redactor.toString());
+    }
+
+    @Test
+    public void stopsAtTheLimitAndCountsTheRest() {
+        String body = "{\"userId\":\"alice\",\"note\":\"" + repeat("x", 200) + "\"}";
+        int total = body.getBytes(StandardCharsets.UTF_8).length;
+
+        LogBodyRedactor redactor = new LogBodyRedactor(32);
+        writeInChunks(redactor, body);
+
+        assertTrue(redactor.isTruncated());
+        assertEquals(body.substring(0, 32) + "... (" + total + " bytes total)", redactor.toString());
+    }
+
+    @Test
+    public void leavesShortBodiesWhole() {
+        String body = "{\"verified\":true}";
+
+        LogBodyRedactor redactor = new LogBodyRedactor(body.length());
+        writeInChunks(redactor, body);
+
+        assertFalse(redactor.isTruncated());
+        assertEquals(body, redactor.toString());
+    }
+
+    /**
+     * Writes in chunks of 1 to 7 bytes, so keys, escapes and values are split across writes
+     */
+    private static void writeInChunks(LogBodyRedactor redactor, String body) {
+        byte[] data = body.getBytes(StandardCharsets.UTF_8);
+        int chunk = 1;
+        for (int offset = 0; offset < data.length; offset += chunk) {
+            chunk = 1 + offset % 7;
+            redactor.write(data, offset, Math.min(chunk, data.length - offset));
+        }
+    }
+
+    private static String hashPrefix(String value) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256")
+                .digest(value.getBytes(StandardCharsets.UTF_8));
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            prefix.append(String.format("%02x", hash[i]));
+        }
+        return prefix.toString();
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.nivbuskila.facerecognition.FaceRecognition;
+import com.nivbuskila.facerecognition.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class RetryInterceptorTest {
+    private static final String AUTH = "Bearer token";
+    private static final String KEY = RetryInterceptor.IDEMPOTENCY_KEY_HEADER;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        SessionManager.getInstance().setToken("token", 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SessionManager.getInstance().clear();
+        server.shutdown();
+    }
+
+    @Test
+    public void retriesTransientFailuresOfReads() throws Exception {
+        ApiService api = newClient(fastRetries().build()).getApiService();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("[]"));
+
+        assertTrue(api.getUsers(AUTH).execute().isSuccessful());
+
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        ApiService api = newClient(fastRetries().build()).getApiService();
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setResponseCode(503));
+        }
+
+        assertEquals(503, api.getUsers(AUTH).execute().code());
+
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryOtherStatuses() throws Exception {
+        ApiService api = newClient(fastRetries().build()).getApiService();
+        server.enqueue(new MockResponse().setResponseCode(400));
+        server.enqueue(new MockResponse().setBody("[]"));
+
+        assertEquals(400, api.getUsers(AUTH).execute().code());
+
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void writesAreNotRetriedByDefault() throws Exception {
+        ApiService api = newClient(fastRetries().build()).getApiService();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        assertEquals(503, api.deleteUser(AUTH, null, "alice").execute().code());
+
+        assertEquals(1, server.getRequestCount());
+        assertNotNull(server.takeRequest().getHeader(KEY));
+    }
+
+    @Test
+    public void enabledWriteRetriesSendOneKey() throws Exception {
+        ApiService api = newClient(fastRetries().setRetried(Endpoint.DELETE, true).build())
+                .getApiService();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        Response<ApiResponse> response = api.deleteUser(AUTH, null, "alice").execute();
+
+        assertTrue(response.isSuccessful());
+        assertEquals(3, server.getRequestCount());
+        String key = server.takeRequest().getHeader(KEY);
+        assertNotNull(key);
+        assertEquals(key, server.takeRequest().getHeader(KEY));
+        assertEquals(key, server.takeRequest().getHeader(KEY));
+    }
+
+    @Test
+    public void keepsTheCallersKey() throws Exception {
+        ApiService api = newClient(fastRetries().setRetried(Endpoint.DELETE, true).build())
+                .getApiService();
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        api.deleteUser(AUTH, "key-1", "alice").execute();
+
+        assertEquals("key-1", server.takeRequest().getHeader(KEY));
+        assertEquals("key-1", server.takeRequest().getHeader(KEY));
+    }
+
+    @Test
+    public void separateWritesGetSeparateKeys() throws Exception {
+        FaceRecognitionClient client = newClient(fastRetries().build());
+        FaceRecognition faceRecognition = new FaceRecognition(client.getContext(), client);
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.enqueue(new MockResponse().setBody("{}"));
+
+        assertTrue(faceRecognition.deleteUser("alice").isSuccess());
+        assertTrue(faceRecognition.deleteUser("alice").isSuccess());
+
+        String first = server.takeRequest().getHeader(KEY);
+        assertNotNull(first);
+        assertNotEquals(first, server.takeRequest().getHeader(KEY));
+    }
+
+    private static RetryPolicy.Builder fastRetries() {
+        return new RetryPolicy.Builder().setBackoff(1, 1, TimeUnit.MILLISECONDS);
+    }
+
+    private FaceRecognitionClient newClient(RetryPolicy policy) {
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(policy)
+                .setCircuitBreakerPolicy(null)
+                .setPersistentUserDirectory(false)
+                .build();
+        return new FaceRecognitionClient(new TestContext(folder.getRoot()), config);
+    }
+}
@@ -0,0 +1,76 @@
+package com.nivbuskila.facerecognition.network;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    @Test
+    public void backoffCapDoublesUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy.Builder().build();
+
+        assertEquals(250, policy.backoffCapMillis(1));
+        assertEquals(500, policy.backoffCapMillis(2));
+        assertEquals(1000, policy.backoffCapMillis(3));
+        assertEquals(2000, policy.backoffCapMillis(4));
+        assertEquals(4000, policy.backoffCapMillis(5));
+        assertEquals(4000, policy.backoffCapMillis(6));
+    }
+
+    @Test
+    public void backoffFollowsConfiguredGrowth() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .setBackoff(100, 1000, TimeUnit.MILLISECONDS)
+                .setMultiplier(3)
+                .build();
+
+        assertEquals(100, policy.backoffCapMillis(1));
+        assertEquals(300, policy.backoffCapMillis(2));
+        assertEquals(900, policy.backoffCapMillis(3));
+        assertEquals(1000, policy.backoffCapMillis(4));
+    }
+
+    @Test
+    public void readsAndVerificationsAreRetriedByDefault() {
+        RetryPolicy policy = new RetryPolicy.Builder().build();
+
+        assertTrue(policy.isRetried(Endpoint.GET_USERS));
+        assertTrue(policy.isRetried(Endpoint.GET_USER_IMAGE));
+        assertTrue(policy.isRetried(Endpoint.VERIFY));
+        assertTrue(policy.isRetried(Endpoint.COMPARE));
+    }
+
+    @Test
+    public void loginAndWritesAreNotRetriedByDefault() {
+        RetryPolicy policy = new RetryPolicy.Builder().build();
+
+        assertFalse(policy.isRetried(Endpoint.LOGIN));
+        assertFalse(policy.isRetried(Endpoint.REGISTER));
+        assertFalse(policy.isRetried(Endpoint.UPDATE));
+        assertFalse(policy.isRetried(Endpoint.DELETE));
+    }
+
+    @Test
+    public void endpointsCanBeEnabledAndDisabled() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .setRetried(Endpoint.DELETE, true)
+                .setRetried(Endpoint.VERIFY, false)
+                .build();
+
+        assertTrue(policy.isRetried(Endpoint.DELETE));
+        assertFalse(policy.isRetried(Endpoint.VERIFY));
+        assertTrue(policy.isRetried(Endpoint.COMPARE));
+    }
+
+    @Test
+    public void singleAttemptRetriesNothing() {
+        assertFalse(RetryPolicy.NONE.isRetried(Endpoint.GET_USERS));
+        RetryPolicy policy = new RetryPolicy.Builder().setMaxAttempts(0).build();
+        assertEquals(1, policy.getMaxAttempts());
+        assertFalse(policy.isRetried(Endpoint.GET_USERS));
+    }
+}
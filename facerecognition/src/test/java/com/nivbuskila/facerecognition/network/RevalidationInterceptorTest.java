@@ -0,0 +1,116 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.nivbuskila.facerecognition.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import okhttp3.Cache;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RevalidationInterceptorTest {
+    private static final String USERS = "[{\"userId\":\"alice\"},{\"userId\":\"bob\"}]";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private FaceRecognitionClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(RetryPolicy.NONE)
+                .setCircuitBreakerPolicy(null)
+                .setHttpCacheSize(1024 * 1024)
+                .build();
+        client = new FaceRecognitionClient(new TestContext(folder.getRoot()), config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void revalidatesUserListWithETag() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("ETag", "\"v1\"")
+                .setHeader("Cache-Control", "max-age=3600")
+                .setBody(USERS));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+
+        Response<List<ApiResponse>> first = client.getApiService().getUsers("Bearer token").execute();
+        Response<List<ApiResponse>> second = client.getApiService().getUsers("Bearer token").execute();
+
+        assertEquals(2, first.body().size());
+        assertEquals(2, second.body().size());
+        assertEquals("bob", second.body().get(1).getUserId());
+        // max-age was replaced with no-cache, so the second call went to the server
+        assertEquals(2, server.getRequestCount());
+        assertNull(server.takeRequest().getHeader("If-None-Match"));
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        Cache cache = client.getHttpCache();
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.networkCount());
+    }
+
+    @Test
+    public void sendsChangedUserListAgain() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody(USERS));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody("[]"));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v2\""));
+
+        client.getApiService().getUsers("Bearer token").execute();
+        Response<List<ApiResponse>> changed = client.getApiService().getUsers("Bearer token").execute();
+        Response<List<ApiResponse>> cached = client.getApiService().getUsers("Bearer token").execute();
+
+        assertTrue(changed.body().isEmpty());
+        assertTrue(cached.body().isEmpty());
+        server.takeRequest();
+        assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+        assertEquals("\"v2\"", server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void neverStoresUserImages() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            server.enqueue(new MockResponse()
+                    .setHeader("ETag", "\"image\"")
+                    .setHeader("Cache-Control", "max-age=3600")
+                    .setBody("{\"faceData\":\"data:image/jpeg;base64,AAAA\"}"));
+        }
+
+        for (int i = 0; i < 2; i++) {
+            try (ResponseBody body = client.getApiService()
+                    .getUserImageStream("Bearer token", "alice").execute().body()) {
+                body.string();
+            }
+        }
+
+        for (int i = 0; i < 2; i++) {
+            RecordedRequest request = server.takeRequest();
+            assertNull(request.getHeader("If-None-Match"));
+        }
+        Cache cache = client.getHttpCache();
+        assertEquals(0, cache.hitCount());
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,139 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.nivbuskila.facerecognition.TestContext;
+import com.nivbuskila.facerecognition.auth.AuthRequest;
+import com.nivbuskila.facerecognition.auth.AuthResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRenewalTest {
+    private static final int CALLERS = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SessionManager sessionManager = SessionManager.getInstance();
+    private final AtomicInteger logins = new AtomicInteger();
+    private MockWebServer server;
+    private ApiService api;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new TokenDispatcher());
+        server.start();
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(RetryPolicy.NONE)
+                .setPersistentUserDirectory(false)
+                .build();
+        api = new FaceRecognitionClient(new TestContext(folder.getRoot()), config).getApiService();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sessionManager.setListener(null);
+        sessionManager.clear();
+        server.shutdown();
+    }
+
+    @Test
+    public void parallelRejectionsShareOneLogin() throws Exception {
+        sessionManager.setToken("old", 0);
+        sessionManager.setRenewal(this::login);
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Response<List<ApiResponse>>>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(callers.submit(() -> {
+                    start.await();
+                    return api.getUsers("Bearer old").execute();
+                }));
+            }
+            start.countDown();
+
+            for (Future<Response<List<ApiResponse>>> result : results) {
+                assertTrue(result.get(10, TimeUnit.SECONDS).isSuccessful());
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertEquals(1, logins.get());
+        assertEquals("new", sessionManager.getToken());
+    }
+
+    @Test
+    public void refreshesTheSessionBeforeItExpires() throws Exception {
+        CountDownLatch changed = new CountDownLatch(1);
+        sessionManager.setRenewal(this::login);
+        // Renewed a minute before expiry, so half a second from now
+        sessionManager.setToken("old", System.currentTimeMillis() + 60_500);
+        SessionManager.Session expiring = sessionManager.getSession();
+        sessionManager.setListener(session -> {
+            if (session != null && session.getToken().equals("new")) {
+                changed.countDown();
+            }
+        });
+
+        assertTrue(changed.await(5, TimeUnit.SECONDS));
+        assertNotSame(expiring, sessionManager.getSession());
+        assertEquals("new", sessionManager.getToken());
+        assertEquals(1, logins.get());
+    }
+
+    private String login() throws IOException {
+        Response<AuthResponse> response = api.login(new AuthRequest("user", "secret")).execute();
+        if (!response.isSuccessful() || response.body() == null) {
+            return null;
+        }
+        String token = response.body().getToken();
+        sessionManager.setToken(token, System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        return token;
+    }
+
+    /**
+     * Rejects the old token; the login is slow, so every rejected caller waits on it
+     */
+    private final class TokenDispatcher extends Dispatcher {
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            if (request.getPath().startsWith("/api/auth/login")) {
+                logins.incrementAndGet();
+                return new MockResponse()
+                        .setBody("{\"token\":\"new\",\"expiresIn\":3600}")
+                        .setHeadersDelay(300, TimeUnit.MILLISECONDS);
+            }
+            if ("Bearer new".equals(request.getHeader("Authorization"))) {
+                return new MockResponse().setBody("[]");
+            }
+            return new MockResponse().setResponseCode(401);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.nivbuskila.facerecognition.network;
+
+import com.nivbuskila.facerecognition.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import retrofit2.HttpException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class UserListingTest {
+    private static final String AUTH = "Bearer token";
+    private static final String FACE_DATA = "data:image/jpeg;base64,AAAA";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ApiService api;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        FaceRecognitionClient.Config config = new FaceRecognitionClient.Config.Builder()
+                .setBaseUrl(server.url("/").toString())
+                .setLogLevel(HttpLogLevel.NONE)
+                .setRetryPolicy(RetryPolicy.NONE)
+                .setCircuitBreakerPolicy(null)
+                .setPersistentUserDirectory(false)
+                .build();
+        api = new FaceRecognitionClient(new TestContext(folder.getRoot()), config).getApiService();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void followsNextCursorAcrossPages() throws Exception {
+        server.enqueue(new MockResponse().setHeader("X-Sync-Cursor", "s1")
+                .setBody(page("p2", "alice", "bob")));
+        server.enqueue(new MockResponse().setHeader("X-Sync-Cursor", "ignored")
+                .setBody(page(null, "carol")));
+        List<String> seen = new ArrayList<>();
+        UserListing listing = new UserListing(api, 2, false);
+
+        int count = listing.forEach(AUTH, (user, faceData) -> seen.add(user.getUserId()));
+
+        assertEquals(3, count);
+        assertEquals(Arrays.asList("alice", "bob", "carol"), seen);
+        assertEquals("s1", listing.getSyncCursor());
+        assertEquals("/api/users?limit=2", server.takeRequest().getPath());
+        assertEquals("/api/users?limit=2&cursor=p2", server.takeRequest().getPath());
+    }
+
+    @Test
+    public void readsPlainArrayAsSinglePage() throws Exception {
+        server.enqueue(new MockResponse().setBody("[" + user("alice") + "," + user("bob") + "]"));
+        List<String> seen = new ArrayList<>();
+
+        int count = new UserListing(api, 2, false)
+                .forEach(AUTH, (user, faceData) -> seen.add(user.getUserId()));
+
+        assertEquals(2, count);
+        assertEquals(Arrays.asList("alice", "bob"), seen);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void passesFaceDataOnlyWhenRequested() throws Exception {
+        server.enqueue(new MockResponse().setBody(page(null, "alice")));
+        server.enqueue(new MockResponse().setBody(page(null, "alice")));
+        List<String> faces = new ArrayList<>();
+
+        new UserListing(api, 10, false).forEach(AUTH, (user, faceData) -> faces.add(faceData));
+        new UserListing(api, 10, true).forEach(AUTH, (user, faceData) -> faces.add(faceData));
+
+        assertNull(faces.get(0));
+        assertEquals(FACE_DATA, faces.get(1));
+    }
+
+    @Test
+    public void consumerCanStopTheListing() throws Exception {
+        server.enqueue(new MockResponse().setBody(page("p2", "alice", "bob")));
+        server.enqueue(new MockResponse().setBody(page(null, "carol")));
+
+        int count = new UserListing(api, 2, false).forEach(AUTH, (user, faceData) -> false);
+
+        assertEquals(1, count);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void repeatedCursorEndsTheListing() throws Exception {
+        server.enqueue(new MockResponse().setBody(page("p2", "alice")));
+        server.enqueue(new MockResponse().setBody(page("p2", "bob")));
+        server.enqueue(new MockResponse().setBody(page(null, "carol")));
+
+        int count = new UserListing(api, 1, false).forEach(AUTH, (user, faceData) -> true);
+
+        assertEquals(2, count);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void skipsUsersWithoutId() throws Exception {
+        server.enqueue(new MockResponse().setBody(
+                "{\"users\":[{\"_id\":\"1\"}," + user("alice") + "]}"));
+
+        int count = new UserListing(api, 10, false).forEach(AUTH, (user, faceData) -> true);
+
+        assertEquals(1, count);
+    }
+
+    @Test
+    public void errorPageIsThrown() throws Exception {
+        server.enqueue(new MockResponse().setBody(page("p2", "alice")));
+        server.enqueue(new MockResponse().setResponseCode(500));
+
+        try {
+            new UserListing(api, 1, false).forEach(AUTH, (user, faceData) -> true);
+            fail("Expected an HttpException");
+        } catch (HttpException e) {
+            assertEquals(500, e.code());
+        }
+    }
+
+    private static String page(String nextCursor, String... userIds) {
+        StringBuilder body = new StringBuilder("{\"users\":[");
+        for (int i = 0; i < userIds.length; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append(user(userIds[i]));
+        }
+        body.append("],\"nextCursor\":")
+                .append(nextCursor != null ? "\"" + nextCursor + "\"" : "null")
+                .append('}');
+        return body.toString();
+    }
+
+    private static String user(String userId) {
+        return "{\"userId\":\"" + userId + "\",\"faceData\":\"" + FACE_DATA
+                + "\",\"created_at\":\"2024-01-01T00:00:00Z\"}";
+    }
+}
@@ -0,0 +1,240 @@
+package com.nivbuskila.facerecognition.outbox;
+
+import com.nivbuskila.facerecognition.TestContext;
+import com.nivbuskila.facerecognition.models.ErrorCode;
+import com.nivbuskila.facerecognition.models.FaceRecognitionResult;
+import com.nivbuskila.facerecognition.network.ImageSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MutationOutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "outbox");
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void newerUpdateReplacesPendingUpdate() throws Exception {
+        MutationOutbox outbox = newOutbox();
+        outbox.add(Mutation.Type.UPDATE, "alice", image("first"));
+        outbox.add(Mutation.Type.UPDATE, "alice", image("second"));
+
+        List<Mutation> pending = outbox.getPending();
+        assertEquals(1, pending.size());
+        assertEquals(Mutation.Type.UPDATE, pending.get(0).getType());
+        assertArrayEquals(bytes("second"), read(pending.get(0).getImage()));
+        assertEquals(1, imageFiles());
+    }
+
+    @Test
+    public void updateFoldsIntoUnsentRegister() throws Exception {
+        MutationOutbox outbox = newOutbox();
+        outbox.add(Mutation.Type.REGISTER, "alice", image("first"));
+        outbox.add(Mutation.Type.UPDATE, "alice", image("second"));
+
+        List<Mutation> pending = outbox.getPending();
+        assertEquals(1, pending.size());
+        assertEquals(Mutation.Type.REGISTER, pending.get(0).getType());
+        assertArrayEquals(bytes("second"), read(pending.get(0).getImage()));
+    }
+
+    @Test
+    public void deleteCancelsUnsentRegister() throws Exception {
+        MutationOutbox outbox = newOutbox();
+        outbox.add(Mutation.Type.REGISTER, "alice", image("first"));
+
+        assertNull(outbox.add(Mutation.Type.DELETE, "alice", null));
+        assertTrue(outbox.getPending().isEmpty());
+        assertEquals(0, imageFiles());
+    }
+
+    @Test
+    public void deleteReplacesPendingUpdates() throws Exception {
+        MutationOutbox outbox = newOutbox();
+        outbox.add(Mutation.Type.UPDATE, "alice", image("first"));
+        outbox.add(Mutation.Type.UPDATE, "bob", image("other"));
+        outbox.add(Mutation.Type.DELETE, "alice", null);
+
+        List<Mutation> pending = outbox.getPending();
+        assertEquals(2, pending.size());
+        assertEquals("bob", pending.get(0).getUserId());
+        assertEquals(Mutation.Type.DELETE, pending.get(1).getType());
+        assertEquals(1, imageFiles());
+    }
+
+    @Test
+    public void eachWriteHasItsOwnKey() throws Exception {
+        MutationOutbox outbox = newOutbox();
+        Mutation first = outbox.add(Mutation.Type.UPDATE, "alice", image("first"));
+        Mutation second = outbox.add(Mutation.Type.UPDATE, "bob", image("second"));
+
+        assertNotNull(first.getIdempotencyKey());
+        assertNotEquals(first.getIdempotencyKey(), second.getIdempotencyKey());
+    }
+
+    @Test
+    public void pendingWritesAndKeysSurviveRestart() throws Exception {
+        MutationOutbox outbox = newOutbox();
+        Mutation update = outbox.add(Mutation.Type.UPDATE, "alice smith", image("first"));
+        Mutation delete = outbox.add(Mutation.Type.DELETE, "bob", null);
+
+        List<Mutation> pending = newOutbox().getPending();
+
+        assertEquals(2, pending.size());
+        assertEquals(update.getSequence(), pending.get(0).getSequence());
+        assertEquals("alice smith", pending.get(0).getUserId());
+        assertEquals(update.getIdempotencyKey(), pending.get(0).getIdempotencyKey());
+        assertArrayEquals(bytes("first"), read(pending.get(0).getImage()));
+        assertEquals(delete.getIdempotencyKey(), pending.get(1).getIdempotencyKey());
+    }
+
+    @Test
+    public void tornLastLineIsIgnored() throws Exception {
+        MutationOutbox outbox = newOutbox();
+        Mutation update = outbox.add(Mutation.Type.UPDATE, "alice", image("first"));
+        // A crash in the middle of journaling a delete of "bobby"
+        append("ADD 7 DELETE 0 - bob");
+
+        MutationOutbox restarted = newOutbox();
+        List<Mutation> pending = restarted.getPending();
+
+        assertEquals(1, pending.size());
+        assertEquals(update.getSequence(), pending.get(0).getSequence());
+        Mutation next = restarted.add(Mutation.Type.DELETE, "carol", null);
+        assertTrue(next.getSequence() > update.getSequence());
+        assertEquals(2, newOutbox().getPending().size());
+    }
+
+    @Test
+    public void journalWithoutKeysStillLoads() throws Exception {
+        assertTrue(directory.mkdirs());
+        append("ADD 3 DELETE 1 - alice\n");
+
+        List<Mutation> pending = newOutbox().getPending();
+
+        assertEquals(1, pending.size());
+        assertEquals(1, pending.get(0).getAttempts());
+        assertNotNull(pending.get(0).getIdempotencyKey());
+    }
+
+    @Test
+    public void everyAttemptSendsTheStoredKey() throws Exception {
+        MutationOutbox outbox = newOutbox();
+        Mutation stored = outbox.add(Mutation.Type.DELETE, "alice", null);
+        List<String> keys = new ArrayList<>();
+        outbox.start(new TestContext(folder.getRoot()), mutation -> {
+            synchronized (keys) {
+                keys.add(mutation.getIdempotencyKey());
+                keys.notifyAll();
+                return keys.size() == 1
+                        ? failure(ErrorCode.NETWORK)
+                        : new FaceRecognitionResult.Builder().setSuccess(true).build();
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (keys) {
+            while (keys.size() < 2 && System.currentTimeMillis() < deadline) {
+                keys.wait(50);
+                // Skip the backoff after the failed attempt
+                outbox.replay();
+            }
+        }
+
+        assertEquals(2, keys.size());
+        assertEquals(stored.getIdempotencyKey(), keys.get(0));
+        assertEquals(stored.getIdempotencyKey(), keys.get(1));
+    }
+
+    private MutationOutbox newOutbox() {
+        return new MutationOutbox(directory, 2, executor);
+    }
+
+    private int imageFiles() {
+        int count = 0;
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(".img")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void append(String text) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(new File(directory, "journal"), true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static FaceRecognitionResult failure(ErrorCode code) {
+        return new FaceRecognitionResult.Builder()
+                .setSuccess(false)
+                .setError("failed")
+                .setErrorCode(code)
+                .build();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(ImageSource image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        image.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static ImageSource image(String content) {
+        byte[] data = bytes(content);
+        return new ImageSource() {
+            @Override
+            public String getMimeType() {
+                return "image/jpeg";
+            }
+
+            @Override
+            public long contentLength() {
+                return data.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(data);
+            }
+        };
+    }
+}